@@ -11,6 +11,7 @@ import static javax.servlet.http.HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE
 import static javax.servlet.http.HttpServletResponse.SC_SERVICE_UNAVAILABLE;
 
 // java core api
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
@@ -22,14 +23,18 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.PipedReader;
+import java.io.PipedWriter;
 import java.io.PrintWriter;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
@@ -45,6 +50,11 @@ import java.util.Properties;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 import java.net.URLEncoder;
 
@@ -109,9 +119,9 @@ import org.dom4j.Namespace;
 import org.dom4j.QName;
 
 // xsl
+import javax.xml.transform.Source;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 
@@ -136,6 +146,7 @@ import edu.ucsd.library.dams.file.Checksum;
 import edu.ucsd.library.dams.file.FileStore;
 import edu.ucsd.library.dams.file.FileStoreUtil;
 import edu.ucsd.library.dams.file.ImageMagick;
+import edu.ucsd.library.dams.file.impl.CachingFileStore;
 import edu.ucsd.library.dams.file.Ffmpeg;
 import edu.ucsd.library.dams.file.characterization.CharacterizationService;
 import edu.ucsd.library.dams.file.characterization.model.TechnicalMetadata;
@@ -143,9 +154,9 @@ import edu.ucsd.library.dams.file.characterization.processors.ChecksumProcessor;
 import edu.ucsd.library.dams.file.characterization.processors.FfmpegProcessor;
 import edu.ucsd.library.dams.file.characterization.processors.FitsProcessor;
 import edu.ucsd.library.dams.file.characterization.processors.Processor;
-import edu.ucsd.library.dams.file.impl.LocalStore;
 import edu.ucsd.library.dams.model.DAMSObject;
 import edu.ucsd.library.dams.model.Event;
+import edu.ucsd.library.dams.model.EventQueue;
 import edu.ucsd.library.dams.triple.ArkTranslator;
 import edu.ucsd.library.dams.triple.BindingIterator;
 import edu.ucsd.library.dams.triple.Identifier;
@@ -153,13 +164,20 @@ import edu.ucsd.library.dams.triple.Statement;
 import edu.ucsd.library.dams.triple.StatementIterator;
 import edu.ucsd.library.dams.triple.TripleStore;
 import edu.ucsd.library.dams.triple.TripleStoreException;
+import edu.ucsd.library.dams.triple.TripleStorePool;
 import edu.ucsd.library.dams.triple.TripleStoreUtil;
 import edu.ucsd.library.dams.triple.Validator;
 import edu.ucsd.library.dams.triple.edit.Edit;
+import edu.ucsd.library.dams.triple.impl.RelationalTripleStore;
 import edu.ucsd.library.dams.util.Ezid;
 import edu.ucsd.library.dams.util.EzidException;
 import edu.ucsd.library.dams.util.HttpUtil;
+import edu.ucsd.library.dams.util.IdReservation;
 import edu.ucsd.library.dams.util.LDAPUtil;
+import edu.ucsd.library.dams.util.ObjectCache;
+import edu.ucsd.library.dams.util.SerializationScheduler;
+import edu.ucsd.library.dams.util.SerializationScheduler.Serializer;
+import edu.ucsd.library.dams.util.TemplatesCache;
 import edu.ucsd.library.dams.util.OutputStreamer;
 import edu.ucsd.library.dams.util.JSONOutputStreamer;
 import edu.ucsd.library.dams.util.XMLOutputStreamer;
@@ -269,52 +287,65 @@ public class DAMSAPIServlet extends HttpServlet
 	protected List<Long> putTimes = new ArrayList<Long>();
 	protected List<Long> delTimes = new ArrayList<Long>();
 
+	// compiled xsl stylesheets
+	protected static TemplatesCache templates = new TemplatesCache();
+
+	// threads serializing rdf/xml into streaming transforms, bounded so a
+	// burst of requests can't start unlimited threads
+	private static final int PIPE_SIZE = 65536;
+	private static ThreadPoolExecutor serializers = new ThreadPoolExecutor(
+		0, 16, 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+		new ThreadFactory() {
+			public Thread newThread( Runnable r )
+			{
+				Thread t = new Thread( r, "rdfxml-serializer" );
+				t.setDaemon( true );
+				return t;
+			}
+		}
+	);
+
+	// recursive object retrieval
+	private boolean describeConcurrent = false;
+	private int describeMaxDepth = 10;
+	private int describeMaxStatements = 0;
+
+	// sparql query limits
+	private int sparqlMaxRows = 0;
+	private int sparqlTimeout = 0;
+
 	// object rdf/xml caching
-	private static HashMap<String,String> cacheContent = new HashMap<String,String>();
-	private static LinkedList<String> cacheAccess = new LinkedList<String>();
-	private static int cacheSize = 10; // max objects in cache, 0 = disabled
+	private static ObjectCache rdfCache = new ObjectCache( 0, 0L, 0L );
 
 	// doi minting
 	private Ezid ezid;
 	private String ezidTargetUrl;
 
+	// event ids reserved from the minter, and background event writer
+	private IdReservation eventIds = null;
+	private EventQueue eventQueue = null;
+
+	// rdf.xml serialization after changes
+	private SerializationScheduler serializer = null;
+
 	// request user id
 	private String user = null;
 	private Identifier userID = null;
 	private String client = null;
 
-	protected static synchronized void cacheAdd( String objid, String content )
+	protected static void cacheAdd( String objid, String content )
 	{
-		if ( cacheSize > 0 )
-		{
-			if ( !cacheContent.containsKey(objid) )
-			{
-				while ( cacheContent.size() >= cacheSize )
-				{
-					cacheContent.remove(cacheAccess.pop());
-				}
-			}
-			cacheContent.put(objid,content);
-			cacheAccess.add(objid);
-		}
+		rdfCache.put( objid, content, rdfCache.stamp() );
 	}
-	protected static synchronized String cacheGet( String objid )
+	protected static String cacheGet( String objid )
 	{
-		if ( cacheSize > 0 )
-		{
-			cacheAccess.remove(objid);
-			cacheAccess.add(objid);
-			return cacheContent.get(objid);
-		}
-		else
-		{
-			return null;
-		}
+		return rdfCache.get( objid );
 	}
 	protected String cacheUpdate( String objid, TripleStore ts, TripleStore es )
 	{
 		// Q: serialize with events? performance implications?
 		String rdfxml = null;
+		long stamp = rdfCache.stamp();
 		Map info = objectShow( objid, ts, es ); // static???
 		if ( info.get("obj") != null )
 		{
@@ -324,7 +355,7 @@ public class DAMSAPIServlet extends HttpServlet
 				rdfxml = obj.getRDFXML(true);
 				if ( rdfxml != null )
 				{
-					cacheAdd( objid, rdfxml );
+					rdfCache.put( objid, rdfxml, stamp );
 				}
 			}
 			catch ( Exception ex )
@@ -336,19 +367,11 @@ public class DAMSAPIServlet extends HttpServlet
 	}
 	protected static void cacheRemove( String objid )
 	{
-		if ( cacheSize > 0 )
-		{
-			cacheContent.remove(objid);
-			cacheAccess.remove(objid);
-		}
+		rdfCache.remove( objid );
 	}
 	protected static void cacheClear()
 	{
-		if ( cacheSize > 0 )
-		{
-			cacheContent.clear();
-			cacheAccess.clear();
-		}
+		rdfCache.clear();
 	}
 
 	// initialize servlet parameters
@@ -361,6 +384,13 @@ public class DAMSAPIServlet extends HttpServlet
 		buildTimestamp = ctx.getInitParameter("build-timestamp");
 		super.init(config);
 	}
+	public void destroy()
+	{
+		if ( eventQueue != null ) { eventQueue.close( 30000L ); }
+		if ( serializer != null ) { serializer.close( 30000L ); }
+		TripleStorePool.closeAll();
+		super.destroy();
+	}
 	protected synchronized String config(ServletContext context)
 	{
 		String error = null;
@@ -428,6 +458,7 @@ public class DAMSAPIServlet extends HttpServlet
 			// triplestores
 			tsDefault = props.getProperty("ts.default");
 			tsEvents  = props.getProperty("ts.events");
+			TripleStorePool.closeAll(); // reopen with current config
 
 			// files
 			fsDefault = props.getProperty("fs.default");
@@ -499,9 +530,87 @@ public class DAMSAPIServlet extends HttpServlet
 			// ldap for group lookup
 			ldaputil = new LDAPUtil( props );
 
-			// cache size
-			cacheSize = getPropInt(props, "ts.cacheSize", 0 );
-			cacheClear(); // clear cache
+			// cache size: max objects, max bytes and ttl
+			rdfCache = new ObjectCache(
+				getPropInt(props, "ts.cacheSize", 0 ),
+				getPropLong(props, "ts.cacheBytes", 67108864L ),
+				getPropLong(props, "ts.cacheTTL", 0L )
+			);
+
+			// compiled stylesheets: max stylesheets and ttl for urls
+			templates = new TemplatesCache(
+				getPropInt(props, "xsl.cacheSize", 100 ),
+				getPropLong(props, "xsl.urlTTL", 300000L )
+			);
+
+			// max threads serializing rdf/xml for streaming transforms
+			serializers.setMaximumPoolSize(
+				Math.max( getPropInt(props, "xsl.serializerThreads", 16), 1 )
+			);
+
+			// recursive object retrieval
+			describeConcurrent = "true".equals(
+				props.getProperty("ts.describeConcurrent")
+			);
+			DAMSObject.setMaxFetchers(
+				getPropInt(props, "ts.describeThreads", 16)
+			);
+			describeMaxDepth = getPropInt(props, "ts.describeMaxDepth", 10);
+			describeMaxStatements = getPropInt(props, "ts.describeMaxStatements", 0);
+
+			// sparql query limits: max rows and seconds per query
+			sparqlMaxRows = getPropInt(props, "ts.sparqlMaxRows", 0);
+			sparqlTimeout = getPropInt(props, "ts.sparqlTimeout", 0);
+
+			// event ids reserved from the default minter in blocks
+			eventIds = new IdReservation(
+				idMinters.get(minterDefault),
+				getPropInt(props, "minters.blockSize", 10)
+			);
+
+			// background event writer: queue size (0 = write events during
+			// the request) and events per transaction
+			if ( eventQueue != null )
+			{
+				eventQueue.close( 30000L );
+				eventQueue = null;
+			}
+			int eventQueueSize = getPropInt(props, "ts.eventQueueSize", 0);
+			if ( eventQueueSize > 0 )
+			{
+				eventQueue = new EventQueue(
+					props, eventQueueSize,
+					getPropInt(props, "ts.eventBatchSize", 100),
+					new EventQueue.Listener() {
+						public void eventsWritten( Set<String> objids,
+							TripleStore ts, TripleStore es )
+						{
+							serialize( objids, ts, es );
+						}
+					}
+				);
+			}
+
+			// rdf.xml serialization: milliseconds to wait for more changes
+			// (0 = serialize during the request), maximum milliseconds to
+			// wait, and worker threads
+			if ( serializer != null )
+			{
+				serializer.close( 30000L );
+			}
+			long serializeDelay = getPropLong(props, "ts.serializeDelay", 0L);
+			serializer = new SerializationScheduler(
+				new SerializationScheduler.Serializer() {
+					public void serialize( String objid, String tsName,
+						String esName ) throws Exception
+					{
+						serializeObject( objid, tsName, esName );
+					}
+				},
+				serializeDelay,
+				getPropLong(props, "ts.serializeMaxDelay", serializeDelay * 10),
+				getPropInt(props, "ts.serializeThreads", 2)
+			);
 
 			// queue
 			queueUrl = props.getProperty("queue.url");
@@ -638,7 +747,10 @@ public class DAMSAPIServlet extends HttpServlet
 				&& path[3].equals("files") )
 			{
 				ts = triplestore(req);
-				info = collectionListFiles( path[2], ts );
+				collectionListFiles(
+					path[2], ts, req.getParameterMap(), req.getPathInfo(), res
+				);
+				outputRequired = false; // streaming output
 			}
 			// GET /units
 			else if ( path.length == 2 && path[1].equals("units") )
@@ -671,7 +783,10 @@ public class DAMSAPIServlet extends HttpServlet
 				&& path[3].equals("files") )
 			{
 				ts = triplestore(req);
-				info = unitListFiles( path[2], ts );
+				unitListFiles(
+					path[2], ts, req.getParameterMap(), req.getPathInfo(), res
+				);
+				outputRequired = false; // streaming output
 			}
 			// GET /events/bb1234567x
 			else if ( path.length == 3  && path[1].equals("events") )
@@ -732,7 +847,7 @@ public class DAMSAPIServlet extends HttpServlet
 				&& path[2].equals("export") )
 			{
 				ts = triplestore(req);
-				es = events(req);
+				es = events(req, ts);
 				String[] ids = req.getParameterValues("id");
 				List<String> objids = new ArrayList<String>();
 				for ( int i = 0; i < ids.length; i++ )
@@ -757,7 +872,7 @@ public class DAMSAPIServlet extends HttpServlet
 			else if ( path.length == 3 && path[1].equals("objects") )
 			{
 				ts = triplestore(req);
-				es = events(req);
+				es = events(req, ts);
 				info = objectShow( path[2], ts, es );
 				if ( info.get("obj") != null )
 				{
@@ -774,7 +889,7 @@ public class DAMSAPIServlet extends HttpServlet
 				&& path[3].equals("export") )
 			{
 				ts = triplestore(req);
-				es = events(req);
+				es = events(req, ts);
 				info = objectShow( path[2], ts, es );
 				if ( info.get("obj") != null )
 				{
@@ -817,7 +932,7 @@ public class DAMSAPIServlet extends HttpServlet
 				&& path[3].equals("validate") )
 			{
 				ts = triplestore(req);
-				es = events(req);
+				es = events(req, ts);
 				info = objectValidate( path[2], fs, ts, es );
 			}
 			// GET /files/image-service
@@ -872,7 +987,7 @@ public class DAMSAPIServlet extends HttpServlet
 				&& path[4].equals("fixity") )
 			{
 				ts = triplestore(req);
-				es = events(req);
+				es = events(req, ts);
 				info = fileFixity( path[2], null, path[3], fs, ts, es );
 			}
 			// GET /files/bb1234567x/1/1.tif/fixity
@@ -880,7 +995,7 @@ public class DAMSAPIServlet extends HttpServlet
 				&& path[5].equals("fixity") && isNumber(path[3]) )
 			{
 				ts = triplestore(req);
-				es = events(req);
+				es = events(req, ts);
 				info = fileFixity( path[2], path[3], path[4], fs, ts, es );
 			}
 			// GET /files/bb1234567x/1.tif/text
@@ -949,6 +1064,39 @@ public class DAMSAPIServlet extends HttpServlet
 				info.put( "defaultTriplestore", tsDefault );
 				info.put( "eventsTriplestore", tsEvents );
 			}
+			// GET /system/pools
+			else if ( path.length == 3 && path[1].equals("system" )
+				&& path[2].equals("pools") )
+			{
+				info = new LinkedHashMap();
+				info.putAll( TripleStorePool.stats() );
+			}
+			// GET /system/queues
+			else if ( path.length == 3 && path[1].equals("system" )
+				&& path[2].equals("queues") )
+			{
+				info = new LinkedHashMap();
+				if ( eventQueue != null )
+				{
+					info.put( "events", eventQueue.stats() );
+				}
+				info.put( "eventIds", eventIds.stats() );
+				info.put( "serialization", serializer.stats() );
+			}
+			// GET /system/caches
+			else if ( path.length == 3 && path[1].equals("system" )
+				&& path[2].equals("caches") )
+			{
+				info = new LinkedHashMap();
+				info.put( "rdf", rdfCache.stats() );
+				info.put( "sparql", RelationalTripleStore.planStats() );
+				Map<String,Map<String,String>> fsCaches = CachingFileStore.stats();
+				for ( Iterator<String> it = fsCaches.keySet().iterator(); it.hasNext(); )
+				{
+					String name = it.next();
+					info.put( "fs." + name, fsCaches.get(name) );
+				}
+			}
 			// GET /system/version
 			else if ( path.length == 3 && path[1].equals("system")
 				&& path[2].equals("version") )
@@ -1054,7 +1202,7 @@ public class DAMSAPIServlet extends HttpServlet
 					params = bundle.getParams();
 					String adds = getParamString( params, "adds", null );
 					ts = triplestore(params);
-					es = events(params);
+					es = events(params, ts);
 					cacheRemove(path[2]);
 					info = objectEdit( path[2], true, in, null, adds, null, null, ts, es, fs );
 				}
@@ -1074,7 +1222,7 @@ public class DAMSAPIServlet extends HttpServlet
 					params = bundle.getParams();
 
 					ts = triplestore(params);
-					es = events(params);
+					es = events(params, ts);
 					cacheRemove(path[2]);
 					info = mintDOI( path[2], ts, es, fs, res );
 				}
@@ -1094,7 +1242,7 @@ public class DAMSAPIServlet extends HttpServlet
                     params = bundle.getParams();
 
                     ts = triplestore(params);
-                    es = events(params);
+                    es = events(params, ts);
                     cacheRemove(path[2]);
                     info = updateDOI( path[2], ts, es, fs, res );
                 }
@@ -1117,7 +1265,7 @@ public class DAMSAPIServlet extends HttpServlet
 				InputBundle bundle = input( req );
 				params = bundle.getParams();
 				ts = triplestore(params);
-				es = events(params);
+				es = events(params, ts);
 				String xsl = getParamString(params,"xsl",null);
 				String dest = getParamString(params,"dest",null);
 				boolean export = getParamBool(params,"recursive",false);
@@ -1138,7 +1286,7 @@ public class DAMSAPIServlet extends HttpServlet
 				InputBundle bundle = input( req );
 				params = bundle.getParams();
 				ts = triplestore(params);
-				es = events(params);
+				es = events(params, ts);
 				String[] ids = new String[]{ path[2] };
 				int priority = getParamInt( req, "priority", DEFAULT_PRIORITY );
 				boolean isCollection = isCollection(ts, es, path[2]);
@@ -1151,14 +1299,16 @@ public class DAMSAPIServlet extends HttpServlet
 				&& path[3].equals("serialize") )
 			{
 				String objid = path[2];
-				// serialize the record to disk
+				// serialize the record to disk now, including pending changes
 				try
 				{
 					ts = triplestore(params);
-					es = events(params);
-					fs.write(
-							objid, null, "rdf.xml", cacheUpdate(objid,ts,es).getBytes()
-					);
+					es = events(params, ts);
+					cacheRemove( objid );
+					Serializer now = new StoreSerializer( ts, es );
+					serializer.mark( objid, TripleStorePool.leaseName(ts),
+						TripleStorePool.leaseName(es), now );
+					serializer.flush( objid, now );
 				}
 				catch ( Exception ex )
 				{
@@ -1188,7 +1338,7 @@ public class DAMSAPIServlet extends HttpServlet
 						InputStream in = bundle.getInputStream();
 						params = bundle.getParams();
 						ts = triplestore(params);
-						es = events(params);
+						es = events(params, ts);
 						cacheRemove(path[2]);
 						info = fileUpload(
 							path[2], null, path[3], false, in, fs, ts, es, params
@@ -1229,7 +1379,7 @@ public class DAMSAPIServlet extends HttpServlet
 						InputStream in = bundle.getInputStream();
 						params = bundle.getParams();
 						ts = triplestore(params);
-						es = events(params);
+						es = events(params, ts);
 						cacheRemove(path[2]);
 						info = fileUpload(
 							path[2], path[3], path[4], false, in, fs, ts, es, params
@@ -1249,7 +1399,7 @@ public class DAMSAPIServlet extends HttpServlet
 				InputBundle bundle = input( req );
 				params = bundle.getParams();
 				ts = triplestore(params);
-				es = events(params);
+				es = events(params, ts);
 				cacheRemove(path[2]);
 				info = fileCharacterize( path[2], null, path[3], false, fs, ts, es, params );
 			}
@@ -1260,7 +1410,7 @@ public class DAMSAPIServlet extends HttpServlet
 				InputBundle bundle = input( req );
 				params = bundle.getParams();
 				ts = triplestore(params);
-				es = events(params);
+				es = events(params, ts);
 				cacheRemove(path[2]);
 				info = fileCharacterize( path[2], path[3], path[4], false, fs, ts, es, params );
 			}
@@ -1271,7 +1421,7 @@ public class DAMSAPIServlet extends HttpServlet
 				InputBundle bundle = input( req );
 				params = bundle.getParams();
 				ts = triplestore(params);
-				es = events(params);
+				es = events(params, ts);
 
                 Map<String,String[]> params2 = new HashMap<String, String[]>();
                 params2.put( "size", getParamArray(params,"size",null) );
@@ -1286,7 +1436,7 @@ public class DAMSAPIServlet extends HttpServlet
 				InputBundle bundle = input( req );
 				params = bundle.getParams();
 				ts = triplestore(params);
-				es = events(params);
+				es = events(params, ts);
 
 				Map<String,String[]> params2 = new HashMap<String, String[]>();
 				params2.put( "size", getParamArray(params,"size",null) );
@@ -1294,6 +1444,15 @@ public class DAMSAPIServlet extends HttpServlet
 				cacheRemove(path[2]);
 				info = fileDerivatives( path[2], path[3], path[4], false, fs, ts, es, params );
 			}
+			// POST /system/predicates
+			else if ( path.length == 3 && path[1].equals("system")
+				&& path[2].equals("predicates") )
+			{
+				InputBundle bundle = input( req );
+				params = bundle.getParams();
+				ts = triplestore(params);
+				info = predicateReload( ts );
+			}
 			// POST /sparql
 			else if ( path.length == 2 && path[1].equals("sparql") )
 			{
@@ -1368,7 +1527,7 @@ public class DAMSAPIServlet extends HttpServlet
 					String deletes = getParamString(params,"deletes",null);
 					String mode    = getParamString(params,"mode",null);
 					ts = triplestore(req);
-					es = events(req);
+					es = events(req, ts);
 					cacheRemove(path[2]);
 					info = objectEdit(
 						path[2], false, in, mode, adds, updates, deletes,
@@ -1390,7 +1549,7 @@ public class DAMSAPIServlet extends HttpServlet
 					InputBundle bundle = input( req );
 					params = bundle.getParams();
 					ts = triplestore(req);
-					es = events(req);
+					es = events(req, ts);
 					info = mergeRecords(
 						path[2], params, ts, es, fs
 					);
@@ -1410,7 +1569,7 @@ public class DAMSAPIServlet extends HttpServlet
 					InputStream in = bundle.getInputStream();
 					params = bundle.getParams();
 					ts = triplestore(params);
-					es = events(params);
+					es = events(params, ts);
 					cacheRemove(path[2]);
 					info = fileUpload(
 						path[2], null, path[3], true, in, fs, ts, es, params
@@ -1432,7 +1591,7 @@ public class DAMSAPIServlet extends HttpServlet
 					InputStream in = bundle.getInputStream();
 					params = bundle.getParams();
 					ts = triplestore(params);
-					es = events(params);
+					es = events(params, ts);
 					cacheRemove(path[2]);
 					info = fileUpload(
 						path[2], path[3], path[4], true, in, fs, ts, es, params
@@ -1451,7 +1610,7 @@ public class DAMSAPIServlet extends HttpServlet
 				InputBundle bundle = input( req );
 				params = bundle.getParams();
 				ts = triplestore(params);
-				es = events(params);
+				es = events(params, ts);
 				cacheRemove(path[2]);
 				info = fileCharacterize( path[2], null, path[3], true, fs, ts, es, params );
 			}
@@ -1462,7 +1621,7 @@ public class DAMSAPIServlet extends HttpServlet
 				InputBundle bundle = input( req );
 				params = bundle.getParams();
 				ts = triplestore(params);
-				es = events(params);
+				es = events(params, ts);
 				cacheRemove(path[2]);
 				info = fileCharacterize( path[2], path[3], path[4], true, fs, ts, es, params );
 			}
@@ -1473,7 +1632,7 @@ public class DAMSAPIServlet extends HttpServlet
 				InputBundle bundle = input( req );
 				params = bundle.getParams();
 				ts = triplestore(params);
-				es = events(params);
+				es = events(params, ts);
 
 				Map<String,String[]> params2 = new HashMap<String, String[]>();
 				params2.put( "size", getParamArray(params,"size",null) );
@@ -1488,7 +1647,7 @@ public class DAMSAPIServlet extends HttpServlet
 				InputBundle bundle = input( req );
 				params = bundle.getParams();
 				ts = triplestore(params);
-				es = events(params);
+				es = events(params, ts);
 
 				Map<String,String[]> params2 = new HashMap<String, String[]>();
 				params2.put( "size", getParamArray(params,"size",null) );
@@ -1558,7 +1717,7 @@ public class DAMSAPIServlet extends HttpServlet
 			else if ( path.length == 3 && path[1].equals("objects") )
 			{
 				ts = triplestore(req);
-				es = events(req);
+				es = events(req, ts);
 				cacheRemove(path[2]);
 				boolean isCollection = isCollection(ts, es, path[2]);
 
@@ -1584,7 +1743,7 @@ public class DAMSAPIServlet extends HttpServlet
 			{
 				String[] predicates = req.getParameterValues("predicate");
 				ts = triplestore(req);
-				es = events(req);
+				es = events(req, ts);
 				cacheRemove(path[2]);
 				info = selectiveDelete( path[2], null, predicates, ts, es, fs );
 			}
@@ -1594,7 +1753,7 @@ public class DAMSAPIServlet extends HttpServlet
 			{
 				String[] predicates = req.getParameterValues("predicate");
 				ts = triplestore(req);
-				es = events(req);
+				es = events(req, ts);
 				cacheRemove(path[2]);
 				info = selectiveDelete(
 					path[2], path[3], predicates, ts, es, fs
@@ -1604,7 +1763,7 @@ public class DAMSAPIServlet extends HttpServlet
 			else if ( path.length == 4 && path[1].equals("files") )
 			{
 				ts = triplestore(req);
-				es = events(req);
+				es = events(req, ts);
 				cacheRemove(path[2]);
 				info = fileDelete( path[2], null, path[3], fs, ts, es );
 			}
@@ -1613,7 +1772,7 @@ public class DAMSAPIServlet extends HttpServlet
 				&& isNumber(path[3]) )
 			{
 				ts = triplestore(req);
-				es = events(req);
+				es = events(req, ts);
 				cacheRemove(path[2]);
 				info = fileDelete( path[2], path[3], path[4], fs, ts, es );
 			}
@@ -1644,6 +1803,19 @@ public class DAMSAPIServlet extends HttpServlet
 		info.put( "pst", times(pstTimes) );
 		info.put( "put", times(putTimes) );
 		info.put( "del", times(delTimes) );
+		info.putAll( xsltTimes() );
+		return info;
+	}
+	protected Map<String,Map<String,String>> xsltTimes()
+	{
+		Map<String,Map<String,String>> info
+			= new LinkedHashMap<String,Map<String,String>>();
+		Map<String,Map<String,String>> stats = templates.stats();
+		for ( Iterator<String> it = stats.keySet().iterator(); it.hasNext(); )
+		{
+			String xsl = it.next();
+			info.put( "xslt:" + xsl, stats.get(xsl) );
+		}
 		return info;
 	}
 	private Map times( List<Long> times )
@@ -1675,16 +1847,36 @@ public class DAMSAPIServlet extends HttpServlet
 		throws Exception
 	{
 		String tsName = getParamString(params,"ts",tsDefault);
-		return TripleStoreUtil.getTripleStore(props,tsName);
+		return TripleStorePool.lease(props,tsName);
 	}
 	protected TripleStore events( HttpServletRequest req ) throws Exception
 	{
 		return events( req.getParameterMap() );
 	}
 	protected TripleStore events( Map<String,String[]> params ) throws Exception
+	{
+		return events( params, null );
+	}
+	/**
+	 * Lease the events triplestore for a request that already holds a
+	 * triplestore.  If both are the same triplestore, the instance already
+	 * leased is shared, so concurrent requests don't each hold one instance
+	 * while waiting for a second from the same pool.
+	**/
+	protected TripleStore events( HttpServletRequest req, TripleStore ts )
+		throws Exception
+	{
+		return events( req.getParameterMap(), ts );
+	}
+	protected TripleStore events( Map<String,String[]> params, TripleStore ts )
+		throws Exception
 	{
 		String tsName = getParamString(params,"es",tsEvents);
-		return TripleStoreUtil.getTripleStore(props,tsName);
+		if ( ts != null && tsName.equals(TripleStorePool.leaseName(ts)) )
+		{
+			return ts;
+		}
+		return TripleStorePool.lease(props,tsName);
 	}
 	protected static void cleanup(FileStore fs, TripleStore ts, TripleStore es)
 	{
@@ -1695,12 +1887,12 @@ public class DAMSAPIServlet extends HttpServlet
 		}
 		if ( ts != null )
 		{
-			try { ts.close(); }
+			try { TripleStorePool.release(ts); }
 			catch ( Exception ex ) { log.error("Error closing TripleStore",ex); }
 		}
-		if ( es != null )
+		if ( es != null && es != ts )
 		{
-			try { es.close(); }
+			try { TripleStorePool.release(es); }
 			catch ( Exception ex ) { log.error("Error closing Event TripleStore",ex); }
 		}
 	}
@@ -1767,6 +1959,20 @@ public class DAMSAPIServlet extends HttpServlet
 				return null;
 			}
 
+			// count members using the membership index if available
+			Set<Identifier> preds = new HashSet<Identifier>();
+			for ( int i = 0; i < pred.length; i++ )
+			{
+				preds.add( createPred(pred[i]) );
+			}
+			long count = ts.countMembers( Collections.singleton(objid), preds );
+			if ( count >= 0L )
+			{
+				Map info = new LinkedHashMap();
+				info.put("count",count);
+				return info;
+			}
+
 			String sparql = "select ?id where ";
 			if ( pred.length == 1 )
 			{
@@ -1787,7 +1993,7 @@ public class DAMSAPIServlet extends HttpServlet
 				sparql += "}";
 			}
 
-			long count = ts.sparqlCount( sparql );
+			count = ts.sparqlCount( sparql );
 			Map info = new LinkedHashMap();
 			info.put("count",count);
 			return info;
@@ -1805,10 +2011,21 @@ public class DAMSAPIServlet extends HttpServlet
 		Map m = listFiles( pred, colid, ts);
 		return m;
 	}
+	public void collectionListFiles( String colid, TripleStore ts,
+		Map<String,String[]> params, String pathInfo, HttpServletResponse res )
+	{
+		String[] pred = new String[]{ "dams:collection", "dams:assembledCollection", "dams:provenanceCollection", "dams:provenanceCollectionPart" };
+		listFiles( pred, colid, ts, params, pathInfo, res );
+	}
 	public Map unitListFiles( String repid, TripleStore ts )
 	{
 		return listFiles( new String[]{"dams:unit"}, repid, ts );
 	}
+	public void unitListFiles( String repid, TripleStore ts,
+		Map<String,String[]> params, String pathInfo, HttpServletResponse res )
+	{
+		listFiles( new String[]{"dams:unit"}, repid, ts, params, pathInfo, res );
+	}
 	public Map useListFiles( String use, TripleStore ts )
 		throws TripleStoreException
 	{
@@ -1835,29 +2052,22 @@ public class DAMSAPIServlet extends HttpServlet
 	{
 		try
 		{
-			// should be able to do this with sparql, but for now, we can
-			// just use our API to list objects and then list files for each
-			// object
-			List files = new ArrayList();
-			Map objlist = listObjects( pred, obj, ts  );
-
-			// check status of object list
-			int status = getParamInt(objlist,"statusCode",200);
-			List objects = (List)objlist.get("objects");
-			if ( status > 299 || objects == null )
+			Identifier id = createID( obj, null, null );
+			if ( !ts.exists(id) )
 			{
-				return objlist;
+				return error( SC_NOT_FOUND, obj + " does not exist", null );
 			}
 
-			// list files of each object
-			for ( int i = 0; i < objects.size(); i++ )
-			{
-				Map o = (Map)objects.get(i);
-				String objid = (String)o.get("obj");
-				Map objfiles = objectListFiles( objid, ts );
-				List filelist = (List)objfiles.get("files");
-				files.addAll( filelist );
-			}
+			// collect the files of all linked objects
+			final List files = new ArrayList();
+			listFiles( pred, id, ts, new OutputStreamer() {
+				public void start( String groupName ) { }
+				public void output( Map<String,String> record )
+				{
+					files.add( record );
+				}
+				public void finish( Map<String,String> info ) { }
+			});
 
 			Map info = new LinkedHashMap();
 			info.put("files",files);
@@ -1870,6 +2080,128 @@ public class DAMSAPIServlet extends HttpServlet
 			return error(msg, ex);
 		}
 	}
+	/**
+	 * List the files of all objects linked to a record, writing each file
+	 * to the response as it is read.  Formats without a streaming writer
+	 * are built in memory.
+	**/
+	protected void listFiles( String[] pred, String obj, TripleStore ts,
+		Map<String,String[]> params, String pathInfo,
+		HttpServletResponse res )
+	{
+		try
+		{
+			String format = getParamString(params,"format",formatDefault);
+			Identifier id = createID( obj, null, null );
+			OutputStreamer stream = null;
+			if ( !ts.exists(id) )
+			{
+				Map err = error( SC_NOT_FOUND, obj + " does not exist", null );
+				output( err, params, pathInfo, res );
+				return;
+			}
+			else if ( format != null && format.equals("xml") )
+			{
+				stream = new XMLOutputStreamer( res );
+			}
+			else if ( format != null && format.equals("json") )
+			{
+				stream = new JSONOutputStreamer( res );
+			}
+			else
+			{
+				output( listFiles(pred, obj, ts), params, pathInfo, res );
+				return;
+			}
+
+			stream.start("files");
+			int files = listFiles( pred, id, ts, stream );
+
+			// add meta info
+			Map<String,String> info = new LinkedHashMap<String,String>();
+			info.put( "status", "OK" );
+			info.put( "statusCode", "200" );
+			info.put( "request", pathInfo );
+			info.put( "count", String.valueOf(files) );
+			stream.finish( info );
+		}
+		catch ( Exception ex )
+		{
+			String msg = "Error listing files in a " + pred + ": " + obj;
+			log.error(msg, ex );
+			if ( !res.isCommitted() )
+			{
+				res.resetBuffer();
+				output( error(msg, ex), params, pathInfo, res );
+			}
+		}
+	}
+	/**
+	 * Read the files of all objects linked to a record in one query and
+	 * send each file's properties to an OutputStreamer.
+	 * @return The number of files.
+	**/
+	private int listFiles( String[] pred, Identifier id, TripleStore ts,
+		OutputStreamer stream ) throws Exception
+	{
+		Set<Identifier> preds = new HashSet<Identifier>();
+		for ( int i = 0; i < pred.length; i++ )
+		{
+			preds.add( createPred(pred[i]) );
+		}
+
+		// read in a transaction so the driver can fetch rows in batches
+		int count = 0;
+		StatementIterator it = null;
+		boolean success = false;
+		ts.startTransaction();
+		try
+		{
+			// statements are ordered by file, so each file is output once
+			// its last statement is read
+			it = ts.listChildStatements( id, preds );
+			Map<String,String> file = null;
+			while ( it.hasNext() )
+			{
+				Statement s = it.nextStatement();
+				String fid = s.getSubject().getId();
+				String p = s.getPredicate().getId();
+				p = p.replaceAll(prNS,"");
+				String o = s.getLiteral();
+				if ( p.equals("hasFile") || o == null ) { continue; }
+
+				if ( file != null && !file.get("id").equals(fid) )
+				{
+					stream.output( file );
+					count++;
+					file = null;
+				}
+				if ( file == null )
+				{
+					file = new LinkedHashMap<String,String>();
+					file.put( "object", s.getParent().getId() );
+					file.put( "id", fid );
+				}
+				if ( o.startsWith("\"") && o.endsWith("\"") )
+				{
+					o = o.substring(1,o.length()-1);
+				}
+				file.put( p, o );
+			}
+			if ( file != null )
+			{
+				stream.output( file );
+				count++;
+			}
+			success = true;
+		}
+		finally
+		{
+			if ( it != null ) { it.close(); }
+			endTransaction( ts, success );
+		}
+		return count;
+	}
 	public Map objectListFiles( String objid, TripleStore ts )
 	{
 		try
@@ -2024,45 +2356,58 @@ public class DAMSAPIServlet extends HttpServlet
 				return;
 			}
 
-			// iterate over records
+			// iterate over records, in a transaction so the driver can fetch
+			// rows in batches
 			stream.start("records");
-			BindingIterator objs = ts.sparqlSelect(sparql);
 			int records = 0;
-			while ( objs.hasNext() )
+			BindingIterator objs = null;
+			boolean success = false;
+			ts.startTransaction();
+			try
 			{
-				// build map of key/value pairs
-				Map<String,String> binding = objs.nextBinding();
-				Iterator<String> it = binding.keySet().iterator();
-				while ( it.hasNext() )
+				objs = ts.sparqlSelect(sparql);
+				while ( objs.hasNext() )
 				{
-					String k = it.next();
-					String v = binding.get(k);
-
-					// remove redundant quotes in map
-					if ( v.startsWith("\"") && v.endsWith("\"") )
+					// build map of key/value pairs
+					Map<String,String> binding = objs.nextBinding();
+					Iterator<String> it = binding.keySet().iterator();
+					while ( it.hasNext() )
 					{
-						v = v.substring(1,v.length()-1);
-						binding.put(k,v);
+						String k = it.next();
+						String v = binding.get(k);
+
+						// remove redundant quotes in map
+						if ( v.startsWith("\"") && v.endsWith("\"") )
+						{
+							v = v.substring(1,v.length()-1);
+							binding.put(k,v);
+						}
 					}
-				}
 
-			 	if ( binding.get("obj").startsWith("_") )
-				{
-					// suppress blank nodes
-				}
-				else if ( type == null &&
-					(  binding.get("type").equals("dams:File")
-					|| binding.get("type").equals("dams:Component")
-					|| binding.get("type").equals("dams:DAMSEvent")) )
-				{
-					// suppress child records unless specifically asked for
-				}
-				else
-				{
-					// otherwise, write the record out
-					stream.output( binding );
-					records++;
+				 	if ( binding.get("obj").startsWith("_") )
+					{
+						// suppress blank nodes
+					}
+					else if ( type == null &&
+						(  binding.get("type").equals("dams:File")
+						|| binding.get("type").equals("dams:Component")
+						|| binding.get("type").equals("dams:DAMSEvent")) )
+					{
+						// suppress child records unless specifically asked for
+					}
+					else
+					{
+						// otherwise, write the record out
+						stream.output( binding );
+						records++;
+					}
 				}
+				success = true;
+			}
+			finally
+			{
+				if ( objs != null ) { objs.close(); }
+				endTransaction( ts, success );
 			}
 
 			// add meta info
@@ -2284,7 +2629,7 @@ public class DAMSAPIServlet extends HttpServlet
 				// extract technical metadata
 				File localFile = getParamFile(params,"local",null);
 
-				if ( fs instanceof LocalStore )
+				if ( fs.localFile(objid, cmpid, fileid) != null )
 				{
 					// use localstore version if possible
 					sourceFile = fs.getPath( objid, cmpid, fileid );
@@ -3062,6 +3407,7 @@ public class DAMSAPIServlet extends HttpServlet
 			{
 		   		return error(SC_FORBIDDEN, "Object already exists, use PUT to update", null);
 			}
+			cacheRemove( objid );
 
 			// process uploaded file if present
 			if ( in != null )
@@ -3195,6 +3541,7 @@ public class DAMSAPIServlet extends HttpServlet
 			{
 		   		return error( SC_BAD_REQUEST, "Object does not exist", null);
 			}
+			cacheRemove( objid );
 			ts.removeObject(id);
 
 			if ( ! ts.exists(id) )
@@ -3250,6 +3597,7 @@ public class DAMSAPIServlet extends HttpServlet
 			}
 
 			// remove each predicate...
+			cacheRemove( objid );
 			ArkTranslator trans = new ArkTranslator( ts, nsmap );
 			for ( int i = 0; i < predicates.length; i++ )
 			{
@@ -3286,12 +3634,12 @@ public class DAMSAPIServlet extends HttpServlet
 				Identifier id = createID( objids.get(i), null, null );
 				if ( ts.exists(id) )
 				{
-					DAMSObject obj = new DAMSObject(ts, es, objids.get(i), nsmap);
+					DAMSObject obj = newObject(ts, es, objids.get(i));
 					docs.add( obj.getRDFXML(true) );
 				}
 				else if ( es != null && es.exists(id) )
 				{
-					DAMSObject obj = new DAMSObject(es, null, objids.get(i), nsmap);
+					DAMSObject obj = newObject(es, null, objids.get(i));
 					docs.add( obj.getRDFXML(true) );
 				}
 				else
@@ -3350,6 +3698,17 @@ public class DAMSAPIServlet extends HttpServlet
 
 		return xml;
 	}
+	/**
+	 * Create a DAMSObject with the configured recursion settings.
+	**/
+	protected DAMSObject newObject( TripleStore ts, TripleStore es,
+		String objid )
+	{
+		DAMSObject obj = new DAMSObject( ts, es, objid, nsmap );
+		obj.setConcurrent( describeConcurrent );
+		obj.setBudget( describeMaxDepth, describeMaxStatements );
+		return obj;
+	}
 	public Map objectShow( String objid, TripleStore ts, TripleStore es )
 	{
 		// output = metadata: object
@@ -3364,11 +3723,11 @@ public class DAMSAPIServlet extends HttpServlet
 			if ( ts == null ) { log.error("NULL TRIPLESTORE"); }
 			if ( ts.exists(id) )
 			{
-				obj = new DAMSObject( ts, es, objid, nsmap );
+				obj = newObject( ts, es, objid );
 			}
 			else if ( es != null && es.exists(id) )
 			{
-				obj = new DAMSObject( es, null, objid, nsmap );
+				obj = newObject( es, null, objid );
 			}
 			else
 			{
@@ -3536,29 +3895,35 @@ public class DAMSAPIServlet extends HttpServlet
 	{
 		try
 		{
-			// get object from triplestore as Document
+			// get object from triplestore
 			Map m = objectShow( objid, ts, es );
-			String xml = null;
-			if ( m.get("obj") != null )
-			{
-				DAMSObject obj = (DAMSObject)m.get("obj");
-				xml = obj.getRDFXML(export);
-			}
-			else
+			if ( m.get("obj") == null )
 			{
 				// if there is no object, output the error message we received
 				output( m, params, pathInfo, res );
+				return;
 			}
+			DAMSObject obj = (DAMSObject)m.get("obj");
+			Source src = rdfxmlSource( obj, obj.asModel(export) );
 
 			// transform metadata and output
 			if ( fileid != null ) { params.put("fileid",new String[]{fileid}); }
 			if ( cmpid != null ) { params.put("cmpid",new String[]{cmpid}); }
-			String content = xslt( xml, xslName, params, queryString(params) );
-			output( SC_OK, content, "application/xml", res );
-
-			// if destid specified, then also save output
-			if ( destid != null )
+			if ( destid == null )
+			{
+				// stream straight to the response
+				outputXslt(
+					SC_OK, src, xslName, params, queryString(params),
+					"application/xml", res
+				);
+			}
+			else
 			{
+				// if destid specified, then also save output
+				StringWriter sw = new StringWriter();
+				xslt( src, xslName, params, queryString(params), sw );
+				String content = sw.toString();
+				output( SC_OK, content, "application/xml", res );
 				fs.write( objid, cmpid, destid, content.getBytes() );
 				//indexQueue(objid,"modifyObject");
 				createEvent(
@@ -3576,9 +3941,14 @@ public class DAMSAPIServlet extends HttpServlet
 				);
 			}
 			catch ( Exception ex2 ) { log.error("Error creating event",ex2); }
-			output(
-				error("Error transforming metadata", ex), params, pathInfo, res
-			);
+			if ( !res.isCommitted() )
+			{
+				res.resetBuffer();
+				output(
+					error("Error transforming metadata", ex), params, pathInfo,
+					res
+				);
+			}
 		}
 	}
 	public Map objectExists( String objid, TripleStore ts )
@@ -3648,6 +4018,25 @@ public class DAMSAPIServlet extends HttpServlet
 			return error( "Error looking up predicate map", ex );
 		}
 	}
+	public Map predicateReload( TripleStore ts )
+	{
+		try
+		{
+			// reload shared predicate map
+			ArkTranslator trans = new ArkTranslator( ts, nsmap );
+			Map<String,String> predicates = trans.reload();
+
+			Map info = new LinkedHashMap();
+			info.put("predicates",predicates);
+			info.put("version",String.valueOf(ArkTranslator.loadedVersion(ts.name())));
+			return info;
+		}
+		catch ( Exception ex )
+		{
+			log.error( "Error reloading predicate map", ex );
+			return error( "Error reloading predicate map", ex );
+		}
+	}
 
 	private Map fileDeleteMetadata( String objid, String cmpid, String fileid,
 		TripleStore ts, boolean keepSourceCapture ) throws TripleStoreException
@@ -3871,11 +4260,8 @@ public class DAMSAPIServlet extends HttpServlet
 	{
 		try
 		{
-			// mint ARK for event
-			String minterURL = idMinters.get(minterDefault) + "1";
-			String eventARK = HttpUtil.get(minterURL);
-			eventARK = eventARK.replaceAll(".*/","").trim();
-			Identifier eventID = Identifier.publicURI( idNS + eventARK );
+			// ARK for event, from the block reserved from the minter
+			Identifier eventID = Identifier.publicURI( idNS + eventIds.next() );
 
 			// create or lookup user from the event triplestore
 			if (userID == null)
@@ -3890,25 +4276,110 @@ public class DAMSAPIServlet extends HttpServlet
 			Event e = new Event(
 				eventID, objID, subID, userID, success, type, client, outcomeNote
 			);
-			e.save(ts,es);
 
-			// serialize update rdfxml to disk
-			try
-			{
-				fs.write(
-					objid, null, "rdf.xml", cacheUpdate(objid,ts,es).getBytes()
-				);
-			}
-			catch ( Exception inner )
+			// the change is committed, so drop anything cached while it was
+			// being made (the event link drops it again when it is saved)
+			cacheRemove( objid );
+
+			// queue for the background writer, or save now if the queue is
+			// full or disabled
+			if ( eventQueue != null && eventQueue.offer(e, objid,
+				TripleStorePool.leaseName(ts), TripleStorePool.leaseName(es)) )
 			{
-				log.error("Error serializing RDF/XML on update", inner);
+				return;
 			}
+			e.save(ts,es);
+
+			// serialize update rdfxml to disk
+			cacheRemove( objid );
+			serializer.mark(
+				objid, TripleStorePool.leaseName(ts),
+				TripleStorePool.leaseName(es), new StoreSerializer(ts, es)
+			);
 		}
 		catch ( IOException ex )
 		{
 			log.error( "Error minting event ARK", ex );
 		}
 	}
+	/**
+	 * Schedule objects to be serialized to rdf.xml after the event writer has
+	 * saved their events.
+	**/
+	protected void serialize( Set<String> objids, TripleStore ts,
+		TripleStore es )
+	{
+		Serializer now = new StoreSerializer( ts, es );
+		String tsName = TripleStorePool.leaseName( ts );
+		String esName = TripleStorePool.leaseName( es );
+		for ( String objid : objids )
+		{
+			cacheRemove( objid );
+			serializer.mark( objid, tsName, esName, now );
+		}
+	}
+	/**
+	 * Serialize an object to rdf.xml in the default filestore.
+	**/
+	protected void serializeObject( String objid, String tsName,
+		String esName ) throws Exception
+	{
+		TripleStore ts = null;
+		TripleStore es = null;
+		try
+		{
+			ts = TripleStorePool.lease( props, tsName );
+			es = esName.equals(tsName) ? ts
+				: TripleStorePool.lease( props, esName );
+			serializeObject( objid, ts, es );
+		}
+		finally
+		{
+			if ( es == ts ) { es = null; }
+			cleanup( null, ts, es );
+		}
+	}
+	/**
+	 * Serialize an object to rdf.xml in the default filestore, using
+	 * triplestores already held by the caller.
+	**/
+	protected void serializeObject( String objid, TripleStore ts,
+		TripleStore es ) throws Exception
+	{
+		FileStore fs = null;
+		try
+		{
+			fs = FileStoreUtil.getFileStore(props,fsDefault);
+			String rdfxml = cacheUpdate( objid, ts, es );
+			if ( rdfxml == null )
+			{
+				throw new Exception( "Unable to retrieve RDF/XML: " + objid );
+			}
+			fs.write( objid, null, "rdf.xml", rdfxml.getBytes() );
+		}
+		finally
+		{
+			cleanup( fs, null, null );
+		}
+	}
+	/**
+	 * Serializer using triplestores held by the current thread.
+	**/
+	private class StoreSerializer implements Serializer
+	{
+		private TripleStore ts;
+		private TripleStore es;
+		StoreSerializer( TripleStore ts, TripleStore es )
+		{
+			this.ts = ts;
+			this.es = es;
+		}
+		public void serialize( String objid, String tsName, String esName )
+			throws Exception
+		{
+			serializeObject( objid, ts, es );
+		}
+	}
 	
 	private Identifier createOrLookupUser( TripleStore es, String user )
 				throws TripleStoreException, IOException
@@ -3920,13 +4391,15 @@ public class DAMSAPIServlet extends HttpServlet
 			String query = "SELECT ?sub WHERE { ?sub <" + rdfNS + "type> ?type . ?type <" + rdfNS + "label> '\"mads:PersonalName\"' . " +
 					"?sub <" + madsNS + "authoritativeLabel> ?val . FILTER ( lcase( ?val ) =  lcase('\"" + user + "\"'))}";
 			BindingIterator it = es.sparqlSelect(query);
-			if (it.hasNext())
-				uid = Identifier.publicURI(it.nextBinding().get("sub"));
-			else {
-				// mint ARK for the new user
-				String minterURL = idMinters.get(minterDefault) + "1";
-				String userARK = HttpUtil.get(minterURL);
-				userARK = userARK.replaceAll(".*/","").trim();
+			try {
+				if (it.hasNext())
+					uid = Identifier.publicURI(it.nextBinding().get("sub"));
+			} finally {
+				it.close();
+			}
+			if (uid == null) {
+				// ARK for the new user
+				String userARK = eventIds.next();
 				uid = userID = Identifier.publicURI( idNS + userARK );
 				
 				Namespace madsNamespace = new Namespace("mads", madsNS);
@@ -3984,6 +4457,23 @@ public class DAMSAPIServlet extends HttpServlet
 		req.setAttribute(
 			"edu.ucsd.library.dams.api.DAMSAPIServlet.authorized","true"
 		);
+		// serialize any pending changes before rdf.xml is read, writing any
+		// queued events first so the object is marked for serialization
+		if ( cmpid == null && fileid != null && fileid.equals("rdf.xml") )
+		{
+			try
+			{
+				if ( eventQueue != null )
+				{
+					eventQueue.flush( objid, 10000L );
+				}
+				serializer.flush( objid );
+			}
+			catch ( Exception ex )
+			{
+				log.error( "Error serializing RDF/XML for " + objid, ex );
+			}
+		}
 		String url = "/file/" + objid + fileString(cmpid, fileid);
 		if ( req.getQueryString() != null && !req.getQueryString().equals("") )
 		{
@@ -4013,80 +4503,244 @@ public class DAMSAPIServlet extends HttpServlet
 			log.info("sparql: " + sparql);
 		}
 
-		// sparql query
-		BindingIterator objs = ts.sparqlSelect(sparql);
-
-		// start output
-		String sparqlNS = "http://www.w3.org/2005/sparql-results#";
-		res.setContentType("application/sparql-results+xml");
-		OutputStream out = res.getOutputStream();
-		XMLOutputFactory factory = XMLOutputFactory.newInstance();
-		XMLStreamWriter stream = factory.createXMLStreamWriter(out);
-		stream.setDefaultNamespace( sparqlNS );
-		stream.writeStartDocument();
-		stream.writeStartElement( "sparql" );
+		// paging, limited to the configured max rows.  when capped, fetch
+		// one more row to tell whether there are more results
+		int offset = Math.max( getParamInt(params, "offset", 0), 0 );
+		int limit = getParamInt( params, "limit", 0 );
+		boolean capped = false;
+		if ( sparqlMaxRows > 0 && (limit <= 0 || limit > sparqlMaxRows) )
+		{
+			limit = sparqlMaxRows;
+			capped = true;
+		}
 
-		// output bindings
-		boolean headerWritten = false;
-		while ( objs.hasNext() )
+		// sparql query, in a transaction so the driver can fetch rows in
+		// batches
+		ts.startTransaction();
+		BindingIterator objs = null;
+		boolean success = false;
+		try
 		{
-			Map<String,String> binding = objs.nextBinding();
+			objs = ts.sparqlSelect(
+				sparql, offset, capped ? limit + 1 : limit, sparqlTimeout
+			);
+			String format = getParamString( params, "format", null );
+			SparqlResultsWriter writer = null;
+			if ( "json".equals(format) )
+			{
+				res.setContentType("application/sparql-results+json");
+				writer = new SparqlJsonWriter( res.getOutputStream() );
+			}
+			else
+			{
+				res.setContentType("application/sparql-results+xml");
+				writer = new SparqlXmlWriter( res.getOutputStream() );
+			}
 
-			// write header on first binding
-			if ( !headerWritten )
+			// output bindings until the results, max rows or time run out
+			long deadline = (sparqlTimeout > 0)
+				? System.currentTimeMillis() + sparqlTimeout * 1000L : 0L;
+			String[] fields = objs.fieldNames();
+			writer.start( fields );
+			int rows = 0;
+			boolean truncated = false;
+			while ( objs.hasNext() )
 			{
-				Iterator<String> it = binding.keySet().iterator();
-				stream.writeStartElement("head");
-				while ( it.hasNext() )
+				if ( (capped && rows >= limit) || (deadline > 0L
+					&& System.currentTimeMillis() > deadline) )
 				{
-					String k = it.next();
-					stream.writeStartElement( "variable");
-					stream.writeAttribute("name",k);
-					stream.writeEndElement();
+					truncated = true;
+					break;
 				}
-				stream.writeEndElement();
-				stream.writeStartElement( "results"); // ordered='false' distinct='false'
-				headerWritten = true;
+				writer.result( fields, objs.nextValues() );
+				rows++;
 			}
 
+			// link to the next page of results
+			String next = null;
+			if ( truncated )
+			{
+				log.warn( "sparql results truncated after " + rows + " rows" );
+				Map<String,String[]> page
+					= new LinkedHashMap<String,String[]>( params );
+				page.put( "offset", new String[]{ String.valueOf(offset+rows) } );
+				page.put( "limit", new String[]{ String.valueOf(limit) } );
+				next = pathInfo + "?" + queryString( page );
+			}
+			writer.finish( fields, next );
+			success = true;
+		}
+		finally
+		{
+			if ( objs != null ) { objs.close(); }
+			endTransaction( ts, success );
+		}
+	}
+	/**
+	 * End a read transaction: commit it if the request succeeded, or roll it
+	 * back if it failed.  Rollback errors are logged so they don't hide the
+	 * original error.
+	**/
+	private static void endTransaction( TripleStore ts, boolean success )
+		throws TripleStoreException
+	{
+		if ( success )
+		{
+			ts.commit();
+			return;
+		}
+		try
+		{
+			ts.rollback();
+		}
+		catch ( Exception ex )
+		{
+			log.warn( "Error rolling back transaction", ex );
+		}
+	}
+
+	/**
+	 * Streaming writer for SPARQL query results.
+	**/
+	private static abstract class SparqlResultsWriter
+	{
+		abstract void start( String[] fields ) throws Exception;
+		abstract void result( String[] fields, String[] values )
+			throws Exception;
+		/**
+		 * Finish the results.
+		 * @param next URL of the next page of results, or null if the
+		 *   results are complete.
+		**/
+		abstract void finish( String[] fields, String next ) throws Exception;
+
+		/**
+		 * Get the SPARQL result type of a value: literal, bnode or uri.
+		**/
+		static String type( String v )
+		{
+			if ( v.startsWith("\"") && v.endsWith("\"") ) { return "literal"; }
+			else if ( v.startsWith("_:") ) { return "bnode"; }
+			else { return "uri"; }
+		}
+		static String value( String v, String type )
+		{
+			if ( type.equals("literal") ) { return v.substring(1,v.length()-1); }
+			else if ( type.equals("bnode") ) { return v.substring(2); }
+			else { return v; }
+		}
+	}
+
+	/**
+	 * SPARQL query results XML format.
+	**/
+	private static class SparqlXmlWriter extends SparqlResultsWriter
+	{
+		private XMLStreamWriter stream = null;
+		SparqlXmlWriter( OutputStream out ) throws Exception
+		{
+			XMLOutputFactory factory = XMLOutputFactory.newInstance();
+			stream = factory.createXMLStreamWriter( out, "UTF-8" );
+		}
+		void start( String[] fields ) throws Exception
+		{
+			String sparqlNS = "http://www.w3.org/2005/sparql-results#";
+			stream.setDefaultNamespace( sparqlNS );
+			stream.writeStartDocument( "UTF-8", "1.0" );
+			stream.writeStartElement( "sparql" );
+			stream.writeStartElement("head");
+			for ( int i = 0; i < fields.length; i++ )
+			{
+				stream.writeStartElement( "variable");
+				stream.writeAttribute("name",fields[i]);
+				stream.writeEndElement();
+			}
+			stream.writeEndElement();
+			stream.writeStartElement( "results"); // ordered='false' distinct='false'
+		}
+		void result( String[] fields, String[] values ) throws Exception
+		{
 			stream.writeStartElement( "result");
-			Iterator<String> it = binding.keySet().iterator();
-			while ( it.hasNext() )
+			for ( int i = 0; i < fields.length; i++ )
 			{
-				String k = it.next();
-				String v = binding.get(k);
+				if ( values[i] == null ) { continue; }
+				String type = type( values[i] );
 				stream.writeStartElement( "binding");
-				stream.writeAttribute("name",k);
-				String type = null;
-				if ( v.startsWith("\"") && v.endsWith("\"") )
-				{
-					type = "literal";
-					v = v.substring(1,v.length()-1);
-				}
-				else if ( v.startsWith("_:") )
-				{
-					type = "bnode";
-					v = v.substring(2);
-				}
-				else
-				{
-					type = "uri";
-				}
+				stream.writeAttribute("name",fields[i]);
 				stream.writeStartElement(type);
-				stream.writeCharacters(v);
+				stream.writeCharacters( value(values[i], type) );
 				stream.writeEndElement();
 				stream.writeEndElement();
 			}
 			stream.writeEndElement();
 		}
+		void finish( String[] fields, String next ) throws Exception
+		{
+			stream.writeEndElement();
+			if ( next != null )
+			{
+				// the head is already written, so note the next page here
+				stream.writeComment( " results truncated, next page: "
+					+ next.replaceAll("--","%2D%2D") + " " );
+			}
+			stream.writeEndElement();
+			stream.writeEndDocument();
+			stream.flush();
+			stream.close();
+		}
+	}
 
-		// finish output
-		stream.writeEndElement();
-		stream.writeEndDocument();
-		stream.flush();
-		stream.close();
+	/**
+	 * SPARQL query results JSON format.
+	**/
+	private static class SparqlJsonWriter extends SparqlResultsWriter
+	{
+		private Writer out = null;
+		private boolean first = true;
+		SparqlJsonWriter( OutputStream out ) throws Exception
+		{
+			this.out = new BufferedWriter( new OutputStreamWriter(out,"UTF-8") );
+		}
+		void start( String[] fields ) throws Exception
+		{
+			// the head is written last, so it can link to the next page
+			out.write( "{\"results\":{\"bindings\":[" );
+		}
+		void result( String[] fields, String[] values ) throws Exception
+		{
+			out.write( first ? "\n{" : ",\n{" );
+			first = false;
+			boolean firstBinding = true;
+			for ( int i = 0; i < fields.length; i++ )
+			{
+				if ( values[i] == null ) { continue; }
+				String type = type( values[i] );
+				if ( !firstBinding ) { out.write( "," ); }
+				firstBinding = false;
+				out.write( "\"" + JSONValue.escape(fields[i]) + "\":{\"type\":\""
+					+ type + "\",\"value\":\""
+					+ JSONValue.escape(value(values[i],type)) + "\"}" );
+			}
+			out.write( "}" );
+		}
+		void finish( String[] fields, String next ) throws Exception
+		{
+			out.write( "\n]},\"head\":{\"vars\":[" );
+			for ( int i = 0; i < fields.length; i++ )
+			{
+				if ( i > 0 ) { out.write( "," ); }
+				out.write( "\"" + JSONValue.escape(fields[i]) + "\"" );
+			}
+			out.write( "]" );
+			if ( next != null )
+			{
+				out.write( ",\"link\":[\"" + JSONValue.escape(next) + "\"]" );
+			}
+			out.write( "}}\n" );
+			out.close();
+		}
 	}
-	
+
 	/**
 	 * Merge records in the id parameter to record objid
 	 * @param oid
@@ -4104,6 +4758,7 @@ public class DAMSAPIServlet extends HttpServlet
 
    		// make sure the target record exists for merging
 		Identifier id = createID( objid, null, null );
+		cacheRemove( objid );
 		if ( !ts.exists(id) )
 		{
 	   		return error( SC_FORBIDDEN, "The selected record does not exist: " + objid, null);
@@ -4278,12 +4933,17 @@ public class DAMSAPIServlet extends HttpServlet
 			//Update SOLR for records affected
 			for ( Iterator<String> ita=recordsAffected.iterator(); ita.hasNext(); )
 			{
-				message = indexQueue( ita.next(), "modifyObject", DEFAULT_PRIORITY );
+				String affected = ita.next();
+				cacheRemove( affected );
+				message = indexQueue( affected, "modifyObject", DEFAULT_PRIORITY );
 				if ( message != null && message.length() > 0 )
 					updateErrorInfo( info, message );
 			}
 			log.info("Updated affected records in solr for merging " + records2MergeStr + " to " + objid + ": Total records updated " +  recordsAffected.size());
 		}
+		// links to the target record changed, drop anything cached during the
+		// merge
+		cacheRemove( objid );
 		if ( successful &&  info == null )
 			info = status( 201, "Successfully merged records (" + records2MergeStr + ") to " + objid + ". Total records updated in solr " + recordsAffected.size());
 		else if ( info == null )
@@ -4788,11 +5448,46 @@ public class DAMSAPIServlet extends HttpServlet
 	public String xslt( String xml, String xslName, Map<String,String[]> params,
 		String queryString ) throws TransformerException
 	{
-		// setup the transformer
+		if ( xml == null )
+		{
+			throw new TransformerException("No input document provided");
+		}
+		StringWriter sw = new StringWriter();
+		xslt(
+			new StreamSource( new StringReader(xml) ), xslName, params,
+			queryString, sw
+		);
+		return sw.toString();
+	}
+	/**
+	 * Transform a document with a cached stylesheet, writing the output
+	 * directly to a Writer.
+	 * @param src Source document.
+	 * @param xslName Filename of XSL stylesheet, or URL.
+	 * @param out Writer to send output to.
+	**/
+	public void xslt( Source src, String xslName, Map<String,String[]> params,
+		String queryString, Writer out ) throws TransformerException
+	{
 		String xsl = xslName.startsWith("http") ? xslName : xslBase + xslName;
-		TransformerFactory tf = TransformerFactory.newInstance();
-		Transformer t = tf.newTransformer( new StreamSource(xsl) );
-		return xslt( xml, t, params, queryString);
+		try
+		{
+			// get a transformer from the compiled stylesheet
+			Transformer t = templates.newTransformer( xsl );
+			long start = System.currentTimeMillis();
+			try
+			{
+				xslt( src, t, params, queryString, out );
+			}
+			finally
+			{
+				templates.record( xsl, System.currentTimeMillis() - start );
+			}
+		}
+		finally
+		{
+			close( src );
+		}
 	}
 	public String xslt( String xml, Transformer t, Map<String,String[]> params,
 		String queryString ) throws TransformerException
@@ -4801,6 +5496,13 @@ public class DAMSAPIServlet extends HttpServlet
 		{
 			throw new TransformerException("No input document provided");
 		}
+		StringWriter sw = new StringWriter();
+		xslt( new StreamSource(new StringReader(xml)), t, params, queryString, sw );
+		return sw.toString();
+	}
+	private void xslt( Source src, Transformer t, Map<String,String[]> params,
+		String queryString, Writer out ) throws TransformerException
+	{
 		if ( t == null )
 		{
 			throw new TransformerException("Null transform");
@@ -4852,12 +5554,99 @@ public class DAMSAPIServlet extends HttpServlet
 		{
 			t.setParameter("casTest",casGroupTest);
 		}
-		StringWriter sw = new StringWriter();
-		t.transform(
-			new StreamSource( new StringReader(xml) ),
-			new StreamResult( sw )
-		);
-		return sw.toString();
+		t.transform( src, new StreamResult(out) );
+	}
+
+	/**
+	 * If the source is fed by a serializer thread, close the pipe, so a
+	 * serializer still writing to it after a failed or abandoned transform
+	 * gets an error instead of blocking.
+	**/
+	private static void close( Source src )
+	{
+		if ( src instanceof StreamSource
+			&& ((StreamSource)src).getReader() instanceof PipedReader )
+		{
+			try
+			{
+				((StreamSource)src).getReader().close();
+			}
+			catch ( IOException ex )
+			{
+				log.debug( "Error closing pipe", ex );
+			}
+		}
+	}
+
+	/**
+	 * Transform a document and write the output to the response as it is
+	 * generated, instead of building it as a String first.
+	**/
+	protected void outputXslt( int status, Source src, String xslName,
+		Map<String,String[]> params, String queryString, String contentType,
+		HttpServletResponse res ) throws TransformerException, IOException
+	{
+		try
+		{
+			if ( status != 200 )
+			{
+				res.setStatus( status );
+			}
+			if ( contentType != null ) { res.setContentType( contentType ); }
+			Writer out = new OutputStreamWriter( res.getOutputStream(), "UTF-8" );
+			xslt( src, xslName, params, queryString, out );
+			out.close();
+		}
+		finally
+		{
+			close( src );
+		}
+	}
+
+	/**
+	 * Get a Source that reads RDF/XML as a background thread serializes the
+	 * model, so the whole document is never held as a String.  If all the
+	 * serializer threads are busy, the model is serialized to a String in
+	 * the calling thread instead.
+	**/
+	protected Source rdfxmlSource( final DAMSObject obj, final Model m )
+		throws IOException, TripleStoreException
+	{
+		final PipedWriter writer = new PipedWriter();
+		PipedReader reader = new PipedReader( writer, PIPE_SIZE );
+		try
+		{
+			serializers.execute( new Runnable() {
+				public void run()
+				{
+					try
+					{
+						obj.outputRDF( m, writer, "RDF/XML-ABBREV" );
+					}
+					catch ( Exception ex )
+					{
+						// the reader sees a truncated document and fails
+						log.error( "Error serializing RDF/XML", ex );
+					}
+					finally
+					{
+						try { writer.close(); }
+						catch ( IOException ex ) { log.debug("Error closing pipe", ex); }
+					}
+				}
+			});
+		}
+		catch ( RejectedExecutionException ex )
+		{
+			// nothing is reading the pipe yet, so the calling thread can't
+			// write to it without blocking
+			log.debug( "Serializer threads busy, serializing RDF/XML in request" );
+			reader.close();
+			StringWriter sw = new StringWriter();
+			obj.outputRDF( m, sw, "RDF/XML-ABBREV" );
+			return new StreamSource( new StringReader(sw.toString()) );
+		}
+		return new StreamSource( reader );
 	}
 
 
@@ -4,6 +4,7 @@ package edu.ucsd.library.dams.api;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.StringReader;
 import java.io.StringWriter;
 import java.util.Date;
 import java.util.HashMap;
@@ -24,9 +25,7 @@ import javax.servlet.ServletContext;
 // xml/xslt
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.DocumentBuilder;
-import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
@@ -132,15 +131,15 @@ TXT DELETE /objects/[oid]/datastreams/[fid] (ts/arr) fileDelete
 	private static String VISIBILITY_SUPPRESS_DISCOVERY = "suppressDiscovery";
 
 	// xslt
-	Transformer objectContentTransform;
-	Transformer objectProfileTransform;
-	Transformer objectDatastreamsTransform;
-	Transformer nextPIDTransform;
-	Transformer datastreamProfileTransform;
-	Transformer datastreamDeleteTransform;
-	Transformer systemMetadataTransform;
-	Transformer rightsMetadataTransform;
-	Transformer linksMetadataTransform;
+	String objectContentXsl = "fedora-object-content.xsl";
+	String objectProfileXsl = "fedora-object-profile.xsl";
+	String objectDatastreamsXsl = "fedora-object-datastreams.xsl";
+	String nextPIDXsl = "fedora-nextPID.xsl";
+	String datastreamProfileXsl = "fedora-datastream-profile.xsl";
+	String datastreamDeleteXsl = "fedora-datastream-delete.xsl";
+	String systemMetadataXsl = "fedora-systemMetadata.xsl";
+	String rightsMetadataXsl = "fedora-rightsMetadata.xsl";
+	String linksMetadataXsl = "fedora-linksMetadata.xsl";
 
 	private String fulltextPrefix = "fulltext";
 
@@ -175,34 +174,17 @@ TXT DELETE /objects/[oid]/datastreams/[fid] (ts/arr) fileDelete
         // local config
         try
         {
-            TransformerFactory tf = TransformerFactory.newInstance();
-            objectContentTransform = tf.newTransformer(
-                new StreamSource( xslBase + "fedora-object-content.xsl" )
-            );
-            objectProfileTransform = tf.newTransformer(
-                new StreamSource( xslBase + "fedora-object-profile.xsl" )
-            );
-            objectDatastreamsTransform = tf.newTransformer(
-                new StreamSource( xslBase + "fedora-object-datastreams.xsl" )
-            );
-            nextPIDTransform = tf.newTransformer(
-                new StreamSource( xslBase + "fedora-nextPID.xsl" )
-            );
-            datastreamProfileTransform = tf.newTransformer(
-                new StreamSource( xslBase + "fedora-datastream-profile.xsl" )
-            );
-            datastreamDeleteTransform = tf.newTransformer(
-                new StreamSource( xslBase + "fedora-datastream-delete.xsl" )
-            );
-			systemMetadataTransform = tf.newTransformer(
-				new StreamSource( xslBase + "fedora-systemMetadata.xsl" )
-			);
-			linksMetadataTransform = tf.newTransformer(
-				new StreamSource( xslBase + "fedora-linksMetadata.xsl" )
-			);
-			rightsMetadataTransform = tf.newTransformer(
-				new StreamSource( xslBase + "fedora-rightsMetadata.xsl" )
-			);
+            // compile stylesheets now to report errors at startup, each
+            // request gets its own transformer from the compiled templates
+            String[] xsls = {
+                objectContentXsl, objectProfileXsl, objectDatastreamsXsl,
+                nextPIDXsl, datastreamProfileXsl, datastreamDeleteXsl,
+                systemMetadataXsl, rightsMetadataXsl, linksMetadataXsl
+            };
+            for ( int i = 0; i < xsls.length; i++ )
+            {
+                templates.templates( xslBase + xsls[i] );
+            }
         }
         catch ( Exception ex )
         {
@@ -242,9 +224,9 @@ TXT DELETE /objects/[oid]/datastreams/[fid] (ts/arr) fileDelete
 			else if ( path.length == 3 && path[1].equals("objects") )
 			{
 				ts = triplestore(req);
-				es = events(req);
+				es = events(req, ts);
 				outputTransform(
-					path[2], null, null, true, objectProfileTransform, null,
+					path[2], null, null, true, objectProfileXsl, null,
 					"application/xml", res.SC_OK, ts, es, res
 				);
 			}
@@ -254,7 +236,7 @@ TXT DELETE /objects/[oid]/datastreams/[fid] (ts/arr) fileDelete
 				&& path[3].equals("datastreams") )
 			{
 				ts = triplestore(req);
-				es = events(req);
+				es = events(req, ts);
 				Map<String,String[]> params = new HashMap<String,String[]>();
 				params.put("objectDS",new String[]{fedoraObjectDS});
 				String baseURL = req.getScheme() + "://"
@@ -276,7 +258,7 @@ TXT DELETE /objects/[oid]/datastreams/[fid] (ts/arr) fileDelete
 				}
 
 				outputTransform(
-					path[2], null, null, true, objectDatastreamsTransform,
+					path[2], null, null, true, objectDatastreamsXsl,
 					params, "application/xml", res.SC_OK, ts, es, res
 				);
 			}
@@ -295,12 +277,12 @@ TXT DELETE /objects/[oid]/datastreams/[fid] (ts/arr) fileDelete
 				{
 					// if the file exists, send profile
 					ts = triplestore(req);
-					es = events(req);
+					es = events(req, ts);
 					Map<String,String[]> params = new HashMap<String,String[]>();
 					params.put("dsName",new String[]{path[4]});
 					outputTransform(
 						path[2], cmpid(path[4]), fileid(path[4]),
-						true, datastreamProfileTransform, params,
+						true, datastreamProfileXsl, params,
 						"application/xml", res.SC_OK, ts, es, res
 					);
 				}
@@ -316,10 +298,10 @@ TXT DELETE /objects/[oid]/datastreams/[fid] (ts/arr) fileDelete
 				&& path[4].equals( fedoraObjectDS ) )
 			{
                 ts = triplestore(req);
-                es = events(req);
+                es = events(req, ts);
 				outputTransform(
 					stripPrefix(path[2]), null, null, RECURSIVE_OBJ,
-					objectContentTransform, null, "application/xml",
+					objectContentXsl, null, "application/xml",
 					res.SC_OK, ts, null, res
 				);
 			}
@@ -356,7 +338,7 @@ TXT DELETE /objects/[oid]/datastreams/[fid] (ts/arr) fileDelete
 				params.put("rightsDS", new String[]{} );
 				params.put("dsName",new String[]{fedoraRightsDS});
 				outputTransform(
-					path[2], null, null, true, rightsMetadataTransform, params,
+					path[2], null, null, true, rightsMetadataXsl, params,
 					"application/xml", res.SC_OK, ts, null, res
 				);
 			}
@@ -367,11 +349,11 @@ TXT DELETE /objects/[oid]/datastreams/[fid] (ts/arr) fileDelete
 				&& path[4].equals(fedoraLinksDS) )
 			{
                 ts = triplestore(req);
-                es = events(req);
+                es = events(req, ts);
                 Map<String,String[]> params = new HashMap<String,String[]>();
 				params.put("dsName",new String[]{fedoraLinksDS});
                 outputTransform(
-                    path[2], null, null, RECURSIVE_OBJ, linksMetadataTransform,
+                    path[2], null, null, RECURSIVE_OBJ, linksMetadataXsl,
 					params, "application/xml", res.SC_OK, ts, es, res
                 );
 			}
@@ -385,7 +367,7 @@ TXT DELETE /objects/[oid]/datastreams/[fid] (ts/arr) fileDelete
                 Map<String,String[]> params = new HashMap<String,String[]>();
 				params.put("dsName",new String[]{fedoraSystemDS});
                 outputTransform(
-                    path[2], null, null, true, systemMetadataTransform, params,
+                    path[2], null, null, true, systemMetadataXsl, params,
                     "application/xml", res.SC_OK, ts, null, res
                 );
 			}
@@ -476,7 +458,7 @@ TXT DELETE /objects/[oid]/datastreams/[fid] (ts/arr) fileDelete
 					adds = "[]";
 				}
 				ts = triplestore(req);
-				es = events(req);
+				es = events(req, ts);
 				String id = stripPrefix(path[2]);
 
 				cacheRemove(id);
@@ -504,7 +486,7 @@ TXT DELETE /objects/[oid]/datastreams/[fid] (ts/arr) fileDelete
 				InputBundle bundle = input(req);
 				InputStream in = bundle.getInputStream();
 				ts = triplestore(req);
-				es = events(req);
+				es = events(req, ts);
 				String id = stripPrefix(path[2]);
 				cacheRemove(id);
 				Identifier id2 = Identifier.publicURI(idNS+id);
@@ -524,7 +506,7 @@ TXT DELETE /objects/[oid]/datastreams/[fid] (ts/arr) fileDelete
 					Map<String,String[]> params = new HashMap<String,String[]>();
 					params.put("dsName",new String[]{fedoraObjectDS});
 					outputTransform(
-						path[2], null, null, true, datastreamProfileTransform,
+						path[2], null, null, true, datastreamProfileXsl,
 						params, "application/xml", res.SC_CREATED, ts, es, res
 					);
 				}
@@ -545,7 +527,7 @@ TXT DELETE /objects/[oid]/datastreams/[fid] (ts/arr) fileDelete
 				InputBundle bundle = input(req);
 				InputStream in = bundle.getInputStream();
 				ts = triplestore(req);
-				es = events(req);
+				es = events(req, ts);
 				String id = stripPrefix(path[2]);
 
 				updateModels( id, in, ts, es, fs );
@@ -554,7 +536,7 @@ TXT DELETE /objects/[oid]/datastreams/[fid] (ts/arr) fileDelete
 				Map<String,String[]> params = new HashMap<String,String[]>();
 				params.put("dsName",new String[]{fedoraLinksDS});
 				outputTransform(
-					path[2], null, null, true, datastreamProfileTransform,
+					path[2], null, null, true, datastreamProfileXsl,
 					params, "application/xml", res.SC_CREATED, ts, es, res
 				);
 			}
@@ -569,7 +551,7 @@ TXT DELETE /objects/[oid]/datastreams/[fid] (ts/arr) fileDelete
 				params.putAll( bundle.getParams() );
 				params.put("dsName",new String[]{path[4]});
 				ts = triplestore(req);
-				es = events(req);
+				es = events(req, ts);
 				String id = stripPrefix(path[2]);
 				cacheRemove(id);
 
@@ -580,7 +562,7 @@ TXT DELETE /objects/[oid]/datastreams/[fid] (ts/arr) fileDelete
 
 				outputTransform(
 					path[2], cmpid(path[4]), fileid(path[4]),
-					true, datastreamProfileTransform, params, "application/xml",
+					true, datastreamProfileXsl, params, "application/xml",
 					res.SC_CREATED, ts, es, res
 				);
 			}
@@ -621,7 +603,7 @@ TXT DELETE /objects/[oid]/datastreams/[fid] (ts/arr) fileDelete
 				InputBundle bundle = input(req);
 				InputStream in = bundle.getInputStream();
 				ts = triplestore(req);
-				es = events(req);
+				es = events(req, ts);
 				String id = stripPrefix(path[2]);
 				cacheRemove(id);
 				Identifier id2 = createID( id, null, null );
@@ -641,7 +623,7 @@ TXT DELETE /objects/[oid]/datastreams/[fid] (ts/arr) fileDelete
 					Map<String,String[]> params = new HashMap<String,String[]>();
 					params.put("dsName",new String[]{fedoraObjectDS});
 					outputTransform(
-						path[2], null, null, true, datastreamProfileTransform,
+						path[2], null, null, true, datastreamProfileXsl,
 						params, "application/xml", res.SC_OK, ts, es, res
 					);
 				}
@@ -662,7 +644,7 @@ TXT DELETE /objects/[oid]/datastreams/[fid] (ts/arr) fileDelete
 				InputBundle bundle = input(req);
 				InputStream in = bundle.getInputStream();
 				ts = triplestore(req);
-				es = events(req);
+				es = events(req, ts);
 				String id = stripPrefix(path[2]);
 
 				updateModels( id, in, ts, es, fs );
@@ -671,7 +653,7 @@ TXT DELETE /objects/[oid]/datastreams/[fid] (ts/arr) fileDelete
 				Map<String,String[]> params = new HashMap<String,String[]>();
 				params.put("dsName",new String[]{fedoraLinksDS});
 				outputTransform(
-					path[2], null, null, true, datastreamProfileTransform,
+					path[2], null, null, true, datastreamProfileXsl,
 					params, "application/xml", res.SC_OK, ts, es, res
 				);
 			}
@@ -687,7 +669,7 @@ TXT DELETE /objects/[oid]/datastreams/[fid] (ts/arr) fileDelete
 				params.putAll( bundle.getParams() );
 				params.put("dsName",new String[]{path[4]});
 				ts = triplestore(req);
-				es = events(req);
+				es = events(req, ts);
 
 				String id = stripPrefix(path[2]);
 				cacheRemove(id);
@@ -698,7 +680,7 @@ TXT DELETE /objects/[oid]/datastreams/[fid] (ts/arr) fileDelete
 
 				outputTransform(
 					path[2], cmpid(path[4]), fileid(path[4]),
-					true, datastreamProfileTransform, params, "application/xml",
+					true, datastreamProfileXsl, params, "application/xml",
 					res.SC_OK, ts, es, res
 				);
 			}
@@ -747,14 +729,14 @@ TXT DELETE /objects/[oid]/datastreams/[fid] (ts/arr) fileDelete
 			{
 				// delete object
 				ts = triplestore(req);
-				es = events(req);
+				es = events(req, ts);
 				String id = stripPrefix(path[2]);
 				cacheRemove(id);
 
 				info = objectDelete( id, ts, es, fs );
 
 				outputTransform(
-					path[2], null, null, true, datastreamDeleteTransform, null,
+					path[2], null, null, true, datastreamDeleteXsl, null,
 					"text/plain", res.SC_NO_CONTENT, ts, es, res
 				);
 			}
@@ -765,7 +747,7 @@ TXT DELETE /objects/[oid]/datastreams/[fid] (ts/arr) fileDelete
 			{
 				// delete file
 				ts = triplestore(req);
-				es = events(req);
+				es = events(req, ts);
 				String id = stripPrefix(path[2]);
 				cacheRemove(id);
 				info = fileDelete(
@@ -774,7 +756,7 @@ TXT DELETE /objects/[oid]/datastreams/[fid] (ts/arr) fileDelete
 
 				outputTransform(
 					path[2], cmpid(path[4]), fileid(path[4]),
-					true, datastreamDeleteTransform, null, "text/plain",
+					true, datastreamDeleteXsl, null, "text/plain",
 					res.SC_NO_CONTENT, ts, es, res
 				);
 			}
@@ -804,6 +786,7 @@ TXT DELETE /objects/[oid]/datastreams/[fid] (ts/arr) fileDelete
         info.put( "pst", times(pstTimes) );
         info.put( "put", times(putTimes) );
         info.put( "del", times(delTimes) );
+        info.putAll( xsltTimes() );
         return info;
     }
     private Map times( List<Long> times )
@@ -828,7 +811,7 @@ TXT DELETE /objects/[oid]/datastreams/[fid] (ts/arr) fileDelete
     }
 
 	private void outputTransform( String objid, String cmpid, String fileid,
-		boolean export, Transformer xsl, Map<String,String[]> params,
+		boolean export, String xsl, Map<String,String[]> params,
 		String contentType, int successCode, TripleStore ts, TripleStore es,
 		HttpServletResponse res )
 		throws TripleStoreException, TransformerException
@@ -918,19 +901,25 @@ TXT DELETE /objects/[oid]/datastreams/[fid] (ts/arr) fileDelete
 			}
 		}
 
-		// xslt
+		// xslt, streaming output to the response
 		try
 		{
-			String content =  xslt( rdfxml, xsl, params, null );
-			output( successCode, content, contentType, res );
+			outputXslt(
+				successCode, new StreamSource(new StringReader(rdfxml)), xsl,
+				params, null, contentType, res
+			);
 		}
 		catch ( Exception ex )
 		{
 			log.error("Error transforming object", ex );
-			output(
-				res.SC_INTERNAL_SERVER_ERROR, "Error: " + ex.toString(),
-				"text/plain", res
-			);
+			if ( !res.isCommitted() )
+			{
+				res.resetBuffer();
+				output(
+					res.SC_INTERNAL_SERVER_ERROR, "Error: " + ex.toString(),
+					"text/plain", res
+				);
+			}
 		}
 	}
 
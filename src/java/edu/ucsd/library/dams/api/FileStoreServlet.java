@@ -25,8 +25,10 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.zip.GZIPOutputStream;
@@ -47,7 +49,8 @@ import edu.ucsd.library.dams.file.FileStoreException;
 import edu.ucsd.library.dams.file.FileStoreUtil;
 
 /**
- * A file servlet supporting client-side caching and GZIP of text content.
+ * A file servlet supporting resume of downloads, client-side caching and GZIP
+ * of text content.
  * This servlet can also be used for images, client-side caching would become
  * more efficient. This servlet can also be used for text files, GZIP would
  * decrease network bandwidth.
@@ -69,6 +72,14 @@ public class FileStoreServlet extends HttpServlet
 	// Constants ---------------------------------------------------------
 	private static final int DEFAULT_BUFFER_SIZE = 10240; // ..bytes = 10KB.
 	private static final long DEFAULT_EXPIRE_TIME = 604800000L; // ..ms = 1 week
+	private static final String MULTIPART_BOUNDARY = "MULTIPART_BYTERANGES";
+	private static final int MAX_RANGES = 50; // more parts get the full file
+
+	// Tomcat NIO/APR connector sendfile request attributes
+	private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+	private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+	private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+	private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
 
 	// Properties --------------------------------------------------------
 	private String fsDefault;
@@ -277,6 +288,15 @@ public class FileStoreServlet extends HttpServlet
 			// error parsing lastmod date... set to now
 			lastModified = System.currentTimeMillis();
 		}
+		long fileLength = 0L;
+		try
+		{
+			fileLength = Long.parseLong( length );
+		}
+		catch ( Exception ex )
+		{
+			log.warn("Invalid length for " + fullFilename + ": " + length);
+		}
 		String eTag = meta.get("ETag");
 		if ( eTag == null )
 		{
@@ -324,6 +344,85 @@ public class FileStoreServlet extends HttpServlet
 			return;
 		}
 
+		// Validate and process range -------------------------------------
+
+		// Prepare some variables. The full Range represents the complete file.
+		Range full = new Range(0, fileLength - 1, fileLength);
+		List<Range> ranges = new ArrayList<Range>();
+
+		// Validate and process Range and If-Range headers.
+		String range = request.getHeader("Range");
+		if (range != null && fileLength > 0) {
+
+			// Range header should match format "bytes=n-n,n-n,n-n...". If
+			// not, then return 416.
+			if (!range.matches("^bytes=\\d*-\\d*(,\\d*-\\d*)*$")) {
+				response.setHeader("Content-Range", "bytes */" + fileLength); // Required in 416.
+				response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+				return;
+			}
+
+			// If-Range header should either match ETag or be greater then
+			// LastModified. If not, then return full file.
+			String ifRange = request.getHeader("If-Range");
+			if (ifRange != null && !ifRange.equals(eTag)) {
+				try {
+					long ifRangeTime = request.getDateHeader("If-Range"); // Throws IAE if invalid.
+					if (ifRangeTime == -1 || ifRangeTime + 1000 < lastModified) {
+						ranges.add(full);
+					}
+				} catch (IllegalArgumentException ignore) {
+					ranges.add(full);
+				}
+			}
+
+			// If any valid If-Range header, then process each part of byte
+			// range.
+			if (ranges.isEmpty()) {
+				for (String part : range.substring(6).split(",")) {
+					// Assuming a file with length of 100, the following
+					// examples returns bytes at: 50-80 (50 to 80), 40- (40 to
+					// length=100), -20 (length-20=80 to length=100).
+					long start = -1;
+					long end = -1;
+					try {
+						start = sublong(part, 0, part.indexOf("-"));
+						end = sublong(part, part.indexOf("-") + 1, part.length());
+					} catch (NumberFormatException e) {
+						// Too many digits for a long, so past the end of the
+						// file. Return 416.
+						response.setHeader("Content-Range", "bytes */" + fileLength); // Required in 416.
+						response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+						return;
+					}
+
+					if (start == -1 && end != -1) {
+						start = Math.max(fileLength - end, 0);
+						end = fileLength - 1;
+					} else if (end == -1 || end > fileLength - 1) {
+						end = fileLength - 1;
+					}
+
+					// Check if Range is syntactically valid. If not, then
+					// return 416.
+					if (start == -1 || start > end) {
+						response.setHeader("Content-Range", "bytes */" + fileLength); // Required in 416.
+						response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+						return;
+					}
+
+					// Add range.
+					ranges.add(new Range(start, end, fileLength));
+				}
+
+				// Don't let a long list of parts cost more than the file.
+				if (ranges.size() > MAX_RANGES) {
+					ranges.clear();
+					ranges.add(full);
+				}
+			}
+		}
+
 		// Prepare and initialize response ----------------------------------
 
 		// Get content type by file name and set default GZIP support and
@@ -371,8 +470,14 @@ public class FileStoreServlet extends HttpServlet
 		response.setBufferSize(DEFAULT_BUFFER_SIZE);
 		response.setHeader("Content-Disposition",
 			disposition + ";filename=\"" + sFileName + "\"");
+		response.setHeader("Accept-Ranges", "bytes");
 		response.setHeader("ETag", eTag);
 		response.setDateHeader("Last-Modified", lastModified);
+		if ( meta.get("Digest") != null )
+		{
+			// instance digest, applies to range and gzip responses too
+			response.setHeader("Digest", meta.get("Digest"));
+		}
 		/* begin ucsd changes */
 		if( restricted == null || !restricted.equals("1") )
 		{
@@ -387,49 +492,123 @@ public class FileStoreServlet extends HttpServlet
 		InputStream input = null;
 		OutputStream output = null;
 		long fileTime = 0;
-		if (content)
+		try
 		{
-			try
+			long start = System.currentTimeMillis();
+			if (ranges.isEmpty() || ranges.get(0) == full)
 			{
-				long start = System.currentTimeMillis();
-				// Open streams.
-				input = fs.getInputStream(objid,cmpid,fileid);
-				output = response.getOutputStream();
+				// Return full file.
 				response.setContentType(contentType);
 				if (acceptsGzip)
 				{
 					// The browser accepts GZIP, so GZIP the content.
 					response.setHeader("Content-Encoding", "gzip");
-					output = new GZIPOutputStream(output, DEFAULT_BUFFER_SIZE);
 				}
 				else
 				{
 					// Content length is not directly predictable in case of
 					// GZIP. So only add it if there is no means of GZIP, else
-					// browser will hang.
+					// browser will hang.  Headers are set before any content
+					// is sent, since the response is committed once the
+					// buffer fills.
 					response.setHeader("Content-Length", length);
+					if ( meta.get("Content-MD5") != null )
+					{
+						response.setHeader("Content-MD5", meta.get("Content-MD5"));
+					}
+				}
+				if (content && !acceptsGzip && fileLength > 0)
+				{
+					output = send(request, response, fs, objid, cmpid, fileid, full);
+				}
+				else if (content)
+				{
+					// Open streams.
+					input = fs.getInputStream(objid,cmpid,fileid);
+					output = response.getOutputStream();
+					if (acceptsGzip)
+					{
+						output = new GZIPOutputStream(output, DEFAULT_BUFFER_SIZE);
+					}
 				}
 
 				// Copy full range.
 				/* begin ucsd changes */
-				FileStoreUtil.copy(input, output);
-				fileTime = System.currentTimeMillis() - start;
-				/* begin ucsd changes */
+				if (input != null)
+				{
+					FileStoreUtil.copy(input, output);
+				}
+				/* end ucsd changes */
 			}
-			catch ( Exception ex )
+			else if (ranges.size() == 1)
+			{
+				// Return single part of file.
+				Range r = ranges.get(0);
+				response.setContentType(contentType);
+				response.setHeader("Content-Range", "bytes " + r.start + "-" + r.end + "/" + r.total);
+				response.setHeader("Content-Length", String.valueOf(r.length));
+				response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT); // 206.
+
+				// Copy single part range.
+				if (content)
+				{
+					output = send(request, response, fs, objid, cmpid, fileid, r);
+				}
+			}
+			else
+			{
+				// Return multiple parts of file.
+				response.setContentType("multipart/byteranges; boundary=" + MULTIPART_BOUNDARY);
+				response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT); // 206.
+
+				if (content)
+				{
+					// Cast back to ServletOutputStream to get the easy println
+					// methods.
+					ServletOutputStream sos = response.getOutputStream();
+					output = sos;
+
+					// Copy multi part range.
+					for (Range r : ranges)
+					{
+						// Add multipart boundary and header fields for every
+						// range.
+						sos.println();
+						sos.println("--" + MULTIPART_BOUNDARY);
+						sos.println("Content-Type: " + contentType);
+						sos.println("Content-Range: bytes " + r.start + "-" + r.end + "/" + r.total);
+						sos.println();
+
+						// Copy single part range of multi part range.
+						fs.read(objid, cmpid, fileid, sos, r.start, r.length);
+					}
+
+					// End with multipart boundary.
+					sos.println();
+					sos.println("--" + MULTIPART_BOUNDARY + "--");
+				}
+			}
+			fileTime = System.currentTimeMillis() - start;
+		}
+		catch ( Exception ex )
+		{
+			log.error("Error reading " + fullFilename, ex );
+			if ( !response.isCommitted() )
 			{
-				log.error("Error reading " + fullFilename, ex );
 				response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
 			}
-			finally
+		}
+		finally
+		{
+			/* begin ucsd changes */
+			if (content)
 			{
-				/* begin ucsd changes */
 				log.info("Time in miliseconds to retrival file " + fullFilename + "(" + length + " bytes)" + ": Total " + (fsTime + metaTime + fileTime) + "[FileStore initiation: " + fsTime +  "; Metadata query: " + metaTime + "; File download: " + fileTime + "]");
-				/* begin ucsd changes */
-				// Gently close streams.
-				close(output);
-				close(input);
 			}
+			/* end ucsd changes */
+			// Gently close streams.
+			close(output);
+			close(input);
 		}
 	}
 
@@ -462,6 +641,44 @@ public class FileStoreServlet extends HttpServlet
 			|| Arrays.binarySearch(matchValues, "*") > -1;
 	}
 
+	/**
+	 * Send a byte range of a file.  Files stored locally are sent by the
+	 * container with sendfile when it is supported, otherwise the range is
+	 * copied to the response by the FileStore.
+	 * @return The output stream written to, or null if the container will
+	 *  send the file.
+	 */
+	private static OutputStream send(HttpServletRequest request,
+		HttpServletResponse response, FileStore fs, String objid, String cmpid,
+		String fileid, Range r) throws IOException, FileStoreException {
+		File f = fs.localFile(objid, cmpid, fileid);
+		if (f != null && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+			request.setAttribute(SENDFILE_FILENAME, f.getCanonicalPath());
+			request.setAttribute(SENDFILE_START, Long.valueOf(r.start));
+			request.setAttribute(SENDFILE_END, Long.valueOf(r.end + 1));
+			return null;
+		}
+		OutputStream output = response.getOutputStream();
+		fs.read(objid, cmpid, fileid, output, r.start, r.length);
+		return output;
+	}
+
+	/**
+	 * Returns a substring of the given string value from the given begin index
+	 * to the given end index as a long. If the substring is empty, then -1
+	 * will be returned
+	 * @param value The string value to return a substring as long for.
+	 * @param beginIndex The begin index of the substring to be returned as
+	 *  long.
+	 * @param endIndex The end index of the substring to be returned as long.
+	 * @return A substring of the given string value as long or -1 if substring
+	 *  is empty.
+	 */
+	private static long sublong(String value, int beginIndex, int endIndex) {
+		String substring = value.substring(beginIndex, endIndex);
+		return (substring.length() > 0) ? Long.parseLong(substring) : -1;
+	}
+
 	/**
 	 * Close the given resource.
 	 * @param resource The resource to be closed.
@@ -477,4 +694,29 @@ public class FileStoreServlet extends HttpServlet
 			}
 		}
 	}
+
+	// Inner classes ------------------------------------------------------
+
+	/**
+	 * This class represents a byte range.
+	 */
+	protected class Range {
+		long start;
+		long end;
+		long length;
+		long total;
+
+		/**
+		 * Construct a byte range.
+		 * @param start Start of the byte range.
+		 * @param end End of the byte range.
+		 * @param total Total length of the byte source.
+		 */
+		public Range(long start, long end, long total) {
+			this.start = start;
+			this.end = end;
+			this.length = end - start + 1;
+			this.total = total;
+		}
+	}
 }
@@ -1,16 +1,9 @@
 package edu.ucsd.library.dams.api;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
 
-import java.text.NumberFormat;
-
-import java.util.Properties;
-
 import javax.naming.InitialContext;
 
 import javax.servlet.http.HttpServlet;
@@ -20,16 +13,19 @@ import javax.servlet.ServletException;
 
 import org.apache.log4j.Logger;
 
+import edu.ucsd.library.dams.util.JournaledMinter;
+
 /**
  * Basic minter servlet, configured using DAMS_HOME/minter.properties (this file
- * will be created with default values if it doesn't exist).
+ * will be created with default values if it doesn't exist).  Blocks of
+ * identifiers are reserved in DAMS_HOME/minter.journal, so concurrent and
+ * repeated calls never mint the same identifier.
  * @author escowles@ucsd.edu
 **/
 public class SimpleMinterServlet extends HttpServlet
 {
 	private static Logger log = Logger.getLogger(SimpleMinterServlet.class);
-	private static NumberFormat fmt = null;
-	private static File damsHome = null;
+	private static JournaledMinter minter = null;
 
 	/**
 	 * Command-line operation.
@@ -39,7 +35,7 @@ public class SimpleMinterServlet extends HttpServlet
 	{
 		int count = 1;
 		try { count = Integer.parseInt(args[0]); } catch ( Exception ex ) {}
-		mint( 1, new PrintWriter(System.out) );
+		mint( count, new PrintWriter(System.out) );
 	}
 
 	/**
@@ -73,6 +69,29 @@ public class SimpleMinterServlet extends HttpServlet
 		out.close();
 	}
 
+	/**
+	 * Compact the minter journal when the servlet is stopped.
+	**/
+	public void destroy()
+	{
+		synchronized ( SimpleMinterServlet.class )
+		{
+			if ( minter != null )
+			{
+				try
+				{
+					minter.close();
+				}
+				catch ( Exception ex )
+				{
+					log.warn("Error closing minter", ex );
+				}
+				minter = null;
+			}
+		}
+		super.destroy();
+	}
+
 	/**
 	 * Mint identifiers and print them.
 	 * @param count The number of identifiers to mint.
@@ -80,9 +99,27 @@ public class SimpleMinterServlet extends HttpServlet
 	**/
 	public static void mint( int count, PrintWriter out )
 	{
-		// setup dams home directory
-		if ( damsHome == null )
+		try
+		{
+			String[] ids = minter().mint( count );
+			for ( int i = 0; i < ids.length; i++ )
+			{
+				out.println( ids[i] );
+			}
+		}
+		catch ( Exception ex )
+		{
+			log.error("Error minting identifiers", ex );
+		}
+		out.flush();
+	}
+
+	// open the minter in the dams home directory
+	private static synchronized JournaledMinter minter() throws IOException
+	{
+		if ( minter == null )
 		{
+			File damsHome = null;
 			try
 			{
 				InitialContext ctx = new InitialContext();
@@ -96,81 +133,8 @@ public class SimpleMinterServlet extends HttpServlet
 				log.warn("Unable to lookup damsHome, using default: "
 					+ damsHome.getAbsolutePath() );
 			}
+			minter = new JournaledMinter( damsHome, "minter" );
 		}
-
-		// load config properties
-		File propsFile = new File( damsHome, "minter.properties" );
-		Properties props = new Properties();
-		try
-		{
-			props.load( new FileInputStream(propsFile) );
-		}
-		catch ( Exception ex )
-		{
-			log.warn("Error loading properties, using defaults");
-		}
-
-		// set initial state
-		String prefix = getString( props, "prefix", "id: 20775/xx" );
-		int lastID = getInt( props, "lastid", 0 );
-		int digits = getInt( props, "digits", 8 );
-		
-		// setup number format
-		if ( fmt == null )
-		{
-			fmt = NumberFormat.getIntegerInstance();
-			fmt.setMinimumIntegerDigits(digits);
-			fmt.setGroupingUsed(false);
-		}
-
-		// mint ids
-		for ( int i = 0; i < count; i++ )
-		{
-			lastID++;
-			out.println( prefix + fmt.format(lastID) );
-		}
-		out.flush();
-
-		// update properties
-		props.setProperty( "lastid", String.valueOf(lastID) );
-		try
-		{
-			FileOutputStream fos = new FileOutputStream(propsFile);
-			props.store( fos, "DAMS Repo minter properties" );
-			fos.close();
-		}
-		catch ( Exception ex )
-		{
-			log.warn("Error writing minter properties", ex );
-		}
-	}
-
-	// get an int property (and set it to the default if not supplied)
-	private static int getInt( Properties props, String key, int defaultVal )
-	{
-		int value = defaultVal;
-		try
-		{
-			value = Integer.parseInt( props.getProperty(key) );
-		}
-		catch ( Exception ex )
-		{
-			value = defaultVal;
-			props.setProperty( key, String.valueOf(defaultVal) );
-		}
-		return value;
-	}
-
-	// get a string property (and set it to the default if not supplied)
-	private static String getString( Properties props, String key,
-		String defaultVal )
-	{
-		String value = props.getProperty(key);
-		if ( value == null )
-		{
-			value = defaultVal;
-			props.setProperty( key, defaultVal );
-		}
-		return value;
+		return minter;
 	}
 }
@@ -35,14 +35,28 @@ public class TripleStoreDump
 		// model size
 		System.out.println( "statements: " + ts.size() );
 
-		// list Statements
+		// list Statements, in a transaction so the driver can fetch rows in
+		// batches
 		System.out.println("listing statements");
-		StatementIterator statements = ts.listStatements( subject, null, null );
-		while ( statements.hasNext() )
+		ts.startTransaction();
+		try
 		{
-			System.out.println( statements.nextStatement().toString() );
+			StatementIterator statements = ts.listStatements(
+				subject, null, null
+			);
+			while ( statements.hasNext() )
+			{
+				System.out.println( statements.nextStatement().toString() );
+			}
+			statements.close();
+			ts.commit();
+		}
+		catch ( Exception ex )
+		{
+			ts.rollback();
+			ts.close();
+			throw ex;
 		}
-		statements.close();
 
 		// close the model and database connection
 		System.out.println("closing connection");
@@ -0,0 +1,81 @@
+package edu.ucsd.library.dams.commands;
+
+import java.io.FileInputStream;
+import java.util.Properties;
+
+import edu.ucsd.library.dams.triple.Identifier;
+import edu.ucsd.library.dams.triple.TripleStore;
+import edu.ucsd.library.dams.triple.TripleStoreUtil;
+
+/**
+ * Compare the time taken to check whether a large object exists by counting
+ * its triples, with exists() and a SPARQL ASK query.  A temporary object
+ * with the requested number of triples is created and removed afterwards.
+ * @author escowles@ucsd.edu
+**/
+public class TripleStoreExistsBenchmark
+{
+	public static void main( String[] args ) throws Exception
+	{
+		Properties props = new Properties();
+		props.load( new FileInputStream(args[0]) );
+		String tsName = args[1];
+		Identifier id = Identifier.publicURI( args[2] );
+		int triples = (args.length > 3) ? Integer.parseInt(args[3]) : 100000;
+		int iterations = (args.length > 4) ? Integer.parseInt(args[4]) : 100;
+
+		// get TripleStore instance
+		TripleStore ts = TripleStoreUtil.getTripleStore( props, tsName );
+		if ( ts.exists(id) )
+		{
+			System.err.println( "Object already exists: " + id.getId() );
+			ts.close();
+			System.exit(1);
+		}
+
+		try
+		{
+			// create a large object
+			System.out.println( "adding " + triples + " triples" );
+			Identifier pre = Identifier.publicURI(
+				"http://www.w3.org/2000/01/rdf-schema#comment"
+			);
+			ts.startTransaction();
+			for ( int i = 0; i < triples; i++ )
+			{
+				ts.addLiteralStatement( id, pre, "\"triple " + i + "\"", id );
+			}
+			ts.commit();
+
+			// time each method
+			String select = "select ?p ?o where { <" + id.getId() + "> ?p ?o }";
+			String ask = "ask { <" + id.getId() + "> ?p ?o }";
+			long start = System.currentTimeMillis();
+			for ( int i = 0; i < iterations; i++ ) { ts.sparqlCount( select ); }
+			report( "count", start, iterations );
+
+			start = System.currentTimeMillis();
+			for ( int i = 0; i < iterations; i++ ) { ts.exists( id ); }
+			report( "exists", start, iterations );
+
+			start = System.currentTimeMillis();
+			for ( int i = 0; i < iterations; i++ ) { ts.sparqlAsk( ask ); }
+			report( "ask", start, iterations );
+		}
+		finally
+		{
+			// remove the object and close the database connection
+			System.out.println("removing object and closing connection");
+			ts.removeObject( id );
+			ts.close();
+		}
+	}
+	private static void report( String method, long start, int iterations )
+	{
+		long dur = System.currentTimeMillis() - start;
+		System.out.println(
+			method + ": " + dur + " msec, " + ((float)dur/iterations)
+				+ " msec/check"
+		);
+	}
+}
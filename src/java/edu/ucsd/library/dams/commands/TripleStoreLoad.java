@@ -4,29 +4,64 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileInputStream;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import edu.ucsd.library.dams.triple.TripleStore;
 import edu.ucsd.library.dams.triple.TripleStoreUtil;
 
 /**
- * Command-line data loading app.
+ * Command-line data loading app.  Files can be loaded in parallel by setting
+ * the "threads" system property (-Dthreads=8), each worker thread loading
+ * files with its own triplestore connection.  Setting the "checkpoint" system
+ * property to a filename records each file loaded, and files listed there are
+ * skipped when the load is restarted.  Files that fail validation are not
+ * loaded or checkpointed, and are listed with their errors.  Setting the
+ * "bulk" system property (-Dbulk=true) loads all files into an empty
+ * triplestore (or one resumed from a checkpoint) with the database's bulk
+ * loading facility, building indexes after the load.
  * @author escowles@ucsd.edu
 **/
 public class TripleStoreLoad
 {
 	private static long startTime = 0L;
 	private static long startTriples = 0L;
-	private static int records = 0;
+	private static AtomicLong records = new AtomicLong();
+	private static AtomicLong skipped = new AtomicLong();
+	private static AtomicLong errors = new AtomicLong();
+	private static AtomicLong invalid = new AtomicLong();
 	private static TripleStore ts = null;
 	private static final int BATCH_SIZE = 1000;
 
+	private static Properties props = null;
+	private static String tsName = null;
 	private static Set<String> validClasses = null;
 	private static Set<String> validProperties = null;
- 
+
+	// worker connections, one per thread
+	private static int threads = 1;
+	private static ThreadPoolExecutor pool = null;
+	private static List<TripleStore> workerStores
+		= Collections.synchronizedList( new ArrayList<TripleStore>() );
+	private static ThreadLocal<TripleStore> workerStore
+		= new ThreadLocal<TripleStore>();
+
+	// checkpoint of files already loaded
+	private static Set<String> loaded = new HashSet<String>();
+	private static PrintWriter checkpoint = null;
+
 	/**
 	 * Command-line operation.
 	 * @param args The first argument must be a properties file for triplestore
@@ -40,9 +75,9 @@ public class TripleStoreLoad
 			startTime = System.currentTimeMillis();
 
 			// get TripleStore instance
-			Properties props = new Properties();
+			props = new Properties();
 			props.load( new FileInputStream(args[0]) );
-			String tsName = args[1];
+			tsName = args[1];
 			ts = TripleStoreUtil.getTripleStore( props, tsName );
 
 			// parse class/property lists for validation
@@ -53,6 +88,63 @@ public class TripleStoreLoad
 			startTriples = ts.size();
 			System.out.println( "size: " + startTriples );
 
+			// resume from checkpoint
+			String checkpointFile = System.getProperty("checkpoint");
+			if ( checkpointFile != null && !checkpointFile.trim().equals("") )
+			{
+				if ( new File(checkpointFile).exists() )
+				{
+					loaded = loadSet( checkpointFile );
+				}
+				checkpoint = new PrintWriter(
+					new FileWriter(checkpointFile, true), true
+				);
+			}
+
+			// bulk load into an empty triplestore
+			if ( Boolean.getBoolean("bulk") )
+			{
+				List<File> files = new ArrayList<File>();
+				for ( int i = 4; i < args.length; i++ )
+				{
+					listFiles( new File(args[i]), files );
+				}
+				long triples = ts.bulkLoad(
+					files, validClasses, validProperties, loaded.size() > 0,
+					new TripleStore.BulkListener() {
+						public void fileLoaded( File f )
+						{
+							if ( checkpoint != null )
+							{
+								checkpoint.println( f.getAbsolutePath() );
+							}
+							records.incrementAndGet();
+						}
+						public void fileFailed( File f, Set<String> errs )
+						{
+							invalid( f, errs );
+						}
+					}
+				);
+				System.out.println( "bulk loaded: " + triples );
+				ts.optimize();
+				outputStatus( -1, true );
+				return;
+			}
+
+			// worker pool, the bounded queue makes the directory walk wait
+			// for the workers instead of listing every file up front
+			threads = Integer.parseInt( System.getProperty("threads", "1") );
+			if ( threads > 1 )
+			{
+				System.out.println( "threads: " + threads );
+				pool = new ThreadPoolExecutor(
+					threads, threads, 0L, TimeUnit.MILLISECONDS,
+					new ArrayBlockingQueue<Runnable>( threads * 4 ),
+					new ThreadPoolExecutor.CallerRunsPolicy()
+				);
+			}
+
 			// add bulk Statements
 			for ( int i = 4; i < args.length; i++ )
 			{
@@ -63,9 +155,14 @@ public class TripleStoreLoad
 				}
 				else if ( f.isFile() )
 				{
-					processFile( f );
+					submitFile( f );
 				}
 			}
+			if ( pool != null )
+			{
+				pool.shutdown();
+				pool.awaitTermination( Long.MAX_VALUE, TimeUnit.MILLISECONDS );
+			}
 			ts.optimize();
 
 			// output progress info
@@ -74,36 +171,59 @@ public class TripleStoreLoad
 		catch ( Exception ex )
 		{
 			ex.printStackTrace();
+			errors.incrementAndGet();
 		}
 		finally
 		{
 			// close the model and database connection
 			System.out.println("closing connection");
 			if ( ts != null ) { ts.close(); }
+			synchronized ( workerStores )
+			{
+				for ( TripleStore worker : workerStores )
+				{
+					worker.close();
+				}
+			}
+			if ( checkpoint != null ) { checkpoint.close(); }
+		}
+		if ( errors.get() > 0 || invalid.get() > 0 )
+		{
+			System.exit(1);
 		}
 	}
 
-	public static void outputStatus( int i, boolean verbose )
+	public static void outputStatus( long i, boolean verbose )
 	{
 		try
 		{
 			// model size
 			long loadingTime = System.currentTimeMillis() - startTime;
-			long triplesLoaded = ts.size() - startTriples;
-			float loadingRate = (float)triplesLoaded/((float)loadingTime/1000);
+			long recordsLoaded = records.get();
+			float recordRate = (float)recordsLoaded/((float)loadingTime/1000);
 			if ( verbose )
 			{
+				long triplesLoaded = ts.size() - startTriples;
+				float loadingRate = (float)triplesLoaded/((float)loadingTime/1000);
 				System.out.println( "total triples.....: " + ts.size() );
 				System.out.println( "triples loaded....: " + triplesLoaded );
+				System.out.println( "records loaded....: " + recordsLoaded );
+				System.out.println( "records skipped...: " + skipped.get() );
+				System.out.println( "records invalid...: " + invalid.get() );
+				System.out.println( "errors............: " + errors.get() );
 				System.out.println( "loading time (ms).: " + loadingTime );
 				System.out.println( "loading rate (t/s): " + loadingRate );
+				System.out.println( "loading rate (r/s): " + recordRate );
 			}
 			else
 			{
+				// progress uses the record counter, counting triples would
+				// scan the whole table
 				if ( i != -1 ) { System.out.print( i + ": " ); }
 				System.out.println(
-					triplesLoaded + " / " + loadingTime + "ms ("
-						+ loadingRate+ " t/s)"
+					recordsLoaded + " records / " + loadingTime + "ms ("
+						+ recordRate + " r/s, " + errors.get() + " errors, "
+						+ invalid.get() + " invalid)"
 				);
 			}
 		}
@@ -122,11 +242,12 @@ public class TripleStoreLoad
 			name = f.getName().toLowerCase();
 			System.err.println("dir: " + f.getAbsolutePath() );
 			File[] children = f.listFiles();
+			Arrays.sort( children );
 			for ( int i = 0; i < children.length; i++ )
 			{
 				if ( children[i].isFile() )
 				{
-					processFile( children[i] );
+					submitFile( children[i] );
 				}
 				else if ( children[i].isDirectory() )
 				{
@@ -142,6 +263,40 @@ public class TripleStoreLoad
 			ex.printStackTrace();
 		}
 	}
+	private static void listFiles( File f, List<File> files )
+	{
+		if ( f.isDirectory() )
+		{
+			File[] children = f.listFiles();
+			Arrays.sort( children );
+			for ( int i = 0; i < children.length; i++ )
+			{
+				listFiles( children[i], files );
+			}
+		}
+		else if ( f.isFile() && !loaded.contains(f.getAbsolutePath()) )
+		{
+			files.add( f );
+		}
+	}
+	private static void submitFile( final File f )
+	{
+		if ( loaded.contains(f.getAbsolutePath()) )
+		{
+			skipped.incrementAndGet();
+			return;
+		}
+		if ( pool == null )
+		{
+			processFile( f );
+		}
+		else
+		{
+			pool.execute( new Runnable() {
+				public void run() { processFile( f ); }
+			});
+		}
+	}
 	public static void processFile( File f )
 	{
 		String name = null;
@@ -149,23 +304,41 @@ public class TripleStoreLoad
 		{
 			name = f.getName().toLowerCase();
 			System.out.println( f.getName() );
+			boolean recorded = false;
+			Set<String> errs = null;
 			if ( name.endsWith(".rdf") || name.endsWith(".xml") )
 			{
-				ts.loadRDFXML( f.getAbsolutePath(), validClasses, validProperties );
-				records++;
+				errs = currentStore().loadRDFXML(
+					f.getAbsolutePath(), validClasses, validProperties
+				);
+				recorded = true;
 			}
 			else if ( name.endsWith(".nt") || name.endsWith(".ntriples") )
 			{
-				ts.loadNTriples( f.getAbsolutePath(), validClasses, validProperties );
-				records++;
+				errs = currentStore().loadNTriples(
+					f.getAbsolutePath(), validClasses, validProperties
+				);
+				recorded = true;
 			}
 			else
 			{
 				System.err.println("Unknown format: " + f.getAbsolutePath());
 			}
-			if ( records > 0 && records % BATCH_SIZE == 0 )
+			if ( errs != null && errs.size() > 0 )
+			{
+				invalid( f, errs );
+			}
+			else if ( recorded )
 			{
-				outputStatus( records, false );
+				if ( checkpoint != null )
+				{
+					checkpoint.println( f.getAbsolutePath() );
+				}
+				long count = records.incrementAndGet();
+				if ( count % BATCH_SIZE == 0 )
+				{
+					outputStatus( count, false );
+				}
 			}
 		}
 		catch ( Exception ex )
@@ -174,8 +347,43 @@ public class TripleStoreLoad
 				"Error processing " + name + ": " + ex.toString()
 			);
 			ex.printStackTrace();
-			System.exit(1);
+			if ( pool == null )
+			{
+				System.exit(1);
+			}
+			errors.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Report a file that failed validation.
+	**/
+	private static void invalid( File f, Set<String> errs )
+	{
+		System.err.println(
+			"Invalid RDF in " + f.getAbsolutePath() + ": " + errs
+		);
+		invalid.incrementAndGet();
+	}
+
+	/**
+	 * Get the triplestore for the current thread, connecting a new one for
+	 * each worker thread.
+	**/
+	private static TripleStore currentStore() throws Exception
+	{
+		if ( pool == null )
+		{
+			return ts;
+		}
+		TripleStore worker = workerStore.get();
+		if ( worker == null )
+		{
+			worker = TripleStoreUtil.getTripleStore( props, tsName );
+			workerStore.set( worker );
+			workerStores.add( worker );
 		}
+		return worker;
 	}
 	private static Set<String> loadSet( String filename ) throws IOException
 	{
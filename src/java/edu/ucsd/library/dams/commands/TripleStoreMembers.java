@@ -0,0 +1,35 @@
+package edu.ucsd.library.dams.commands;
+
+import java.io.FileInputStream;
+import java.util.Properties;
+
+import edu.ucsd.library.dams.triple.TripleStore;
+import edu.ucsd.library.dams.triple.TripleStoreUtil;
+
+/**
+ * Rebuild the collection membership index from the existing triples,
+ * creating the index table if needed.
+ * @author escowles@ucsd.edu
+**/
+public class TripleStoreMembers
+{
+	public static void main( String[] args ) throws Exception
+	{
+		Properties props = new Properties();
+		props.load( new FileInputStream(args[0]) );
+		String tsName = args[1];
+
+		// get TripleStore instance
+		TripleStore ts = TripleStoreUtil.getTripleStore( props, tsName );
+
+		// recount membership links
+		long start = System.currentTimeMillis();
+		long links = ts.rebuildMembers();
+		long dur = System.currentTimeMillis() - start;
+		System.out.println( "member links: " + links + " (" + dur + " ms)" );
+
+		// close the model and database connection
+		System.out.println("closing connection");
+		ts.close();
+	}
+}
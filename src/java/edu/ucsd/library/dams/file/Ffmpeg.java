@@ -15,7 +15,6 @@ import java.util.List;
 
 import org.apache.commons.lang3.StringUtils;
 
-import edu.ucsd.library.dams.file.impl.LocalStore;
 
 /**
  * Interface to generate derivatives with Ffmpeg.
@@ -67,11 +66,11 @@ public class Ffmpeg
 			boolean deleteSrc = false;
 			//String[] masterFileParts = masterID.split("-", 2);
 			//String[] derivFileParts = derivID.split("-", 2);
-			if ( fs instanceof LocalStore )
+			File local = fs.localFile( objectID, compID, masterID );
+			if ( local != null )
 			{
 				// files already local, don't need to retrieve
-				LocalStore local = (LocalStore)fs;
-				src = local.getFile( objectID, compID, masterID );
+				src = local;
 			}
 			else
 			{
@@ -220,7 +219,7 @@ public class Ffmpeg
 	public boolean createDerivative (FileStore fs, String oid, String cid, String srcFid, String destFid, String codecParams, String offset) 
 			throws Exception 
 	{
-		File src = ((LocalStore)fs).getFile( oid, cid, srcFid );
+		File src = fs.localFile( oid, cid, srcFid );
 		File destTemp = File.createTempFile("ffmpegtmp",destFid);
 		if (destTemp.exists())
 			destTemp.delete();
@@ -249,8 +248,8 @@ public class Ffmpeg
 			// write the thumbnail created to filestore
 			FileInputStream fis = null;
 			try{
-				File dest = ((LocalStore)fs).getFile( oid, cid, destFid );
-				if (dest.exists())
+				File dest = fs.localFile( oid, cid, destFid );
+				if (dest != null && dest.exists())
 					dest.delete();
 				fis = new FileInputStream(destTemp);
 				fs.write( oid, cid, destFid, fis );
@@ -59,6 +59,23 @@ public interface FileStore
 	public void read( String objectID, String componentID, String fileID,
 		OutputStream out ) throws FileStoreException;
 
+	/**
+	 * Read part of a file and write it to an output stream, without reading
+	 * the data before the offset.  The output stream is not closed.
+	 * @param offset Position of the first byte to read.
+	 * @param length Number of bytes to read.
+	**/
+	public void read( String objectID, String componentID, String fileID,
+		OutputStream out, long offset, long length ) throws FileStoreException;
+
+	/**
+	 * Get the file on the local filesystem, so it can be sent without copying
+	 * it through the heap.
+	 * @return The local file, or null if the file is not stored locally.
+	**/
+	public java.io.File localFile( String objectID, String componentID,
+		String fileID ) throws FileStoreException;
+
 	/**
 	 * Get an InputStream containing file data.
 	**/
@@ -1,10 +1,14 @@
 package edu.ucsd.library.dams.file;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.Enumeration;
 import java.util.Properties;
 import java.lang.reflect.Constructor;
@@ -16,6 +20,7 @@ import javax.naming.NamingException;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
 
+import edu.ucsd.library.dams.file.impl.CachingFileStore;
 import edu.ucsd.library.dams.file.impl.LocalStore;
 
 /**
@@ -25,6 +30,7 @@ import edu.ucsd.library.dams.file.impl.LocalStore;
 public class FileStoreUtil
 {
 	private static Logger log = Logger.getLogger( FileStoreUtil.class );
+	private static final int BUFFER_SIZE = 65536; // bulk copy buffer
 
 	/**
 	 * Get an instance of a filestore class.
@@ -48,7 +54,10 @@ public class FileStoreUtil
 	 * Get an instance of a filestore class.
 	 * @param props Properties object holding parameters to initialize the
 	 *  triplestore, prefixed with the triplestore name.
-	 * @param name Prefix of the properties in the form "ts.[name].".
+	 * @param name Prefix of the properties in the form "ts.[name].".  File
+	 *  metadata is cached for up to "fs.[name].metaCacheTTL" ms (default
+	 *  60000) in a cache of "fs.[name].metaCacheBytes" (default 8MB, 0
+	 *  disables the cache).
 	**/
     public static FileStore getFileStore( Properties props, String name )
 		throws Exception
@@ -68,9 +77,31 @@ public class FileStoreUtil
             }
         }
 
-        // load the filestore
-        return getFileStore( fprops );
+        // load the filestore, with the shared metadata cache unless disabled
+        FileStore fs = getFileStore( fprops );
+        long cacheBytes = getPropLong( fprops, "metaCacheBytes", 8388608L );
+        long cacheTTL = getPropLong( fprops, "metaCacheTTL", 60000L );
+        if ( cacheBytes > 0 )
+        {
+            fs = new CachingFileStore( fs, name, cacheBytes, cacheTTL );
+        }
+        return fs;
     }
+	private static long getPropLong( Properties props, String key,
+		long defaultValue )
+	{
+		String val = props.getProperty( key );
+		if ( val == null ) { return defaultValue; }
+		try
+		{
+			return Long.parseLong( val.trim() );
+		}
+		catch ( NumberFormatException ex )
+		{
+			log.warn( "Invalid value for " + key + ": " + val );
+			return defaultValue;
+		}
+	}
 
 
 	/**
@@ -179,26 +210,68 @@ public class FileStoreUtil
 	}
 
 	/**
-	 * Copy data from an input stream to an output stream.
+	 * Copy data from an input stream to an output stream.  The output stream
+	 * is closed when the copy is complete.
 	**/
-    public static long copy( InputStream in, OutputStream out )
-        throws FileStoreException
-    {
+	public static long copy( InputStream in, OutputStream out )
+		throws FileStoreException
+	{
 		long bytesRead = 0;
-        try
-        {
-            BufferedInputStream bufin = new BufferedInputStream(in);
-            BufferedOutputStream bufout = new BufferedOutputStream(out);
-            for ( int c = -1; (c=bufin.read()) != -1; )
-            {   
-                bufout.write(c);
-				bytesRead++;
-            }
-			bufout.close();
-        }
-        catch ( Exception ex ) { throw new FileStoreException(ex); }
+		try
+		{
+			byte[] buf = new byte[BUFFER_SIZE];
+			for ( int len = -1; (len = in.read(buf)) != -1; )
+			{
+				out.write( buf, 0, len );
+				bytesRead += len;
+			}
+			out.close();
+		}
+		catch ( Exception ex ) { throw new FileStoreException(ex); }
 		return bytesRead;
-    }
+	}
+
+	/**
+	 * Copy part of a local file to an output stream using
+	 * FileChannel.transferTo, which avoids copying data through the heap when
+	 * the output is a file.  The output stream is not closed.
+	 * @param offset Position of the first byte to copy.
+	 * @param length Maximum number of bytes to copy.
+	**/
+	public static long copy( File f, OutputStream out, long offset,
+		long length ) throws FileStoreException
+	{
+		FileInputStream in = null;
+		try
+		{
+			in = new FileInputStream( f );
+			FileChannel src = in.getChannel();
+			WritableByteChannel dst = null;
+			if ( out instanceof FileOutputStream )
+			{
+				dst = ((FileOutputStream)out).getChannel();
+			}
+			else
+			{
+				dst = Channels.newChannel( out );
+			}
+			long end = Math.min( offset + length, src.size() );
+			long pos = offset;
+			while ( pos < end )
+			{
+				long sent = src.transferTo( pos, end - pos, dst );
+				if ( sent <= 0 ) { break; }
+				pos += sent;
+			}
+			return pos - offset;
+		}
+		catch ( IOException ex ) { throw new FileStoreException(ex); }
+		finally
+		{
+			try { if ( in != null ) { in.close(); } }
+			catch ( IOException ex ) { log.warn("Error closing file", ex); }
+		}
+	}
 
     /**
      * Construct file uri
@@ -11,7 +11,6 @@ import java.io.Reader;
 
 import java.util.ArrayList;
 
-import edu.ucsd.library.dams.file.impl.LocalStore;
 
 /**
  * Interface to generate derivatives with ImageMagic.
@@ -85,11 +84,11 @@ public class ImageMagick
 			boolean deleteSrc = false;
 			//String[] masterFileParts = masterID.split("-", 2);
 			//String[] derivFileParts = derivID.split("-", 2);
-			if ( fs instanceof LocalStore )
+			File local = fs.localFile( objectID, compID, masterID );
+			if ( local != null )
 			{
 				// files already local, don't need to retrieve
-				LocalStore local = (LocalStore)fs;
-				src = local.getFile( objectID, compID, masterID );
+				src = local;
 			}
 			else
 			{
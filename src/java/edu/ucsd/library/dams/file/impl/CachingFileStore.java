@@ -0,0 +1,417 @@
+package edu.ucsd.library.dams.file.impl;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import edu.ucsd.library.dams.file.FileStore;
+import edu.ucsd.library.dams.file.FileStoreException;
+
+/**
+ * FileStore decorator that caches file metadata, so repeated meta(),
+ * exists() and length() calls for the same file don't touch the underlying
+ * store.  The cache is shared by all instances for a named filestore, bounded
+ * by the estimated size of the cached metadata, and entries are removed when
+ * a file is written, trashed or copied over through any instance.  Entries
+ * also expire after a TTL so changes made outside the webapp are picked up.
+ * Metadata loaded while a file was being changed is not cached, since it
+ * may describe the old file.
+ * @author escowles@ucsd.edu
+**/
+public class CachingFileStore implements FileStore
+{
+	private static Logger log = Logger.getLogger( CachingFileStore.class );
+	private static final String DATE_FORMAT = "EEE, d MMM yyyy HH:mm:ss Z";
+
+	// shared caches, by filestore name
+	private static Map<String,MetaCache> caches
+		= new ConcurrentHashMap<String,MetaCache>();
+
+	private FileStore fs = null;
+	private MetaCache cache = null;
+
+	/**
+	 * Wrap a filestore with the shared metadata cache for its name.
+	 * @param fs Filestore to wrap.
+	 * @param name Filestore name.
+	 * @param maxBytes Maximum estimated size of cached metadata.
+	 * @param ttl Milliseconds before a cached entry is checked again.
+	**/
+	public CachingFileStore( FileStore fs, String name, long maxBytes,
+		long ttl )
+	{
+		this.fs = fs;
+		synchronized ( caches )
+		{
+			cache = caches.get( name );
+			if ( cache == null || cache.maxBytes != maxBytes
+				|| cache.ttl != ttl )
+			{
+				cache = new MetaCache( maxBytes, ttl );
+				caches.put( name, cache );
+			}
+		}
+	}
+
+	/**
+	 * Get the wrapped filestore.
+	**/
+	public FileStore getFileStore() { return fs; }
+
+	/**
+	 * Remove all cached metadata for a named filestore.
+	**/
+	public static void invalidate( String name )
+	{
+		MetaCache cache = caches.get( name );
+		if ( cache != null ) { cache.clear(); }
+	}
+
+	/**
+	 * Get usage statistics for the metadata caches, keyed by filestore name.
+	**/
+	public static Map<String,Map<String,String>> stats()
+	{
+		Map<String,Map<String,String>> info
+			= new LinkedHashMap<String,Map<String,String>>();
+		for ( Iterator<String> it = caches.keySet().iterator(); it.hasNext(); )
+		{
+			String key = it.next();
+			info.put( key, caches.get(key).stats() );
+		}
+		return info;
+	}
+
+
+/*****************************************************************************/
+/********** Cached methods ***************************************************/
+/*****************************************************************************/
+
+	public boolean exists( String objectID, String componentID, String fileID )
+		throws FileStoreException
+	{
+		return entry(objectID, componentID, fileID).meta != null;
+	}
+	public long length( String objectID, String componentID, String fileID )
+		throws FileStoreException
+	{
+		Entry e = entry( objectID, componentID, fileID );
+		if ( e.meta == null )
+		{
+			// keep the wrapped store's behavior for missing files
+			return fs.length( objectID, componentID, fileID );
+		}
+		return Long.parseLong( e.meta.get("Content-Length") );
+	}
+	public Map<String,String> meta( String objectID, String componentID,
+		String fileID ) throws FileStoreException
+	{
+		Entry e = entry( objectID, componentID, fileID );
+		if ( e.meta == null )
+		{
+			// keep the wrapped store's error for missing files
+			return fs.meta( objectID, componentID, fileID );
+		}
+
+		// callers may add to the map, and Date should be current
+		Map<String,String> md = new HashMap<String,String>( e.meta );
+		if ( md.containsKey("Date") )
+		{
+			SimpleDateFormat df = new SimpleDateFormat( DATE_FORMAT );
+			md.put( "Date", df.format(new Date()) );
+		}
+		return md;
+	}
+
+	/**
+	 * Get the cached entry for a file, loading it from the wrapped store if
+	 * it is not cached or has expired.
+	**/
+	private Entry entry( String objectID, String componentID, String fileID )
+		throws FileStoreException
+	{
+		String key = key( objectID, componentID, fileID );
+		Entry e = cache.get( key );
+		if ( e == null )
+		{
+			long stamp = cache.stamp();
+			Map<String,String> meta = null;
+			if ( fs.exists(objectID, componentID, fileID) )
+			{
+				meta = Collections.unmodifiableMap(
+					fs.meta( objectID, componentID, fileID )
+				);
+			}
+			e = new Entry( key, meta );
+			cache.put( key, e, stamp );
+		}
+		return e;
+	}
+
+
+/*****************************************************************************/
+/********** Methods that change files ****************************************/
+/*****************************************************************************/
+
+	public void write( String objectID, String componentID, String fileID,
+		byte[] data ) throws FileStoreException
+	{
+		try
+		{
+			fs.write( objectID, componentID, fileID, data );
+		}
+		finally
+		{
+			cache.remove( key(objectID, componentID, fileID) );
+		}
+	}
+	public void write( String objectID, String componentID, String fileID,
+		InputStream in ) throws FileStoreException
+	{
+		try
+		{
+			fs.write( objectID, componentID, fileID, in );
+		}
+		finally
+		{
+			cache.remove( key(objectID, componentID, fileID) );
+		}
+	}
+	public void trash( String objectID, String componentID, String fileID )
+		throws FileStoreException
+	{
+		try
+		{
+			fs.trash( objectID, componentID, fileID );
+		}
+		finally
+		{
+			cache.remove( key(objectID, componentID, fileID) );
+		}
+	}
+	public void copy( String srcObjID, String srcCompID, String srcFileID,
+		String dstObjID, String dstCompID, String dstFileID )
+		throws FileStoreException
+	{
+		try
+		{
+			fs.copy( srcObjID, srcCompID, srcFileID,
+				dstObjID, dstCompID, dstFileID );
+		}
+		finally
+		{
+			cache.remove( key(dstObjID, dstCompID, dstFileID) );
+		}
+	}
+
+
+/*****************************************************************************/
+/********** Delegated methods ************************************************/
+/*****************************************************************************/
+
+	public String[] listComponents( String objectID )
+		throws FileStoreException
+	{
+		return fs.listComponents( objectID );
+	}
+	public String[] listFiles( String objectID, String componentID )
+		throws FileStoreException
+	{
+		return fs.listFiles( objectID, componentID );
+	}
+	public byte[] read( String objectID, String componentID, String fileID )
+		throws FileStoreException
+	{
+		return fs.read( objectID, componentID, fileID );
+	}
+	public byte[] readManifest( String objectID ) throws FileStoreException
+	{
+		return fs.readManifest( objectID );
+	}
+	public void read( String objectID, String componentID, String fileID,
+		OutputStream out ) throws FileStoreException
+	{
+		fs.read( objectID, componentID, fileID, out );
+	}
+	public void read( String objectID, String componentID, String fileID,
+		OutputStream out, long offset, long length ) throws FileStoreException
+	{
+		fs.read( objectID, componentID, fileID, out, offset, length );
+	}
+	public File localFile( String objectID, String componentID,
+		String fileID ) throws FileStoreException
+	{
+		return fs.localFile( objectID, componentID, fileID );
+	}
+	public InputStream getInputStream( String objectID, String componentID,
+		String fileID ) throws FileStoreException
+	{
+		return fs.getInputStream( objectID, componentID, fileID );
+	}
+	public void writeManifest( String objectID, byte[] data )
+		throws FileStoreException
+	{
+		fs.writeManifest( objectID, data );
+	}
+	public void close() throws FileStoreException
+	{
+		fs.close();
+	}
+	public String orgCode() throws FileStoreException
+	{
+		return fs.orgCode();
+	}
+	public String getPath( String objectID, String componentID, String fileID )
+		throws FileStoreException
+	{
+		return fs.getPath( objectID, componentID, fileID );
+	}
+
+	private static String key( String objectID, String componentID,
+		String fileID )
+	{
+		if ( componentID == null ) { componentID = "0"; }
+		return objectID + "/" + componentID + "/" + fileID;
+	}
+
+
+/*****************************************************************************/
+/********** Cache implementation *********************************************/
+/*****************************************************************************/
+
+	/**
+	 * Cached metadata for a file, or null metadata if the file doesn't exist.
+	**/
+	private static class Entry
+	{
+		final Map<String,String> meta;
+		final long loaded;
+		final long size;
+		Entry( String key, Map<String,String> meta )
+		{
+			this.meta = meta;
+			this.loaded = System.currentTimeMillis();
+
+			// estimate of heap use: strings, map entries and object headers
+			long chars = key.length();
+			if ( meta != null )
+			{
+				for ( Map.Entry<String,String> me : meta.entrySet() )
+				{
+					chars += me.getKey().length() + me.getValue().length();
+				}
+			}
+			int entries = (meta != null) ? meta.size() + 1 : 1;
+			this.size = chars * 2 + entries * 64 + 128;
+		}
+	}
+
+	/**
+	 * LRU map of entries, bounded by their estimated size.
+	**/
+	private static class MetaCache
+	{
+		final long maxBytes;
+		final long ttl;
+		private long bytes = 0L;
+		private AtomicLong clock = new AtomicLong();
+		private long invalidated = 0L;
+		private LinkedHashMap<String,Entry> map
+			= new LinkedHashMap<String,Entry>( 1024, 0.75f, true );
+		private AtomicLong hits = new AtomicLong();
+		private AtomicLong misses = new AtomicLong();
+		private AtomicLong evictions = new AtomicLong();
+		private AtomicLong invalidations = new AtomicLong();
+
+		MetaCache( long maxBytes, long ttl )
+		{
+			this.maxBytes = maxBytes;
+			this.ttl = ttl;
+		}
+		synchronized Entry get( String key )
+		{
+			Entry e = map.get( key );
+			if ( e != null && System.currentTimeMillis() - e.loaded > ttl )
+			{
+				map.remove( key );
+				bytes -= e.size;
+				e = null;
+			}
+			if ( e != null ) { hits.incrementAndGet(); }
+			else { misses.incrementAndGet(); }
+			return e;
+		}
+		/**
+		 * Get a stamp to pass to put() for metadata loaded after this call.
+		**/
+		long stamp()
+		{
+			return clock.incrementAndGet();
+		}
+		/**
+		 * Add an entry, unless an entry has been removed since the stamp was
+		 * taken (the metadata may have been loaded before the change).
+		**/
+		synchronized void put( String key, Entry e, long stamp )
+		{
+			if ( stamp <= invalidated ) { return; }
+			Entry old = map.put( key, e );
+			if ( old != null ) { bytes -= old.size; }
+			bytes += e.size;
+
+			// evict least recently used entries
+			Iterator<Entry> it = map.values().iterator();
+			while ( bytes > maxBytes && it.hasNext() )
+			{
+				Entry eldest = it.next();
+				it.remove();
+				bytes -= eldest.size;
+				evictions.incrementAndGet();
+			}
+		}
+		synchronized void remove( String key )
+		{
+			invalidated = clock.incrementAndGet();
+			Entry old = map.remove( key );
+			if ( old != null )
+			{
+				bytes -= old.size;
+				invalidations.incrementAndGet();
+			}
+		}
+		synchronized void clear()
+		{
+			invalidated = clock.incrementAndGet();
+			invalidations.addAndGet( map.size() );
+			map.clear();
+			bytes = 0L;
+		}
+		Map<String,String> stats()
+		{
+			Map<String,String> info = new LinkedHashMap<String,String>();
+			synchronized ( this )
+			{
+				info.put( "entries", String.valueOf(map.size()) );
+				info.put( "bytes",   String.valueOf(bytes) );
+			}
+			info.put( "maxBytes",      String.valueOf(maxBytes) );
+			info.put( "ttl",           String.valueOf(ttl) );
+			info.put( "hits",          String.valueOf(hits.get()) );
+			info.put( "misses",        String.valueOf(misses.get()) );
+			info.put( "evictions",     String.valueOf(evictions.get()) );
+			info.put( "invalidations", String.valueOf(invalidations.get()) );
+			return info;
+		}
+	}
+}
@@ -10,11 +10,14 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 
 import java.text.SimpleDateFormat;
 import javax.activation.FileDataSource;
 
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -23,12 +26,16 @@ import java.util.Properties;
 
 import org.apache.log4j.Logger;
 
+import edu.ucsd.library.dams.file.Checksum;
 import edu.ucsd.library.dams.file.FileStore;
 import edu.ucsd.library.dams.file.FileStoreException;
 import edu.ucsd.library.dams.file.FileStoreUtil;
 
 /**
- * FileStore implementation for local files (or samba, etc. mounted).
+ * FileStore implementation for local files (or samba, etc. mounted).  MD5
+ * and SHA-1 checksums are computed as files are written and kept in a
+ * checksums sidecar file next to the object manifest, so meta() can provide
+ * a strong ETag and Content-MD5/Digest values without reading the file.
  * @author escowles@ucsd.edu
 **/
 public class LocalStore implements FileStore
@@ -40,6 +47,18 @@ public class LocalStore implements FileStore
 	protected File trashDir = null;
 	protected static String orgCode = null;
 	protected static final String DATE_FORMAT = "EEE, d MMM yyyy HH:mm:ss Z";
+	protected static final String CHECKSUMS = "checksums.txt";
+
+	// serialize updates to each checksum sidecar file, striped by path so
+	// updates to different objects don't wait for each other
+	private static final Object[] sidecarLocks = new Object[64];
+	static
+	{
+		for ( int i = 0; i < sidecarLocks.length; i++ )
+		{
+			sidecarLocks[i] = new Object();
+		}
+	}
 
 
 /*****************************************************************************/
@@ -95,7 +114,7 @@ public class LocalStore implements FileStore
 			{
 				String fn = files[i];
 				if ( fn.indexOf(objectID) > -1 && !fn.endsWith("manifest.txt")
-					&& !fn.startsWith(".") )
+					&& !fn.endsWith(CHECKSUMS) && !fn.startsWith(".") )
 				{
 					// only add files that match objectID (and component ID if specified)
 					String prefix = objectID;
@@ -135,7 +154,7 @@ public class LocalStore implements FileStore
 			{
 				String fn = files[i];
 				if ( fn.indexOf(objectID) > -1 && !fn.endsWith("manifest.txt")
-					&& !fn.startsWith(".") )
+					&& !fn.endsWith(CHECKSUMS) && !fn.startsWith(".") )
 				{
 					int idx1 = fn.indexOf(objectID) + objectID.length() + 1;
 					int idx2 = fn.indexOf("-",idx1);
@@ -187,8 +206,19 @@ public class LocalStore implements FileStore
 			Date d = new Date( f.lastModified() );
 			md.put( "Last-Modified", df.format(d) );
 
-			//Etag: 10138fc0c679dd74d0ae50d7c38ebe5c
-			// XXX: we could generate this...
+			//Etag: "10138fc0c679dd74d0ae50d7c38ebe5c"
+			//Content-MD5: EBOPwMZ53XTQrlDHw46+XA==
+			//Digest: md5=EBOPwMZ53XTQrlDHw46+XA==,sha=...
+			// only if the recorded checksums are for the current file
+			String[] sums = checksums( objectID, componentID, fileID );
+			if ( sums != null && sums[0].equals(String.valueOf(f.length()))
+				&& sums[1].equals(String.valueOf(f.lastModified())) )
+			{
+				String md5 = base64( sums[2] );
+				md.put( "ETag", "\"" + sums[2] + "\"" );
+				md.put( "Content-MD5", md5 );
+				md.put( "Digest", "md5=" + md5 + ",sha=" + base64(sums[3]) );
+			}
 
 			//Accept-Ranges: bytes
 			// XXX: not useful
@@ -231,16 +261,24 @@ public class LocalStore implements FileStore
 	{
 		try
 		{
-			BufferedInputStream in = new BufferedInputStream(
-				new FileInputStream(f)
-			);
-			FileStoreUtil.copy( in, out );
+			FileStoreUtil.copy( f, out, 0L, f.length() );
+			out.close();
 		}
 		catch ( IOException ex )
 		{
 			throw new FileStoreException(ex);
 		}
 	}
+	public void read( String objectID, String componentID, String fileID,
+		OutputStream out, long offset, long length ) throws FileStoreException
+	{
+		File f = getFile(objectID, componentID, fileID);
+		FileStoreUtil.copy( f, out, offset, length );
+	}
+	public File localFile( String objectID, String componentID, String fileID )
+	{
+		return getFile(objectID, componentID, fileID);
+	}
 	public InputStream getInputStream( String objectID, String componentID, String fileID )
 		throws FileStoreException
 	{
@@ -258,15 +296,16 @@ public class LocalStore implements FileStore
 	public void write( String objectID, String componentID, String fileID, byte[] data )
 		throws FileStoreException
 	{
-		File f = getFile(objectID, componentID, fileID);
-		ByteArrayInputStream bin = new ByteArrayInputStream(data);
-		write(f, bin);
+		write( objectID, componentID, fileID, new ByteArrayInputStream(data) );
 	}
 	public void write( String objectID, String componentID, String fileID, InputStream in )
 		throws FileStoreException
 	{
 		File f = getFile(objectID, componentID, fileID);
-		write(f, in);
+		Map<String,String> sums = write(f, in);
+		setChecksums( objectID, componentID, fileID,
+			f.length() + " " + f.lastModified() + " " + sums.get("md5")
+				+ " " + sums.get("sha1") );
 	}
 	public void writeManifest( String objectID, byte[] data )
 		throws FileStoreException
@@ -275,7 +314,8 @@ public class LocalStore implements FileStore
 		ByteArrayInputStream bin = new ByteArrayInputStream(data);
 		write(f, bin);
 	}
-	private void write( File f, InputStream in ) throws FileStoreException
+	private Map<String,String> write( File f, InputStream in )
+		throws FileStoreException
 	{
 		try
 		{
@@ -291,9 +331,9 @@ public class LocalStore implements FileStore
 			BufferedOutputStream out = new BufferedOutputStream(
 				new FileOutputStream(f)
 			);
-			FileStoreUtil.copy( in, out );
-			out.flush();
-			out.close();
+
+			// checksum while copying, closes both streams
+			return Checksum.checksums( in, out, false, true, true, false, false );
 		}
 		catch ( IOException ex )
 		{
@@ -323,6 +363,10 @@ public class LocalStore implements FileStore
 			File parent = trashFile.getParentFile();
 			if ( !parent.exists() ) { parent.mkdirs(); }
 			success = file.renameTo( trashFile );
+			if ( success )
+			{
+				setChecksums( objectID, componentID, fileID, null );
+			}
 		}
 		catch ( Exception ex )
 		{
@@ -359,6 +403,116 @@ public class LocalStore implements FileStore
 		return getFile( objectID, null, "manifest.txt" );
 	}
 
+	/**
+	 * Get the recorded checksums for a file.
+	 * @return Array of length, last modified time, MD5 and SHA-1, or null if
+	 *   the file has no recorded checksums.
+	**/
+	private String[] checksums( String objectID, String componentID,
+		String fileID ) throws FileStoreException
+	{
+		String sums = readSidecar(objectID).getProperty(
+			sidecarKey(componentID, fileID)
+		);
+		if ( sums == null ) { return null; }
+		String[] parts = sums.split(" ");
+		return ( parts.length == 4 ) ? parts : null;
+	}
+
+	/**
+	 * Update the checksums for a file in the object sidecar.
+	 * @param sums Checksum line, or null to remove the file's checksums.
+	**/
+	private void setChecksums( String objectID, String componentID,
+		String fileID, String sums ) throws FileStoreException
+	{
+		File f = getFile( objectID, null, CHECKSUMS );
+		synchronized ( sidecarLock(f) )
+		{
+			Properties props = readSidecar( objectID );
+			String key = sidecarKey( componentID, fileID );
+			if ( sums != null ) { props.setProperty( key, sums ); }
+			else if ( props.remove(key) == null ) { return; }
+
+			// write to a temp file and rename so readers never see a partial
+			// sidecar
+			File tmp = new File( f.getParentFile(), "." + f.getName() );
+			try
+			{
+				OutputStreamWriter out = new OutputStreamWriter(
+					new FileOutputStream(tmp), "UTF-8"
+				);
+				try
+				{
+					props.store( out, "length lastModified md5 sha1" );
+				}
+				finally
+				{
+					out.close();
+				}
+				if ( !tmp.renameTo(f) )
+				{
+					throw new FileStoreException(
+						"Couldn't update checksums: " + f.getAbsolutePath()
+					);
+				}
+			}
+			catch ( IOException ex )
+			{
+				throw new FileStoreException(ex);
+			}
+		}
+	}
+	private static Object sidecarLock( File f )
+	{
+		int h = f.getAbsolutePath().hashCode();
+		h ^= (h >>> 16);
+		return sidecarLocks[ (h & 0x7fffffff) % sidecarLocks.length ];
+	}
+	private Properties readSidecar( String objectID ) throws FileStoreException
+	{
+		Properties props = new Properties();
+		File f = getFile( objectID, null, CHECKSUMS );
+		if ( f.exists() )
+		{
+			try
+			{
+				InputStreamReader in = new InputStreamReader(
+					new FileInputStream(f), "UTF-8"
+				);
+				try
+				{
+					props.load( in );
+				}
+				finally
+				{
+					in.close();
+				}
+			}
+			catch ( IOException ex )
+			{
+				throw new FileStoreException(ex);
+			}
+		}
+		return props;
+	}
+	private static String sidecarKey( String componentID, String fileID )
+	{
+		if ( componentID == null ) { componentID = "0"; }
+		return componentID + "-" + fileID;
+	}
+
+	/* convert a hex checksum to base64 */
+	private static String base64( String hex )
+	{
+		byte[] bytes = new byte[hex.length() / 2];
+		for ( int i = 0; i < bytes.length; i++ )
+		{
+			bytes[i] = (byte)Integer.parseInt( hex.substring(i*2, i*2+2), 16 );
+		}
+		return Base64.getEncoder().encodeToString( bytes );
+	}
+
 	/**
 	 * Construct a file object based on the object and file ids.
 	 * @param objectID The object identifier.
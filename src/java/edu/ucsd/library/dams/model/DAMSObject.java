@@ -9,6 +9,14 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -66,6 +74,22 @@ public class DAMSObject
 	private List<Identifier> collectionMemberPredicates = null;
 	private Resource rootType = null;
 
+	// recursion limits and concurrent retrieval
+	private int maxDepth = 10;
+	private int maxStatements = 0;
+	private boolean concurrent = false;
+	private static ThreadPoolExecutor eventFetchers = new ThreadPoolExecutor(
+		0, 16, 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+		new ThreadFactory() {
+			public Thread newThread( Runnable r )
+			{
+				Thread t = new Thread( r, "event-describe" );
+				t.setDaemon( true );
+				return t;
+			}
+		}
+	);
+
 
 	/**
 	 * Main constructor.
@@ -111,6 +135,39 @@ public class DAMSObject
 		);
 	}
 
+	/**
+	 * Retrieve records from the event triplestore at the same time as the
+	 * main triplestore, instead of waiting for each query in turn.  The
+	 * event triplestore must be a separate instance from the main
+	 * triplestore, since they are used from different threads.
+	**/
+	public void setConcurrent( boolean concurrent )
+	{
+		this.concurrent = concurrent;
+	}
+
+	/**
+	 * Set the maximum number of threads retrieving event records
+	 * concurrently.  When they are all busy, events are retrieved in the
+	 * calling thread after the main triplestore.
+	**/
+	public static void setMaxFetchers( int maxThreads )
+	{
+		eventFetchers.setMaximumPoolSize( Math.max(maxThreads, 1) );
+	}
+
+	/**
+	 * Limit the linked records retrieved recursively.
+	 * @param maxDepth Maximum number of levels of links to follow.
+	 * @param maxStatements Stop following links once this many statements
+	 *   have been retrieved (0 = no limit).
+	**/
+	public void setBudget( int maxDepth, int maxStatements )
+	{
+		this.maxDepth = maxDepth;
+		this.maxStatements = maxStatements;
+	}
+
 	// recursive describe
 	List<Statement> slist = new ArrayList<Statement>();
 	Set<String> done	 = new HashSet<String>();
@@ -189,6 +246,10 @@ public class DAMSObject
 		{
 			return ts.sparqlDescribe( id );
 		}
+		else if ( concurrent && es != null && es != ts )
+		{
+			return getStatementsConcurrent();
+		}
 
 		// initial describe
 		StatementIterator it = ts.sparqlDescribe( id );
@@ -208,8 +269,7 @@ public class DAMSObject
 		}
 
 		// recurse over children until no new identifiers are found
-		int MAX_RECURSION = 10;
-		for ( int i = 0; i < MAX_RECURSION && todo.size() > 0; i++ )
+		for ( int i = 0; i < maxDepth && todo.size() > 0 && !overBudget(); i++ )
 		{
 			// describe all objects in the todo set
 			StatementIterator it2 = ts.sparqlDescribe(todo);
@@ -253,6 +313,174 @@ public class DAMSObject
 
 		return new StatementListIterator( slist );
 	}
+	/**
+	 * Retrieve linked records level by level.  Events and event-store records
+	 * found at one level are described while the main triplestore describes
+	 * the next level, and each identifier is only requested once.
+	**/
+	private StatementIterator getStatementsConcurrent()
+		throws TripleStoreException
+	{
+		Set<Identifier> level = new HashSet<Identifier>();
+		level.add( id );
+		done.add( id.getId() );
+		Set<Identifier> eventLevel = new HashSet<Identifier>();
+		Set<String> eventsDone = new HashSet<String>();
+		for ( int depth = 0; level.size() > 0 || eventLevel.size() > 0; depth++ )
+		{
+			// start describing events found in the last level
+			Future<List<Statement>> eventStmts = null;
+			List<Statement> stmts = new ArrayList<Statement>();
+			List<Statement> evStmts = new ArrayList<Statement>();
+			try
+			{
+				if ( eventLevel.size() > 0 )
+				{
+					try
+					{
+						eventStmts = eventFetchers.submit(
+							describe(es, eventLevel)
+						);
+					}
+					catch ( RejectedExecutionException ex )
+					{
+						log.debug( "Event fetchers busy, describing events in request" );
+					}
+				}
+
+				// describe this level in the main triplestore
+				if ( level.size() > 0 )
+				{
+					stmts = describe( ts, level ).call();
+				}
+				if ( eventStmts != null )
+				{
+					try
+					{
+						evStmts = eventStmts.get();
+					}
+					catch ( ExecutionException ex )
+					{
+						throw new TripleStoreException( ex.getCause() );
+					}
+					catch ( InterruptedException ex )
+					{
+						Thread.currentThread().interrupt();
+						throw new TripleStoreException( ex );
+					}
+				}
+				else if ( eventLevel.size() > 0 )
+				{
+					evStmts = describe( es, eventLevel ).call();
+				}
+			}
+			finally
+			{
+				// the caller releases es when this returns, so the event
+				// describe must not still be using it
+				if ( eventStmts != null ) { await( eventStmts ); }
+			}
+
+			// find links from the statements retrieved
+			todo.clear();
+			events.clear();
+			process( new StatementListIterator(stmts) );
+			process( new StatementListIterator(evStmts) );
+
+			// records linked from this level, described in the main
+			// triplestore in the next level and the event triplestore with
+			// the events found in this level
+			eventLevel = new HashSet<Identifier>();
+			if ( depth > 0 ) { eventLevel.addAll( level ); }
+			level = new HashSet<Identifier>();
+			if ( depth < maxDepth && !overBudget() )
+			{
+				for ( Identifier linked : todo )
+				{
+					if ( done.add(linked.getId()) ) { level.add( linked ); }
+				}
+			}
+			else if ( todo.size() > 0 )
+			{
+				log.debug( "unprocessed links: " + todo );
+			}
+			for ( Identifier event : events )
+			{
+				if ( eventsDone.add(event.getId()) ) { eventLevel.add( event ); }
+			}
+		}
+		return new StatementListIterator( slist );
+	}
+	/**
+	 * Wait for a background describe to finish, even if interrupted.  Its
+	 * results and errors are ignored: they were either already read or
+	 * the describe is being abandoned.
+	**/
+	private static void await( Future<?> f )
+	{
+		boolean interrupted = false;
+		while ( true )
+		{
+			try
+			{
+				f.get();
+				break;
+			}
+			catch ( InterruptedException ex )
+			{
+				interrupted = true;
+			}
+			catch ( Exception ex )
+			{
+				break;
+			}
+		}
+		if ( interrupted ) { Thread.currentThread().interrupt(); }
+	}
+	private static Describe describe( TripleStore store, Set<Identifier> ids )
+	{
+		return new Describe( store, ids );
+	}
+	/**
+	 * Describe a set of identifiers, reading all statements so the results
+	 * can be passed between threads.
+	**/
+	private static class Describe implements Callable<List<Statement>>
+	{
+		private TripleStore store;
+		private Set<Identifier> ids;
+		Describe( TripleStore store, Set<Identifier> ids )
+		{
+			this.store = store;
+			this.ids = ids;
+		}
+		public List<Statement> call() throws TripleStoreException
+		{
+			List<Statement> stmts = new ArrayList<Statement>();
+			StatementIterator it = store.sparqlDescribe( ids );
+			try
+			{
+				while ( it.hasNext() ) { stmts.add( it.nextStatement() ); }
+			}
+			finally
+			{
+				it.close();
+			}
+			return stmts;
+		}
+	}
+	private boolean overBudget()
+	{
+		if ( maxStatements > 0 && slist.size() >= maxStatements )
+		{
+			log.warn(
+				"Statement budget exceeded for " + id + ": " + slist.size()
+			);
+			return true;
+		}
+		return false;
+	}
+
 	/**
 	 * process all statements in an iterator, adding them to the slist, and
 	 * checking for any object URIs that are not in the done set and adding
@@ -506,6 +734,14 @@ public class DAMSObject
 			List<Identifier> linkedCols = new ArrayList<Identifier>();
 			linkedCollections( id, linkedCols );
 
+			// count members using the membership index if available
+			Set<Identifier> cols = new HashSet<Identifier>( linkedCols );
+			cols.add( id );
+			records = ts.countMembers(
+				cols, new HashSet<Identifier>(collectionMemberPredicates)
+			);
+			if ( records >= 0L ) { return records; }
+
 			Set<Identifier> allMembers = new HashSet<Identifier>();
 			allMembers.addAll(  memberObjects( id ) );
 			for ( int i = 0; i < linkedCols.size(); i++ )
@@ -5,6 +5,7 @@ import java.util.TimeZone;
 import java.text.SimpleDateFormat;
 
 import edu.ucsd.library.dams.triple.Identifier;
+import edu.ucsd.library.dams.triple.StatementIterator;
 import edu.ucsd.library.dams.triple.TripleStore;
 import edu.ucsd.library.dams.triple.TripleStoreException;
 
@@ -62,13 +63,72 @@ public class Event
 		fmt = new SimpleDateFormat( "yyyy-MM-dd'T'hh:mm:ssZ" );
 	    fmt.setTimeZone( TimeZone.getTimeZone("UTC") );
 	}
+	public Identifier getEventID() { return eventID; }
+	public Identifier getParent() { return parent; }
+	public String toString()
+	{
+		return eventID + " " + type + " " + (success ? "success" : "failure")
+			+ " " + subject + " " + fmt.format(eventDate);
+	}
+
+	/**
+	 * Save the event.
+	 * @param ts Triplestore to link the subject to the event in, or null to
+	 *   save the event without linking it.
+	 * @param es Triplestore to save the event metadata in.
+	**/
 	public void save( TripleStore ts, TripleStore es )
 		throws TripleStoreException
 	{
 		// link subject to event
-		ts.addStatement( subject, id("dams:event"), eventID, parent );
+		if ( ts != null )
+		{
+			saveLink( ts );
+		}
 
 		// insert event metadata
+		saveMetadata( es );
+	}
+
+	/**
+	 * Link the subject to the event.
+	**/
+	public void saveLink( TripleStore ts ) throws TripleStoreException
+	{
+		ts.addStatement( subject, id("dams:event"), eventID, parent );
+	}
+
+	/**
+	 * Check whether the subject has been linked to the event.
+	**/
+	public boolean isLinked( TripleStore ts ) throws TripleStoreException
+	{
+		StatementIterator it = ts.listStatements(
+			subject, id("dams:event"), eventID
+		);
+		try
+		{
+			return it.hasNext();
+		}
+		finally
+		{
+			it.close();
+		}
+	}
+
+	/**
+	 * Check whether the event metadata has been saved.
+	**/
+	public boolean isSaved( TripleStore es ) throws TripleStoreException
+	{
+		return es.exists( eventID );
+	}
+
+	/**
+	 * Save the event metadata.
+	**/
+	public void saveMetadata( TripleStore es ) throws TripleStoreException
+	{
 		es.addStatement( eventID, id("rdf:type"), id("dams:DAMSEvent"), eventID );
 		es.addLiteralStatement( eventID, id("dams:type"), q(type), eventID );
 		es.addLiteralStatement(
@@ -0,0 +1,529 @@
+package edu.ucsd.library.dams.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.apache.log4j.Logger;
+
+import edu.ucsd.library.dams.triple.Identifier;
+import edu.ucsd.library.dams.triple.TripleStore;
+import edu.ucsd.library.dams.triple.TripleStorePool;
+
+/**
+ * Bounded queue of events saved by a background thread, so requests don't
+ * wait for events to be written.  Events are written in batches, with one
+ * transaction per batch in each triplestore.  When the queue is full, offer()
+ * returns false and the caller should save the event itself.  Events that
+ * can't be written are retried with an increasing delay, skipping any part
+ * of the event already saved, and are logged with their full details if
+ * they still can't be written.  Callers that need an object's events saved
+ * before reading it can flush the object's events.
+ * @author escowles@ucsd.edu
+**/
+public class EventQueue
+{
+	private static Logger log = Logger.getLogger( EventQueue.class );
+
+	// attempts to write each event, and delay before the first retry
+	private static final int MAX_ATTEMPTS = 10;
+	private static final long RETRY_DELAY = 1000L;
+	private static final long MAX_RETRY_DELAY = 60000L;
+
+	/**
+	 * Notified after each batch of events is written.
+	**/
+	public interface Listener
+	{
+		/**
+		 * Events have been written for a set of objects.
+		 * @param objids Identifiers of the objects, as passed to offer(), for
+		 *   events that requested it.
+		 * @param ts Triplestore the events were linked from.
+		 * @param es Triplestore the events were written to.
+		**/
+		public void eventsWritten( Set<String> objids, TripleStore ts,
+			TripleStore es );
+	}
+
+	private Properties props = null;
+	private int capacity = 0;
+	private int batchSize = 0;
+	private Listener listener = null;
+	private BlockingQueue<Pending> queue = null;
+	private LinkedList<Pending> retries = new LinkedList<Pending>();
+	private Map<String,Integer> writing = new HashMap<String,Integer>();
+	private Thread writer = null;
+	private volatile boolean running = true;
+
+	// metrics
+	private long queued = 0L;
+	private long rejected = 0L;
+	private long written = 0L;
+	private long retried = 0L;
+	private long failed = 0L;
+	private long batches = 0L;
+	private long lag = 0L;
+	private long maxLag = 0L;
+
+	/**
+	 * Create a queue and start its writer thread.
+	 * @param props Properties used to lease triplestores.
+	 * @param capacity Maximum number of events waiting to be written.
+	 * @param batchSize Maximum number of events written in one transaction.
+	 * @param listener Notified after each batch is written (may be null).
+	**/
+	public EventQueue( Properties props, int capacity, int batchSize,
+		Listener listener )
+	{
+		this.props = props;
+		this.capacity = capacity;
+		this.batchSize = Math.max( batchSize, 1 );
+		this.listener = listener;
+		queue = new ArrayBlockingQueue<Pending>( capacity );
+		writer = new Thread( new Runnable() {
+			public void run() { drain(); }
+		}, "event-writer" );
+		writer.setDaemon( true );
+		writer.start();
+	}
+
+	/**
+	 * Queue an event to be written by the background thread.
+	 * @param event The event.
+	 * @param objid Object identifier passed to the listener, or null.
+	 * @param tsName Triplestore to link the event from, named as it is
+	 *   leased (the [name] in "ts.[name].").
+	 * @param esName Triplestore to write the event to, named as it is
+	 *   leased.
+	 * @return True if the event was queued, false if the queue is full or
+	 *   closed.
+	**/
+	public boolean offer( Event event, String objid, String tsName,
+		String esName )
+	{
+		Pending p = new Pending( event, objid, tsName, esName );
+		boolean added = running && queue.offer( p );
+		synchronized ( this )
+		{
+			if ( added ) { queued++; }
+			else { rejected++; }
+			notifyAll();
+		}
+		return added;
+	}
+
+	/**
+	 * Write the queued events for an object in the calling thread, and wait
+	 * for any being written by the writer thread, so the object can be read
+	 * with its events.
+	 * @param objid Object identifier, as passed to offer().
+	 * @param timeout Maximum milliseconds to wait for the writer thread.
+	**/
+	public void flush( String objid, long timeout )
+	{
+		List<Pending> mine = new ArrayList<Pending>();
+		synchronized ( this )
+		{
+			for ( Iterator<Pending> it = queue.iterator(); it.hasNext(); )
+			{
+				Pending p = it.next();
+				if ( objid.equals(p.objid) )
+				{
+					mine.add( p );
+					it.remove();
+				}
+			}
+			for ( Iterator<Pending> it = retries.iterator(); it.hasNext(); )
+			{
+				Pending p = it.next();
+				if ( objid.equals(p.objid) )
+				{
+					mine.add( p );
+					it.remove();
+				}
+			}
+		}
+		if ( mine.size() > 0 )
+		{
+			write( mine );
+		}
+
+		// events already taken by the writer thread
+		long end = System.currentTimeMillis() + timeout;
+		synchronized ( this )
+		{
+			try
+			{
+				for ( long wait = timeout; writing.containsKey(objid)
+					&& wait > 0; wait = end - System.currentTimeMillis() )
+				{
+					wait( wait );
+				}
+			}
+			catch ( InterruptedException ex )
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Stop accepting events and wait for the queued events to be written.
+	 * Events the writer thread doesn't finish before the timeout are
+	 * written by the calling thread.
+	 * @param timeout Maximum milliseconds to wait for the writer thread.
+	**/
+	public void close( long timeout )
+	{
+		running = false;
+		synchronized ( this )
+		{
+			notifyAll();
+		}
+		try
+		{
+			writer.join( timeout );
+			if ( writer.isAlive() )
+			{
+				log.warn( "Event writer still running, interrupting" );
+				writer.interrupt();
+				writer.join( timeout );
+			}
+		}
+		catch ( InterruptedException ex )
+		{
+			Thread.currentThread().interrupt();
+		}
+
+		// write anything left, without retrying
+		List<Pending> left = new ArrayList<Pending>();
+		synchronized ( this )
+		{
+			left.addAll( retries );
+			retries.clear();
+		}
+		queue.drainTo( left );
+		if ( left.size() > 0 )
+		{
+			log.warn( "Writing events left in queue: " + left.size() );
+			write( left );
+		}
+	}
+
+	/**
+	 * Get the queue depth, the age of the oldest queued event, the number of
+	 * events queued, rejected, written, retried and failed, and the time
+	 * between queueing and writing events (in milliseconds).
+	**/
+	public synchronized Map<String,String> stats()
+	{
+		Pending head = queue.peek();
+		long oldest = (head == null) ? 0L
+			: System.currentTimeMillis() - head.time;
+		Map<String,String> info = new LinkedHashMap<String,String>();
+		info.put( "capacity", String.valueOf(capacity) );
+		info.put( "depth",    String.valueOf(queue.size()) );
+		info.put( "retrying", String.valueOf(retries.size()) );
+		info.put( "oldest",   String.valueOf(oldest) );
+		info.put( "queued",   String.valueOf(queued) );
+		info.put( "rejected", String.valueOf(rejected) );
+		info.put( "written",  String.valueOf(written) );
+		info.put( "retried",  String.valueOf(retried) );
+		info.put( "failed",   String.valueOf(failed) );
+		info.put( "batches",  String.valueOf(batches) );
+		info.put( "lag",      String.valueOf(lag) );
+		info.put( "maxLag",   String.valueOf(maxLag) );
+		return info;
+	}
+
+	/**
+	 * Write events until the queue is closed and empty.
+	**/
+	private void drain()
+	{
+		while ( running || queue.size() > 0 )
+		{
+			try
+			{
+				List<Pending> batch = take();
+				if ( batch.size() == 0 ) { continue; }
+				try
+				{
+					write( batch );
+				}
+				finally
+				{
+					finished( batch );
+				}
+			}
+			catch ( InterruptedException ex )
+			{
+				log.warn( "Event writer interrupted" );
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Take the retries that are due, then new events, waiting up to a second
+	 * for events.  The objects are recorded as being written before the lock
+	 * is released, so flush() waits for events the writer thread has taken.
+	**/
+	private synchronized List<Pending> take() throws InterruptedException
+	{
+		List<Pending> batch = new ArrayList<Pending>();
+		long now = System.currentTimeMillis();
+		for ( Iterator<Pending> it = retries.iterator();
+			it.hasNext() && batch.size() < batchSize; )
+		{
+			Pending p = it.next();
+			if ( p.due <= now )
+			{
+				batch.add( p );
+				it.remove();
+			}
+		}
+		if ( batch.size() == 0 && queue.size() == 0 && running )
+		{
+			wait( 1000L );
+		}
+		queue.drainTo( batch, batchSize - batch.size() );
+		started( batch );
+		return batch;
+	}
+	/**
+	 * Record the objects with events being written by the writer thread.
+	**/
+	private void started( List<Pending> batch )
+	{
+		for ( int i = 0; i < batch.size(); i++ )
+		{
+			String objid = batch.get(i).objid;
+			if ( objid == null ) { continue; }
+			Integer count = writing.get( objid );
+			writing.put( objid, (count == null) ? 1 : count + 1 );
+		}
+	}
+	private synchronized void finished( List<Pending> batch )
+	{
+		for ( int i = 0; i < batch.size(); i++ )
+		{
+			String objid = batch.get(i).objid;
+			if ( objid == null ) { continue; }
+			Integer count = writing.get( objid );
+			if ( count == null || count <= 1 ) { writing.remove( objid ); }
+			else { writing.put( objid, count - 1 ); }
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Write a batch of events, grouped by triplestore.
+	**/
+	private void write( List<Pending> batch )
+	{
+		Map<String,List<Pending>> groups
+			= new LinkedHashMap<String,List<Pending>>();
+		for ( int i = 0; i < batch.size(); i++ )
+		{
+			Pending p = batch.get(i);
+			String key = p.tsName + " " + p.esName;
+			List<Pending> group = groups.get( key );
+			if ( group == null )
+			{
+				group = new ArrayList<Pending>();
+				groups.put( key, group );
+			}
+			group.add( p );
+		}
+		for ( List<Pending> group : groups.values() )
+		{
+			try
+			{
+				writeGroup( group );
+			}
+			catch ( Exception ex )
+			{
+				// unable to lease the triplestores, retry the whole group
+				log.error( "Error writing events", ex );
+				for ( int i = 0; i < group.size(); i++ )
+				{
+					failed( group.get(i), ex );
+				}
+			}
+		}
+	}
+
+	/**
+	 * Write a batch of events for one pair of triplestores.
+	**/
+	private void writeGroup( List<Pending> batch ) throws Exception
+	{
+		String tsName = batch.get(0).tsName;
+		String esName = batch.get(0).esName;
+		TripleStore ts = null;
+		TripleStore es = null;
+		try
+		{
+			ts = TripleStorePool.lease( props, tsName );
+			es = esName.equals(tsName) ? ts
+				: TripleStorePool.lease( props, esName );
+
+			// objects deleted since the event was queued aren't linked, so
+			// the link doesn't recreate them
+			Map<Identifier,Boolean> exists = new HashMap<Identifier,Boolean>();
+			Set<String> objids = new LinkedHashSet<String>();
+			int saved = 0;
+			ts.startTransaction();
+			es.startTransaction();
+			try
+			{
+				for ( int i = 0; i < batch.size(); i++ )
+				{
+					Pending p = batch.get(i);
+					save( p, ts, es, exists, objids, p.attempts > 0 );
+					saved++;
+				}
+				es.commit();
+				ts.commit();
+			}
+			catch ( Exception ex )
+			{
+				// write the events one at a time, so one bad event doesn't
+				// lose the whole batch.  the event triplestore may have been
+				// committed, so skip anything already saved
+				log.warn( "Error writing event batch, retrying separately", ex );
+				es.rollback();
+				ts.rollback();
+				exists.clear();
+				objids.clear();
+				saved = 0;
+				for ( int i = 0; i < batch.size(); i++ )
+				{
+					ts.startTransaction();
+					es.startTransaction();
+					try
+					{
+						save( batch.get(i), ts, es, exists, objids, true );
+						es.commit();
+						ts.commit();
+						saved++;
+					}
+					catch ( Exception ex2 )
+					{
+						es.rollback();
+						ts.rollback();
+						exists.clear();
+						failed( batch.get(i), ex2 );
+					}
+				}
+			}
+
+			long now = System.currentTimeMillis();
+			synchronized ( this )
+			{
+				batches++;
+				written += saved;
+				lag = now - batch.get(0).time;
+				maxLag = Math.max( maxLag, lag );
+			}
+
+			if ( listener != null && objids.size() > 0 )
+			{
+				listener.eventsWritten( objids, ts, es );
+			}
+		}
+		finally
+		{
+			if ( es != null && es != ts ) { TripleStorePool.release( es ); }
+			if ( ts != null ) { TripleStorePool.release( ts ); }
+		}
+	}
+
+	/**
+	 * Save an event.
+	 * @param check If true, skip the link and metadata if already saved.
+	**/
+	private static void save( Pending p, TripleStore ts, TripleStore es,
+		Map<Identifier,Boolean> exists, Set<String> objids, boolean check )
+		throws Exception
+	{
+		Identifier parent = p.event.getParent();
+		Boolean found = exists.get( parent );
+		if ( found == null )
+		{
+			found = ts.exists( parent );
+			exists.put( parent, found );
+		}
+		if ( !found )
+		{
+			log.debug( "Not linking event for deleted object: " + parent );
+		}
+		else if ( !check || !p.event.isLinked(ts) )
+		{
+			p.event.saveLink( ts );
+		}
+		if ( !check || !p.event.isSaved(es) )
+		{
+			p.event.saveMetadata( es );
+		}
+		if ( found && p.objid != null ) { objids.add( p.objid ); }
+	}
+
+	/**
+	 * Schedule a failed event to be retried, or log it if it has been
+	 * attempted too many times or the queue is closed.
+	**/
+	private synchronized void failed( Pending p, Exception ex )
+	{
+		p.attempts++;
+		if ( running && p.attempts < MAX_ATTEMPTS )
+		{
+			long wait = Math.min(
+				RETRY_DELAY << Math.min(p.attempts - 1, 16), MAX_RETRY_DELAY
+			);
+			p.due = System.currentTimeMillis() + wait;
+			retries.add( p );
+			retried++;
+		}
+		else
+		{
+			failed++;
+			log.error( "Unable to write event after " + p.attempts
+				+ " attempts: " + p.event + " (ts: " + p.tsName + ", es: "
+				+ p.esName + ")", ex );
+		}
+	}
+
+	/**
+	 * Event waiting to be written.
+	**/
+	private static class Pending
+	{
+		final Event event;
+		final String objid;
+		final String tsName;
+		final String esName;
+		final long time;
+		int attempts = 0;
+		long due = 0L;
+		Pending( Event event, String objid, String tsName, String esName )
+		{
+			this.event = event;
+			this.objid = objid;
+			this.tsName = tsName;
+			this.esName = esName;
+			this.time = System.currentTimeMillis();
+		}
+	}
+}
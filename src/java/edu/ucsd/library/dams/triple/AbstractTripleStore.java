@@ -111,6 +111,15 @@ public abstract class AbstractTripleStore implements TripleStore
 		return count;
 	}
 	
+	public StatementIterator listChildStatements( Identifier object,
+		java.util.Set<Identifier> predicates ) throws TripleStoreException { throw new TripleStoreException("Not implemented"); }
+	public long countMembers( java.util.Set<Identifier> collections,
+		java.util.Set<Identifier> predicates ) throws TripleStoreException
+	{
+		return -1L;
+	}
+	public long rebuildMembers() throws TripleStoreException { throw new TripleStoreException("Not implemented"); }
+
 	public void init() throws TripleStoreException { }
 	public void optimize() throws TripleStoreException { }
 }
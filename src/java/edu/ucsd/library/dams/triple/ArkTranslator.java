@@ -2,30 +2,45 @@ package edu.ucsd.library.dams.triple;
 
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
- * Utility to translate between URIs and ARKs assigned to them.
+ * Utility to translate between URIs and ARKs assigned to them.  The
+ * translation maps are loaded once per triplestore name and shared by all
+ * instances, and are reloaded when predicate records change.
  * @author escowles@ucsd.edu
 **/
 public class ArkTranslator
 {
+	// shared translation maps, keyed by triplestore name
+	private static ConcurrentHashMap<String,PredicateMaps> cache
+		= new ConcurrentHashMap<String,PredicateMaps>();
+	private static ConcurrentHashMap<String,AtomicLong> versions
+		= new ConcurrentHashMap<String,AtomicLong>();
+	private static ConcurrentHashMap<String,ReentrantLock> locks
+		= new ConcurrentHashMap<String,ReentrantLock>();
+	private static final PredicateMaps EMPTY = new PredicateMaps(
+		new HashMap<String,String>(), new HashMap<String,String>(),
+		new HashMap<String,String>(), 0L
+	);
+
 	private TripleStore ts = null;
 	private String idNS;
 	private String owlSameAs;
 	private String rdfLabel;
 	private Map<String,String> nsmap = null;
-
-	private Map<String,String> uriToArkMap = null;
-	private Map<String,String> lblToArkMap = null;
-	private Map<String,String> arkToUriMap = null;
+	private boolean loading = false;
 
 	private static Pattern lblPattern = Pattern.compile("<(\\w+:\\w+)>");
 	private static Pattern uriPattern = Pattern.compile("<(.+?)>");
@@ -49,17 +64,139 @@ public class ArkTranslator
 	//public String getIdentifierNamespace() { return idNS; }
 	public Map<String,String> predicateMap() throws TripleStoreException
 	{
-		loadMap();
-		return arkToUriMap;
+		return loadMap().arkToUri;
+	}
+
+	/**
+	 * Test whether a predicate is used to define predicate translations, so
+	 * adding or removing statements with it requires the shared maps to be
+	 * reloaded.
+	**/
+	public boolean isTranslationPredicate( Identifier pre )
+	{
+		return pre != null && ( pre.getId().equals(owlSameAs)
+			|| pre.getId().equals(rdfLabel) );
+	}
+
+	/**
+	 * Get the URIs of the predicates used to define predicate translations.
+	**/
+	public List<String> translationPredicates()
+	{
+		List<String> pres = new ArrayList<String>();
+		if ( owlSameAs != null ) { pres.add( owlSameAs ); }
+		if ( rdfLabel != null ) { pres.add( rdfLabel ); }
+		return pres;
+	}
+
+	/**
+	 * Mark the shared maps for this triplestore as stale, so they are
+	 * reloaded on next use.
+	**/
+	public void invalidate()
+	{
+		invalidate( ts.name() );
+	}
+
+	/**
+	 * Mark the shared maps for a triplestore as stale, so they are reloaded
+	 * on next use.
+	 * @param tsName Name of the triplestore.
+	**/
+	public static void invalidate( String tsName )
+	{
+		version( tsName ).incrementAndGet();
+	}
+
+	/**
+	 * Reload the shared maps for this triplestore now.
+	**/
+	public Map<String,String> reload() throws TripleStoreException
+	{
+		invalidate();
+		return predicateMap();
+	}
+
+	/**
+	 * Get the version of the shared maps currently in use for a triplestore,
+	 * or -1 if they have not been loaded.
+	**/
+	public static long loadedVersion( String tsName )
+	{
+		PredicateMaps maps = cache.get( tsName );
+		return (maps != null) ? maps.version : -1L;
+	}
+
+	private static AtomicLong version( String tsName )
+	{
+		AtomicLong v = versions.get( tsName );
+		if ( v == null )
+		{
+			versions.putIfAbsent( tsName, new AtomicLong() );
+			v = versions.get( tsName );
+		}
+		return v;
 	}
 
-	private void loadMap() throws TripleStoreException
+	/**
+	 * Get the current maps for this triplestore, loading them if they have
+	 * not been loaded or have been invalidated.  Only one thread reloads the
+	 * maps, other threads keep using the previous version until the new maps
+	 * are swapped in.
+	**/
+	private PredicateMaps loadMap() throws TripleStoreException
 	{
-		if ( uriToArkMap == null && arkToUriMap == null && lblToArkMap == null )
+		// queries run while loading are translated with empty maps
+		if ( loading ) { return EMPTY; }
+
+		String tsName = ts.name();
+		long wanted = version( tsName ).get();
+		PredicateMaps maps = cache.get( tsName );
+		if ( maps != null && maps.version >= wanted )
+		{
+			return maps;
+		}
+
+		ReentrantLock lock = locks.get( tsName );
+		if ( lock == null )
+		{
+			locks.putIfAbsent( tsName, new ReentrantLock() );
+			lock = locks.get( tsName );
+		}
+
+		if ( maps != null )
+		{
+			// stale maps are still usable if another thread is reloading
+			if ( !lock.tryLock() ) { return maps; }
+		}
+		else
+		{
+			lock.lock();
+		}
+		try
+		{
+			wanted = version( tsName ).get();
+			maps = cache.get( tsName );
+			if ( maps == null || maps.version < wanted )
+			{
+				maps = buildMap( wanted );
+				cache.put( tsName, maps );
+			}
+			return maps;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	private PredicateMaps buildMap( long version ) throws TripleStoreException
+	{
+		Map<String,String> uriToArkMap = new HashMap<String,String>();
+		Map<String,String> lblToArkMap = new HashMap<String,String>();
+		Map<String,String> arkToUriMap = new HashMap<String,String>();
+		loading = true;
+		try
 		{
-			uriToArkMap = new HashMap<String,String>();
-			lblToArkMap = new HashMap<String,String>();
-			arkToUriMap = new HashMap<String,String>();
 			String sparql = "select ?ark ?pre "
 				+ "where { ?ark <" + owlSameAs + "> ?pre }";
 			BindingIterator bindings = ts.sparqlSelect(sparql);
@@ -87,6 +224,13 @@ public class ArkTranslator
 			}
 			lblBindings.close();
 		}
+		finally
+		{
+			loading = false;
+		}
+		return new PredicateMaps(
+			uriToArkMap, lblToArkMap, arkToUriMap, version
+		);
 	}
 	public Identifier toARK( Identifier uri, boolean strict )
 		throws TripleStoreException
@@ -98,11 +242,15 @@ public class ArkTranslator
 	public String toARK( String uri, boolean strict )
 		throws TripleStoreException
 	{
-		loadMap();
-		String ark = uriToArkMap.get(uri);
+		return toARK( loadMap(), uri, strict );
+	}
+	private static String toARK( PredicateMaps maps, String uri,
+		boolean strict ) throws TripleStoreException
+	{
+		String ark = maps.uriToArk.get(uri);
 
 		// if uri not found, look for label
-		if ( ark == null ) { ark = lblToArkMap.get(uri); }
+		if ( ark == null ) { ark = maps.lblToArk.get(uri); }
 
 		if ( ark != null ) { return ark; }
 		else
@@ -123,8 +271,7 @@ public class ArkTranslator
 	public String toURI( String ark, boolean strict )
 		throws TripleStoreException
 	{
-		loadMap();
-		String uri = arkToUriMap.get(ark);
+		String uri = loadMap().arkToUri.get(ark);
 		if ( uri != null ) { return uri; }
 		else
 		{
@@ -137,16 +284,37 @@ public class ArkTranslator
 	}
 	public String translateURIs( String s ) throws TripleStoreException
 	{
-		loadMap();
+		PredicateMaps maps = loadMap();
 		StringBuffer buf = new StringBuffer();
 		Matcher m = uriPattern.matcher( s );
 		while ( m.find() )
 		{
 			String uri = s.substring( m.start() + 1, m.end() -1 );
-			String ark = toARK(uri,false);
+			String ark = toARK(maps,uri,false);
 			m.appendReplacement( buf, "<" + ark + ">" );
 		}
 		m.appendTail( buf );
 		return buf.toString();
 	}
+
+	/**
+	 * Immutable set of translation maps, with the version they were loaded
+	 * for.
+	**/
+	private static class PredicateMaps
+	{
+		final Map<String,String> uriToArk;
+		final Map<String,String> lblToArk;
+		final Map<String,String> arkToUri;
+		final long version;
+		PredicateMaps( Map<String,String> uriToArk,
+			Map<String,String> lblToArk, Map<String,String> arkToUri,
+			long version )
+		{
+			this.uriToArk = Collections.unmodifiableMap(uriToArk);
+			this.lblToArk = Collections.unmodifiableMap(lblToArk);
+			this.arkToUri = Collections.unmodifiableMap(arkToUri);
+			this.version = version;
+		}
+	}
 }
@@ -19,6 +19,23 @@ public abstract class BindingIterator implements Iterator
 	**/
 	public abstract String[] fieldNames();
 
+	/**
+	 * Return the values of the next binding, in the same order as
+	 * fieldNames().
+	**/
+	public String[] nextValues()
+	{
+		Map<String,String> binding = nextBinding();
+		if ( binding == null ) { return null; }
+		String[] names = fieldNames();
+		String[] values = new String[names.length];
+		for ( int i = 0; i < names.length; i++ )
+		{
+			values[i] = binding.get( names[i] );
+		}
+		return values;
+	}
+
 	public Object next()
 	{
 		return nextBinding();
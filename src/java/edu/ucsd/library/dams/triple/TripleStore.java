@@ -147,6 +147,27 @@ public interface TripleStore
     **/
     public void removeAll() throws TripleStoreException;
 
+    /**
+     * Start a transaction.  Updates are not visible to other connections
+     * until commit() is called, and inserts may be batched until then.
+     * Transactions can be nested, only the outermost commit() is applied.
+    **/
+    public void startTransaction() throws TripleStoreException;
+
+    /**
+     * Commit the current transaction.  If a nested transaction was rolled
+     * back, the outermost commit() rolls back the whole transaction and
+     * throws an exception.
+    **/
+    public void commit() throws TripleStoreException;
+
+    /**
+     * Discard all updates made since the outermost startTransaction().  In
+     * a nested transaction, the updates are discarded when the outermost
+     * transaction ends.
+    **/
+    public void rollback() throws TripleStoreException;
+
 
     /**************************************************************************/
 	/*** Utility API **********************************************************/
@@ -168,20 +189,68 @@ public interface TripleStore
     **/
     public boolean isConnected();
 
+    /**
+     * Test whether a connected triplestore is still usable, e.g. before
+     * handing a pooled instance out again.
+     * @param query Validation query to execute, or null to use the default
+     *   check for the implementation.
+    **/
+    public boolean validate( String query );
+
+    /**
+     * Discard any per-request state (cached lookups, logging flags) so the
+     * instance can be reused by another request.
+    **/
+    public void reset() throws TripleStoreException;
+
     /**
      * Load triples from an N-triples file on disk.
      * @param filename RDF filename.
+     * @return Validation errors, or null if the file was loaded.
     **/
-    public void loadNTriples( String filename, Set<String> validClasses,
+    public Set<String> loadNTriples( String filename, Set<String> validClasses,
 		Set<String> validProperties ) throws TripleStoreException;
 
 	/**
 	 * Load triples from an RDF XML file on disk.
 	 * @param filename RDF filename.
+	 * @return Validation errors, or null if the file was loaded.
 	**/
-	public void loadRDFXML( String filename, Set<String> validClasses, Set<String> validProperties )
+	public Set<String> loadRDFXML( String filename, Set<String> validClasses, Set<String> validProperties )
 		throws TripleStoreException;
 
+    /**
+     * Load triples from N-Triples or RDF XML files into an empty triplestore
+     * using the fastest method available.  Objects are not deleted before
+     * loading.  Files are committed in groups, and the listener is notified
+     * as each group is committed, so an interrupted load can be resumed
+     * without the files already loaded.
+     * @param files RDF files to load.
+     * @param resume If true, allow loading into a triplestore that already
+     *   contains the files from an interrupted load.
+     * @param listener Notified as files are committed or rejected (may be
+     *   null).
+     * @return Number of triples loaded.
+    **/
+    public long bulkLoad( java.util.List<java.io.File> files,
+        Set<String> validClasses, Set<String> validProperties, boolean resume,
+        BulkListener listener ) throws TripleStoreException;
+
+    /**
+     * Notified of the progress of a bulk load.
+    **/
+    public interface BulkListener
+    {
+        /**
+         * A file has been loaded and committed.
+        **/
+        public void fileLoaded( java.io.File f );
+        /**
+         * A file failed validation and was not loaded.
+        **/
+        public void fileFailed( java.io.File f, Set<String> errors );
+    }
+
     /**
      * Perform any maintenance required after performing triplestore updates.
     **/
@@ -192,6 +261,36 @@ public interface TripleStore
     **/
     public long size() throws TripleStoreException;
 
+    /**
+     * List statements about the child records (components and files) of
+     * every object linked to a record by any of a set of predicates, e.g.,
+     * the files of all of the objects in a collection.  Statements are
+     * ordered by parent and subject, so the statements about each child
+     * record are listed together.
+     * @param object Record the objects are linked to.
+     * @param predicates Predicates linking the objects to the record.
+    **/
+    public StatementIterator listChildStatements( Identifier object,
+        Set<Identifier> predicates ) throws TripleStoreException;
+
+    /**
+     * Count the distinct subjects linked to any of a group of collections by
+     * any of a set of member predicates, using the membership index.
+     * @param collections Collection identifiers.
+     * @param predicates Member predicates.
+     * @return Number of members, or -1 if the membership index isn't
+     *   available or doesn't include all of the predicates.
+    **/
+    public long countMembers( Set<Identifier> collections,
+        Set<Identifier> predicates ) throws TripleStoreException;
+
+    /**
+     * Rebuild the membership index from the statements in the triplestore,
+     * creating it if it doesn't exist.
+     * @return Number of member links indexed.
+    **/
+    public long rebuildMembers() throws TripleStoreException;
+
 	/**
 	 * Get the name of this triplestore.
 	**/
@@ -242,4 +341,15 @@ public interface TripleStore
 	**/
 	public BindingIterator sparqlSelect( String query )
 		throws TripleStoreException;
+
+	/**
+	 * Perform a SPARQL SELECT query, retrieving one page of results.
+	 * @param query SPARQL SELECT query to execute.
+	 * @param offset Number of results to skip.
+	 * @param limit Maximum number of results to retrieve (0 = no limit).
+	 * @param timeout Maximum seconds to wait for the query to execute
+	 *   (0 = no limit).
+	**/
+	public BindingIterator sparqlSelect( String query, int offset, int limit,
+		int timeout ) throws TripleStoreException;
 }
@@ -0,0 +1,410 @@
+package edu.ucsd.library.dams.triple;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Bounded pool of TripleStore instances for a single named triplestore, so
+ * requests can reuse connected instances instead of creating and closing one
+ * each time.  Pools are configured with the "ts.[name]." properties:
+ * <ul>
+ *  <li>poolSize: maximum number of instances (default 10, 0 = disabled)</li>
+ *  <li>poolMaxWait: milliseconds to wait for a free instance (default
+ *    30000)</li>
+ *  <li>poolIdleTimeout: milliseconds an idle instance is kept before it is
+ *    closed (default 300000)</li>
+ *  <li>poolValidationQuery: SQL used to check an idle instance before it is
+ *    reused (default: driver connection check)</li>
+ * </ul>
+ * @author escowles@ucsd.edu
+**/
+public class TripleStorePool
+{
+	private static Logger log = Logger.getLogger( TripleStorePool.class );
+
+	// pool registry, and the pool each leased instance came from
+	private static Map<String,TripleStorePool> pools
+		= new HashMap<String,TripleStorePool>();
+	private static Map<TripleStore,TripleStorePool> leases
+		= new IdentityHashMap<TripleStore,TripleStorePool>();
+
+	// the name each leased instance was leased with, including instances
+	// from pools with pooling disabled
+	private static Map<TripleStore,String> names
+		= new IdentityHashMap<TripleStore,String>();
+
+	private Properties props;
+	private String name;
+	private int maxSize;
+	private long maxWait;
+	private long idleTimeout;
+	private String validationQuery;
+	private Semaphore permits;
+	private LinkedList<PooledStore> idle = new LinkedList<PooledStore>();
+	private boolean closed = false;
+
+	// stats
+	private AtomicLong created = new AtomicLong();
+	private AtomicLong destroyed = new AtomicLong();
+	private AtomicLong leased = new AtomicLong();
+	private AtomicLong timeouts = new AtomicLong();
+	private AtomicLong invalid = new AtomicLong();
+	private AtomicLong evicted = new AtomicLong();
+
+	/**
+	 * Create a pool for the triplestore configured with "ts.[name]."
+	 * properties.
+	**/
+	protected TripleStorePool( Properties props, String name )
+	{
+		this.props = props;
+		this.name = name;
+		String prefix = "ts." + name + ".";
+		maxSize = getPropInt( props, prefix + "poolSize", 10 );
+		maxWait = getPropInt( props, prefix + "poolMaxWait", 30000 );
+		idleTimeout = getPropInt( props, prefix + "poolIdleTimeout", 300000 );
+		validationQuery = props.getProperty( prefix + "poolValidationQuery" );
+		permits = new Semaphore( Math.max(maxSize,1), true );
+	}
+
+	/**
+	 * Get the pool for a named triplestore, creating it if necessary.
+	 * @param props Properties object holding triplestore parameters.
+	 * @param name Prefix for the properties in the form "ts.[name]."
+	**/
+	public static synchronized TripleStorePool getPool( Properties props,
+		String name )
+	{
+		TripleStorePool pool = pools.get( name );
+		if ( pool == null )
+		{
+			pool = new TripleStorePool( props, name );
+			pools.put( name, pool );
+		}
+		return pool;
+	}
+
+	/**
+	 * Lease an instance of a named triplestore, creating the pool if
+	 * necessary.  Instances should be returned with release().
+	 * @param props Properties object holding triplestore parameters.
+	 * @param name Prefix for the properties in the form "ts.[name]."
+	 * @return A connected triplestore, or null if the named triplestore is
+	 *   not configured.
+	**/
+	public static TripleStore lease( Properties props, String name )
+		throws Exception
+	{
+		return getPool( props, name ).lease();
+	}
+
+	/**
+	 * Return a leased triplestore to its pool.  Instances that were not
+	 * leased from a pool are closed.
+	**/
+	public static void release( TripleStore ts ) throws TripleStoreException
+	{
+		if ( ts == null ) { return; }
+
+		TripleStorePool pool = null;
+		synchronized ( TripleStorePool.class )
+		{
+			pool = leases.remove( ts );
+			names.remove( ts );
+		}
+		if ( pool != null )
+		{
+			pool.checkIn( ts );
+		}
+		else
+		{
+			ts.close();
+		}
+	}
+
+	/**
+	 * Get the name a triplestore was leased with.  This is the "ts.[name]"
+	 * configuration key, which may differ from the name the triplestore
+	 * reports.
+	 * @return The name, or null if the triplestore is not leased.
+	**/
+	public static synchronized String leaseName( TripleStore ts )
+	{
+		return names.get( ts );
+	}
+
+	/**
+	 * Close all pools and their idle instances.  Leased instances are closed
+	 * when they are released.
+	**/
+	public static void closeAll()
+	{
+		Map<String,TripleStorePool> old = null;
+		synchronized ( TripleStorePool.class )
+		{
+			old = pools;
+			pools = new HashMap<String,TripleStorePool>();
+		}
+		for ( Iterator<TripleStorePool> it = old.values().iterator();
+			it.hasNext(); )
+		{
+			it.next().close();
+		}
+	}
+
+	/**
+	 * Get usage statistics for all pools, keyed by triplestore name.
+	**/
+	public static synchronized Map<String,Map<String,String>> stats()
+	{
+		Map<String,Map<String,String>> info
+			= new LinkedHashMap<String,Map<String,String>>();
+		for ( Iterator<String> it = pools.keySet().iterator(); it.hasNext(); )
+		{
+			String key = it.next();
+			info.put( key, pools.get(key).poolStats() );
+		}
+		return info;
+	}
+
+	/**
+	 * Lease an instance from this pool, waiting up to poolMaxWait for one to
+	 * become available.
+	**/
+	public TripleStore lease() throws Exception
+	{
+		if ( maxSize <= 0 )
+		{
+			// pooling disabled
+			TripleStore ts = TripleStoreUtil.getTripleStore( props, name );
+			if ( ts != null )
+			{
+				synchronized ( TripleStorePool.class )
+				{
+					names.put( ts, name );
+				}
+			}
+			return ts;
+		}
+
+		if ( !permits.tryAcquire(maxWait, TimeUnit.MILLISECONDS) )
+		{
+			timeouts.incrementAndGet();
+			throw new TripleStoreException(
+				"Timed out waiting for triplestore: " + name
+			);
+		}
+
+		TripleStore ts = null;
+		try
+		{
+			// reuse the most recently returned instance that is still valid
+			PooledStore pooled = null;
+			while ( ts == null && (pooled = nextIdle()) != null )
+			{
+				if ( pooled.ts.validate(validationQuery) )
+				{
+					ts = pooled.ts;
+				}
+				else
+				{
+					invalid.incrementAndGet();
+					destroy( pooled.ts );
+				}
+			}
+
+			// create a new instance if none are available
+			if ( ts == null )
+			{
+				ts = TripleStoreUtil.getTripleStore( props, name );
+				if ( ts == null )
+				{
+					permits.release();
+					return null;
+				}
+				created.incrementAndGet();
+			}
+		}
+		catch ( Exception ex )
+		{
+			permits.release();
+			throw ex;
+		}
+
+		synchronized ( TripleStorePool.class )
+		{
+			leases.put( ts, this );
+			names.put( ts, name );
+		}
+		leased.incrementAndGet();
+		return ts;
+	}
+
+	/**
+	 * Return an instance to the idle list, or close it if it is no longer
+	 * connected or the pool has been closed.
+	**/
+	private void checkIn( TripleStore ts )
+	{
+		try
+		{
+			boolean keep = false;
+			synchronized ( this )
+			{
+				if ( !closed && ts.isConnected() )
+				{
+					try
+					{
+						ts.reset();
+						idle.addFirst( new PooledStore(ts) );
+						keep = true;
+					}
+					catch ( Exception ex )
+					{
+						log.warn( "Error resetting triplestore: " + name, ex );
+					}
+				}
+			}
+			if ( !keep )
+			{
+				destroy( ts );
+			}
+			evictIdle();
+		}
+		finally
+		{
+			permits.release();
+		}
+	}
+
+	/**
+	 * Take the most recently used idle instance, closing any that have been
+	 * idle longer than poolIdleTimeout.
+	**/
+	private PooledStore nextIdle()
+	{
+		evictIdle();
+		synchronized ( this )
+		{
+			return idle.pollFirst();
+		}
+	}
+
+	/**
+	 * Close instances that have been idle longer than poolIdleTimeout.
+	**/
+	public void evictIdle()
+	{
+		long cutoff = System.currentTimeMillis() - idleTimeout;
+		LinkedList<PooledStore> expired = new LinkedList<PooledStore>();
+		synchronized ( this )
+		{
+			// least recently used instances are at the end of the list
+			while ( idle.size() > 0 && idle.getLast().returned < cutoff )
+			{
+				expired.add( idle.removeLast() );
+			}
+		}
+		for ( PooledStore pooled : expired )
+		{
+			evicted.incrementAndGet();
+			destroy( pooled.ts );
+		}
+	}
+
+	/**
+	 * Close the pool and all idle instances.
+	**/
+	public void close()
+	{
+		LinkedList<PooledStore> old = null;
+		synchronized ( this )
+		{
+			closed = true;
+			old = idle;
+			idle = new LinkedList<PooledStore>();
+		}
+		for ( PooledStore pooled : old )
+		{
+			destroy( pooled.ts );
+		}
+	}
+
+	/**
+	 * Get usage statistics for this pool.
+	**/
+	public Map<String,String> poolStats()
+	{
+		Map<String,String> info = new LinkedHashMap<String,String>();
+		int idleCount = 0;
+		synchronized ( this )
+		{
+			idleCount = idle.size();
+		}
+		int active = maxSize > 0 ? maxSize - permits.availablePermits() : 0;
+		info.put( "maxSize",     String.valueOf(maxSize) );
+		info.put( "active",      String.valueOf(active) );
+		info.put( "idle",        String.valueOf(idleCount) );
+		info.put( "waiting",     String.valueOf(permits.getQueueLength()) );
+		info.put( "leased",      String.valueOf(leased.get()) );
+		info.put( "created",     String.valueOf(created.get()) );
+		info.put( "destroyed",   String.valueOf(destroyed.get()) );
+		info.put( "evicted",     String.valueOf(evicted.get()) );
+		info.put( "invalid",     String.valueOf(invalid.get()) );
+		info.put( "timeouts",    String.valueOf(timeouts.get()) );
+		return info;
+	}
+
+	private void destroy( TripleStore ts )
+	{
+		destroyed.incrementAndGet();
+		try
+		{
+			ts.close();
+		}
+		catch ( Exception ex )
+		{
+			log.warn( "Error closing pooled triplestore: " + name, ex );
+		}
+	}
+
+	private static int getPropInt( Properties props, String key,
+		int defaultValue )
+	{
+		String val = props.getProperty( key );
+		if ( val == null ) { return defaultValue; }
+		try
+		{
+			return Integer.parseInt( val.trim() );
+		}
+		catch ( NumberFormatException ex )
+		{
+			log.warn( "Invalid value for " + key + ": " + val );
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Idle pool entry, tracking when the instance was returned.
+	**/
+	private static class PooledStore
+	{
+		TripleStore ts;
+		long returned;
+		PooledStore( TripleStore ts )
+		{
+			this.ts = ts;
+			this.returned = System.currentTimeMillis();
+		}
+	}
+}
@@ -1,5 +1,7 @@
 package edu.ucsd.library.dams.triple;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Constructor;
@@ -11,6 +13,7 @@ import java.util.Calendar;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -39,6 +42,11 @@ import com.hp.hpl.jena.rdf.model.Literal;
 import com.hp.hpl.jena.rdf.model.StmtIterator;
 import com.hp.hpl.jena.datatypes.BaseDatatype;
 import com.hp.hpl.jena.datatypes.xsd.XSDDatatype;
+import com.hp.hpl.jena.graph.Triple;
+
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.system.StreamRDFBase;
 
 import org.apache.commons.lang3.StringEscapeUtils;
 import org.apache.log4j.Logger;
@@ -189,16 +197,278 @@ public class TripleStoreUtil
 	{
 		return loadRDF( in, deleteFirst, ts, "RDF/XML", nsmap, validClasses, validProperties );
 	}
-	private static Set<String> loadRDF( InputStream in, boolean deleteFirst,
-		TripleStore ts, String format, Map<String,String> nsmap, Set<String> validClasses,
+
+	/**
+	 * Load an N-Triples file without reading it into an in-memory model.
+	 * @see #streamRDF(File,Lang,String,boolean,TripleStore,Map,Set,Set)
+	**/
+	public static Set<String> streamNTriples( File f, boolean deleteFirst,
+		TripleStore ts, Map<String,String> nsmap, Set<String> validClasses,
 		Set<String> validProperties ) throws TripleStoreException
 	{
-		// bnode parent tracking
+		return streamRDF( f, Lang.NTRIPLES, "N-TRIPLE", deleteFirst, ts, nsmap,
+			validClasses, validProperties );
+	}
+	/**
+	 * Load an RDF XML file without reading it into an in-memory model.
+	 * @see #streamRDF(File,Lang,String,boolean,TripleStore,Map,Set,Set)
+	**/
+	public static Set<String> streamRDFXML( File f, boolean deleteFirst,
+		TripleStore ts, Map<String,String> nsmap, Set<String> validClasses,
+		Set<String> validProperties ) throws TripleStoreException
+	{
+		return streamRDF( f, Lang.RDFXML, "RDF/XML", deleteFirst, ts, nsmap,
+			validClasses, validProperties );
+	}
+	/**
+	 * Load an RDF file by streaming triples from the parser, so memory use
+	 * depends on the number of subjects and blank nodes rather than the
+	 * number of triples.  The file is parsed twice: once to validate it and
+	 * list the subjects to delete, and again to load the triples in a single
+	 * transaction (the first pass is skipped if there is nothing to validate
+	 * or delete).  Files the streaming parser can't read are loaded with an
+	 * in-memory model instead, after rolling back anything already loaded.
+	 * @return Validation errors, or null if the file was loaded.
+	**/
+	private static Set<String> streamRDF( File f, Lang lang, String format,
+		boolean deleteFirst, TripleStore ts, Map<String,String> nsmap,
+		Set<String> validClasses, Set<String> validProperties )
+		throws TripleStoreException
+	{
+		// validate and list subjects before changing anything
+		boolean validate = (validClasses != null && validClasses.size() > 0)
+			|| (validProperties != null && validProperties.size() > 0);
+		boolean scanned = validate || deleteFirst;
+		ScanSink scan = new ScanSink( validClasses, validProperties );
+		try
+		{
+			if ( scanned )
+			{
+				parse( f, lang, scan );
+			}
+		}
+		catch ( RuntimeException ex )
+		{
+			return fallback( f, ex, deleteFirst, ts, format, nsmap,
+				validClasses, validProperties );
+		}
+		if ( scan.errors.size() > 0 )
+		{
+			return scan.errors;
+		}
+
+		// delete and load in a single transaction
+		ts.startTransaction();
+		try
+		{
+			if ( deleteFirst )
+			{
+				for ( String subject : scan.subjects )
+				{
+					log.debug("removing subject: " + subject );
+					ts.removeObject( Identifier.publicURI(subject) );
+				}
+			}
+			LoadSink load = new LoadSink( ts, nsmap.get("damsid") );
+			parse( f, lang, load );
+			load.processOrphans();
+			ts.commit();
+		}
+		catch ( TripleStoreException ex )
+		{
+			rollback( ts );
+			throw ex;
+		}
+		catch ( RuntimeException ex )
+		{
+			rollback( ts );
+			if ( ex.getCause() instanceof TripleStoreException )
+			{
+				throw (TripleStoreException)ex.getCause();
+			}
+			else if ( !scanned )
+			{
+				// parser error, the file hasn't been read before
+				return fallback( f, ex, deleteFirst, ts, format, nsmap,
+					validClasses, validProperties );
+			}
+			throw new TripleStoreException( "Error processing triples", ex );
+		}
+		return null;
+	}
+	/**
+	 * Load a file the streaming parser can't read with an in-memory model.
+	**/
+	private static Set<String> fallback( File f, RuntimeException ex,
+		boolean deleteFirst, TripleStore ts, String format,
+		Map<String,String> nsmap, Set<String> validClasses,
+		Set<String> validProperties ) throws TripleStoreException
+	{
+		log.warn( "Unable to stream " + f.getAbsolutePath()
+			+ ", loading with model: " + ex.toString() );
+		FileInputStream in = null;
+		try
+		{
+			in = new FileInputStream( f );
+			return loadRDF( in, deleteFirst, ts, format, nsmap,
+				validClasses, validProperties );
+		}
+		catch ( IOException ex2 )
+		{
+			throw new TripleStoreException( "Error reading RDF data", ex2 );
+		}
+		finally
+		{
+			try { if ( in != null ) { in.close(); } }
+			catch ( Exception ex3 ) { log.warn("Error closing file",ex3); }
+		}
+	}
+	private static void parse( File f, Lang lang, StreamRDFBase sink )
+		throws TripleStoreException
+	{
+		InputStream in = null;
+		try
+		{
+			in = new FileInputStream( f );
+			RDFDataMgr.parse( sink, in, null, lang );
+		}
+		catch ( IOException ex )
+		{
+			throw new TripleStoreException( "Error reading RDF data", ex );
+		}
+		finally
+		{
+			try { if ( in != null ) { in.close(); } }
+			catch ( Exception ex ) { log.warn("Error closing file",ex); }
+		}
+	}
+
+	/**
+	 * Validates streamed triples and collects the subjects to delete.
+	**/
+	private static class ScanSink extends StreamRDFBase
+	{
+		Set<String> validClasses;
+		Set<String> validProperties;
+		Set<String> errors = new HashSet<String>();
+		Set<String> subjects = new HashSet<String>();
+		ScanSink( Set<String> validClasses, Set<String> validProperties )
+		{
+			this.validClasses = validClasses;
+			this.validProperties = validProperties;
+		}
+		public void triple( Triple t )
+		{
+			Validator.validateTriple( t, validClasses, validProperties, errors );
+			if ( t.getSubject().isURI() )
+			{
+				subjects.add( t.getSubject().getURI() );
+			}
+		}
+	}
+
+	/**
+	 * Adds streamed triples to a triplestore, finding blank node parents as
+	 * triples are read and holding back triples whose parent isn't known yet.
+	**/
+	private static class LoadSink extends StreamRDFBase
+	{
+		TripleStore ts;
+		String idNS;
 		Map<String,Identifier> bnodes = new HashMap<String,Identifier>();
 		Map<String,String> parents = new HashMap<String,String>();
 		ArrayList<Statement> orphans = new ArrayList<Statement>();
-		String idNS = nsmap.get("damsid");
+		LoadSink( TripleStore ts, String idNS )
+		{
+			this.ts = ts;
+			this.idNS = idNS;
+		}
+		public void triple( Triple t )
+		{
+			try
+			{
+				RDFNode subNode = staticModel.asRDFNode( t.getSubject() );
+				RDFNode objNode = staticModel.asRDFNode( t.getObject() );
+				Identifier sub = toIdentifier(
+					subNode.asResource(), bnodes, ts
+				);
+				Identifier pre = Identifier.publicURI(
+					t.getPredicate().getURI()
+				);
+				Identifier objId = null;
+				Statement stmt = null;
+				if ( objNode.isLiteral() )
+				{
+					String obj = literalString( objNode.asLiteral() );
+					stmt = new Statement( sub, pre, obj, null );
+				}
+				else
+				{
+					objId = toIdentifier( objNode.asResource(), bnodes, ts );
+					stmt = new Statement( sub, pre, objId, null );
+				}
+
+				// find blank node parent
+				String parent = null;
+				if ( !sub.isBlankNode() )
+				{
+					parent = sub.getId();
+				}
+				else
+				{
+					parent = findParent( parents, sub.getId() );
+				}
+
+				// add statement if parent is known, otherwise try later
+				if ( parent != null )
+				{
+					ts.addStatement( stmt, objectSubject(parent,idNS) );
+				}
+				else
+				{
+					orphans.add( stmt );
+				}
+
+				// add parent/child link to parent map
+				if ( objId != null && objId.isBlankNode() )
+				{
+					if ( parent != null && !parent.equals( sub ) )
+					{
+						parents.put( objId.toString(), parent );
+					}
+					else
+					{
+						parents.put( objId.toString(), sub.toString() );
+					}
+
+					// parent found for any orphans of this node
+					if ( orphans.size() > 0 )
+					{
+						TripleStoreUtil.processOrphans(
+							parents, orphans, idNS, ts
+						);
+					}
+				}
+			}
+			catch ( TripleStoreException ex )
+			{
+				throw new RuntimeException( ex );
+			}
+		}
+		void processOrphans() throws TripleStoreException
+		{
+			TripleStoreUtil.processOrphans( parents, orphans, idNS, ts );
+			for ( int i = 0; i < orphans.size(); i++ )
+			{
+				log.warn("orphan: " + orphans.get(i).toString());
+			}
+		}
+	}
 
+	private static Set<String> loadRDF( InputStream in, boolean deleteFirst,
+		TripleStore ts, String format, Map<String,String> nsmap, Set<String> validClasses,
+		Set<String> validProperties ) throws TripleStoreException
+	{
 		Model model = ModelFactory.createDefaultModel();
 		try
 		{
@@ -217,6 +487,46 @@ public class TripleStoreUtil
 			return errors;
 		}
 
+		// delete and load in a single transaction, so a failed load leaves
+		// the existing records in place
+		ts.startTransaction();
+		try
+		{
+			loadModel( model, deleteFirst, ts, nsmap.get("damsid") );
+			ts.commit();
+		}
+		catch ( TripleStoreException ex )
+		{
+			rollback( ts );
+			throw ex;
+		}
+		catch ( RuntimeException ex )
+		{
+			rollback( ts );
+			throw new TripleStoreException( "Error processing triples", ex );
+		}
+
+		return null;
+	}
+	private static void rollback( TripleStore ts )
+	{
+		try
+		{
+			ts.rollback();
+		}
+		catch ( Exception ex )
+		{
+			log.warn( "Error rolling back RDF load", ex );
+		}
+	}
+	private static void loadModel( Model model, boolean deleteFirst,
+		TripleStore ts, String idNS ) throws TripleStoreException
+	{
+		// bnode parent tracking
+		Map<String,Identifier> bnodes = new HashMap<String,Identifier>();
+		Map<String,String> parents = new HashMap<String,String>();
+		ArrayList<Statement> orphans = new ArrayList<Statement>();
+
 		// list and delete subjects in the model
 		if ( deleteFirst )
 		{
@@ -330,8 +640,6 @@ public class TripleStoreUtil
 		{
 			throw new TripleStoreException( "Error processing triples", ex );
 		}
-
-		return null;
 	}
 
 	/**
@@ -3,6 +3,8 @@ package edu.ucsd.library.dams.triple;
 import java.util.HashSet;
 import java.util.Set;
 
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
 import com.hp.hpl.jena.rdf.model.Model;
 import com.hp.hpl.jena.rdf.model.NodeIterator;
 import com.hp.hpl.jena.rdf.model.RDFNode;
@@ -63,4 +65,28 @@ public class Validator
         return errors;
     }
 
+    /**
+     * Validate a single triple, for use while streaming RDF.  Errors are added
+     * to the errors set, using the same messages as validateModel().
+    **/
+    public static void validateTriple( Triple triple, Set<String> validClasses,
+        Set<String> validProperties, Set<String> errors )
+    {
+        Node pre = triple.getPredicate();
+        Node obj = triple.getObject();
+        if ( validClasses != null && validClasses.size() > 0
+            && pre.equals(RDF.type.asNode()) && obj.isURI()
+            && !validClasses.contains(obj.getURI()) )
+        {
+            String error = "Invalid class: " + obj.getURI();
+            if ( errors.add(error) ) { log.warn( error ); }
+        }
+        if ( validProperties != null && validProperties.size() > 0
+            && !validProperties.contains(pre.getURI()) )
+        {
+            String error = "Invalid property: " + pre.getURI();
+            if ( errors.add(error) ) { log.warn( error ); }
+        }
+    }
+
 }
@@ -70,7 +70,7 @@ public class SQLConvertor
 	}
 
 	public ResultSet executeSql(Connection conn) throws SQLException{
-		Statement stmt = conn.createStatement(ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
+		Statement stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
 		return stmt.executeQuery(sqlQuery);
 	}
 	
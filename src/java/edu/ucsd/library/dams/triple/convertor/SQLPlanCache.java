@@ -0,0 +1,381 @@
+package edu.ucsd.library.dams.triple.convertor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Cache of SQL translations of SPARQL queries, keyed by the shape of the
+ * query with literals and IRIs replaced by parameters.  Queries with the same
+ * shape but different constants reuse the same SQL, with the constants bound
+ * as PreparedStatement parameters, so they aren't parsed and converted again.
+ * Queries that can't be parameterized safely are converted each time.
+ * @author escowles@ucsd.edu
+**/
+public class SQLPlanCache
+{
+	private static Logger log = Logger.getLogger( SQLPlanCache.class );
+
+	// placeholders substituted for constants before conversion
+	private static final String URI_PARAM = "urn:sqlparam:";
+	private static final String LIT_PARAM = "__sqlparam_";
+	private static final Pattern paramPattern = Pattern.compile(
+		"'(?:<" + URI_PARAM + "(\\d+)>|" + LIT_PARAM + "(\\d+)__)'"
+	);
+	private static final Pattern uriPattern = Pattern.compile("'<[^'>]*>'");
+	private static final Pattern prefixPattern = Pattern.compile(
+		"(?i)PREFIX\\s+([\\w\\-]*):\\s*<([^>]*)>"
+	);
+	private static final Pattern rawIRIPattern = Pattern.compile(
+		"(?i)(?:PREFIX\\s+[\\w\\-]*:\\s*|BASE\\s*|\\^\\^)$"
+	);
+	private static final Pattern iriPattern = Pattern.compile(
+		"<[^<>\"{}|^`\\\\\\s]*>"
+	);
+	private static final Pattern regexPattern = Pattern.compile(
+		"(?i)\\bregex\\s*\\("
+	);
+	private static final Plan UNCACHEABLE = new Plan( null, null, null, null );
+
+	private Map<String,Plan> plans = null;
+	private long hits = 0L;
+	private long misses = 0L;
+	private long unparameterized = 0L;
+
+	/**
+	 * Create a cache.
+	 * @param maxSize Maximum number of query shapes to keep.
+	**/
+	public SQLPlanCache( final int maxSize )
+	{
+		plans = new LinkedHashMap<String,Plan>( 16, 0.75f, true ) {
+			protected boolean removeEldestEntry( Map.Entry<String,Plan> e )
+			{
+				return size() > maxSize;
+			}
+		};
+	}
+
+	/**
+	 * Get the SQL for a SPARQL query, from the cache if a query with the same
+	 * shape has been converted before.
+	 * @param schema Triplestore table schema.
+	 * @param sparql SPARQL query.
+	**/
+	public Plan plan( STSTableSchema schema, String sparql ) throws Exception
+	{
+		Shape shape = parameterize( sparql );
+		if ( shape == null )
+		{
+			synchronized ( this ) { unparameterized++; }
+			return convert( schema, sparql );
+		}
+
+		String key = schema.getTableName() + " " + shape.query;
+		Plan plan = null;
+		synchronized ( this )
+		{
+			plan = plans.get( key );
+			if ( plan != null && plan != UNCACHEABLE ) { hits++; }
+		}
+		if ( plan == null )
+		{
+			plan = compile( schema, shape );
+			synchronized ( this ) { misses++; plans.put( key, plan ); }
+		}
+
+		if ( plan == UNCACHEABLE )
+		{
+			synchronized ( this ) { unparameterized++; }
+			return convert( schema, sparql );
+		}
+		return plan.bind( shape );
+	}
+
+	/**
+	 * Remove all cached plans.
+	**/
+	public synchronized void clear()
+	{
+		plans.clear();
+	}
+
+	/**
+	 * Get the number of cached plans, cache hits and misses, and queries
+	 * converted without parameters.
+	**/
+	public synchronized Map<String,String> stats()
+	{
+		Map<String,String> info = new LinkedHashMap<String,String>();
+		info.put( "entries", String.valueOf(plans.size()) );
+		info.put( "hits",    String.valueOf(hits) );
+		info.put( "misses",  String.valueOf(misses) );
+		info.put( "unparameterized", String.valueOf(unparameterized) );
+		return info;
+	}
+
+	/**
+	 * Convert a query without parameters.
+	**/
+	private static Plan convert( STSTableSchema schema, String sparql )
+		throws Exception
+	{
+		SQLConvertor conv = new SQLConvertor( schema, sparql );
+		return new Plan( conv.getSqlQuery(), conv.getResultVars(), null, null );
+	}
+
+	/**
+	 * Convert a parameterized query and replace the placeholders in the SQL
+	 * with PreparedStatement parameters.  Queries whose placeholders don't
+	 * end up as complete SQL string constants, or whose SQL still contains
+	 * IRIs that would need translation, aren't cacheable.
+	**/
+	private static Plan compile( STSTableSchema schema, Shape shape )
+	{
+		SQLConvertor conv = null;
+		try
+		{
+			conv = new SQLConvertor( schema, shape.query );
+		}
+		catch ( Exception ex )
+		{
+			log.debug( "Unable to convert query shape: " + shape.query, ex );
+			return UNCACHEABLE;
+		}
+
+		StringBuffer sql = new StringBuffer();
+		List<Integer> order = new ArrayList<Integer>();
+		Matcher m = paramPattern.matcher( conv.getSqlQuery() );
+		while ( m.find() )
+		{
+			String idx = (m.group(1) != null) ? m.group(1) : m.group(2);
+			order.add( Integer.valueOf(idx) );
+			m.appendReplacement( sql, "?" );
+		}
+		m.appendTail( sql );
+
+		String s = sql.toString();
+		if ( s.indexOf(URI_PARAM) != -1 || s.indexOf(LIT_PARAM) != -1
+			|| uriPattern.matcher(s).find() )
+		{
+			log.debug( "Query shape not cacheable: " + shape.query );
+			return UNCACHEABLE;
+		}
+		return new Plan( s, conv.getResultVars(), order, null );
+	}
+
+	/**
+	 * Replace the literals, IRIs and prefixed names in a query with
+	 * placeholders.
+	 * @return The parameterized query and the constants removed from it, or
+	 *   null if the query can't be parameterized.
+	**/
+	static Shape parameterize( String sparql )
+	{
+		// regex patterns and flags are validated by the parser
+		if ( regexPattern.matcher(sparql).find() ) { return null; }
+
+		// prefixes used to expand prefixed names
+		Map<String,String> prefixes = new HashMap<String,String>();
+		Matcher pm = prefixPattern.matcher( sparql );
+		while ( pm.find() ) { prefixes.put( pm.group(1), pm.group(2) ); }
+
+		Shape shape = new Shape();
+		StringBuilder buf = new StringBuilder();
+		int len = sparql.length();
+		for ( int i = 0; i < len; )
+		{
+			char c = sparql.charAt(i);
+			if ( Character.isWhitespace(c) )
+			{
+				// collapse whitespace
+				while ( i < len && Character.isWhitespace(sparql.charAt(i)) )
+				{
+					i++;
+				}
+				buf.append( ' ' );
+			}
+			else if ( c == '#' )
+			{
+				// skip comments
+				while ( i < len && sparql.charAt(i) != '\n' ) { i++; }
+			}
+			else if ( c == '<' )
+			{
+				Matcher m = iriPattern.matcher( sparql ).region( i, len );
+				if ( m.lookingAt() )
+				{
+					String iri = sparql.substring( i + 1, m.end() - 1 );
+					if ( rawIRIPattern.matcher(buf).find() )
+					{
+						// keep prefix declarations and datatypes
+						buf.append( sparql, i, m.end() );
+					}
+					else
+					{
+						buf.append( "<" + URI_PARAM + shape.add(iri, true) + ">" );
+					}
+					i = m.end();
+				}
+				else
+				{
+					buf.append( c );
+					i++;
+				}
+			}
+			else if ( c == '\'' || c == '"' )
+			{
+				// long quotes aren't supported
+				if ( sparql.startsWith( "" + c + c + c, i ) ) { return null; }
+
+				// find closing quote
+				int end = i + 1;
+				boolean escaped = false;
+				while ( end < len && sparql.charAt(end) != c )
+				{
+					if ( sparql.charAt(end) == '\\' ) { escaped = true; end++; }
+					end++;
+				}
+				if ( end >= len ) { return null; }
+				end++;
+
+				// keep escaped, empty, language-tagged and typed literals
+				String value = sparql.substring( i + 1, end - 1 );
+				if ( escaped || value.length() == 0 || (end < len
+					&& (sparql.charAt(end) == '@' || sparql.charAt(end) == '^')) )
+				{
+					buf.append( sparql, i, end );
+				}
+				else
+				{
+					buf.append( "'" + LIT_PARAM + shape.add(value, false) + "__'" );
+				}
+				i = end;
+			}
+			else if ( c == '?' || c == '$' || Character.isLetterOrDigit(c)
+				|| c == '_' )
+			{
+				// variables, keywords, numbers and prefixed names
+				int end = i + 1;
+				while ( end < len && isNameChar(sparql.charAt(end)) ) { end++; }
+				String prefix = sparql.substring( i, end );
+				if ( Character.isLetter(c) && end + 1 < len
+					&& sparql.charAt(end) == ':'
+					&& isNameChar(sparql.charAt(end + 1))
+					&& prefixes.get(prefix) != null )
+				{
+					int local = end + 1;
+					end = local;
+					while ( end < len && isNameChar(sparql.charAt(end)) ) { end++; }
+					while ( end > local + 1 && sparql.charAt(end - 1) == '.' )
+					{
+						end--;
+					}
+					String iri = prefixes.get(prefix) + sparql.substring(local,end);
+					buf.append( "<" + URI_PARAM + shape.add(iri, true) + ">" );
+				}
+				else
+				{
+					buf.append( prefix );
+				}
+				i = end;
+			}
+			else
+			{
+				buf.append( c );
+				i++;
+			}
+		}
+		shape.query = buf.toString().trim();
+		return shape;
+	}
+	private static boolean isNameChar( char c )
+	{
+		return Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.';
+	}
+
+	/**
+	 * Parameterized query and the constants removed from it.
+	**/
+	static class Shape
+	{
+		String query = null;
+		List<String> values = new ArrayList<String>();
+		List<Boolean> uris = new ArrayList<Boolean>();
+		int add( String value, boolean uri )
+		{
+			values.add( value );
+			uris.add( uri );
+			return values.size() - 1;
+		}
+	}
+
+	/**
+	 * SQL for a query, with the values of any parameters.
+	**/
+	public static class Plan
+	{
+		private final String sql;
+		private final List<String> resultVars;
+		private final List<Integer> order;
+		private final Shape shape;
+		private Plan( String sql, List<String> resultVars, List<Integer> order,
+			Shape shape )
+		{
+			this.sql = sql;
+			this.resultVars = resultVars;
+			this.order = order;
+			this.shape = shape;
+		}
+		private Plan bind( Shape shape )
+		{
+			return new Plan( sql, resultVars, order, shape );
+		}
+
+		/**
+		 * SQL query, with ? for each parameter if parameterized.
+		**/
+		public String getSqlQuery() { return sql; }
+
+		/**
+		 * Variables selected by the query.
+		**/
+		public List<String> getResultVars() { return resultVars; }
+
+		/**
+		 * True if the SQL has parameters, false if constants are included
+		 * in the SQL (and IRIs in the SQL need to be translated).
+		**/
+		public boolean isParameterized() { return shape != null; }
+
+		/**
+		 * Number of parameters.
+		**/
+		public int size()
+		{
+			return isParameterized() ? order.size() : 0;
+		}
+
+		/**
+		 * Value of a parameter.  IRIs are returned without angle brackets.
+		**/
+		public String getParam( int i )
+		{
+			return shape.values.get( order.get(i) );
+		}
+
+		/**
+		 * True if a parameter is an IRI, false if it is a literal.
+		**/
+		public boolean isURI( int i )
+		{
+			return shape.uris.get( order.get(i) );
+		}
+	}
+}
@@ -0,0 +1,300 @@
+package edu.ucsd.library.dams.triple.impl;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import edu.ucsd.library.dams.triple.TripleStoreException;
+
+/**
+ * Collects translated rows for RelationalTripleStore.bulkLoad() and writes
+ * them in chunks with the database's bulk loading facility: COPY for
+ * PostgreSQL, LOAD DATA for MySQL, and JDBC batch inserts for other
+ * databases.
+ * @author escowles@ucsd.edu
+**/
+class BulkLoader
+{
+	private static Logger log = Logger.getLogger( BulkLoader.class );
+	private static final String COLUMNS = "(subject,predicate,object,parent)";
+
+	private static final int BATCH = 0;
+	private static final int COPY = 1;
+	private static final int LOAD_DATA = 2;
+
+	// uri-to-ark lookups kept
+	private static final int MAX_ARKS = 100000;
+
+	private Connection con = null;
+	private String table = null;
+	private int chunkSize = 0;
+	private int method = BATCH;
+	private Object copyManager = null;
+	private Method copyIn = null;
+	private List<String[]> rows = null;
+	private long count = 0L;
+
+	// pending rows and count when mark() was called
+	private List<String[]> marked = new ArrayList<String[]>();
+	private long markedCount = 0L;
+
+	// uri-to-ark lookups for predicates and object uris, dropping the least
+	// recently used so memory doesn't grow with the number of objects
+	Map<String,String> arks = new LinkedHashMap<String,String>(
+		1024, 0.75f, true )
+	{
+		protected boolean removeEldestEntry( Map.Entry<String,String> e )
+		{
+			return size() > MAX_ARKS;
+		}
+	};
+
+	BulkLoader( Connection con, String table, int chunkSize )
+		throws SQLException
+	{
+		this.con = con;
+		this.table = table;
+		this.chunkSize = chunkSize;
+		this.rows = new ArrayList<String[]>( chunkSize );
+
+		String product = con.getMetaData().getDatabaseProductName();
+		if ( product.indexOf("PostgreSQL") != -1 )
+		{
+			try
+			{
+				// use reflection so the driver is only needed at runtime
+				Class pgcon = Class.forName("org.postgresql.PGConnection");
+				Object pg = con.unwrap( pgcon );
+				copyManager = pgcon.getMethod("getCopyAPI").invoke( pg );
+				copyIn = copyManager.getClass().getMethod(
+					"copyIn", String.class, Reader.class
+				);
+				method = COPY;
+			}
+			catch ( Throwable t )
+			{
+				log.info( "COPY not available, using batch inserts: " + t );
+			}
+		}
+		else if ( product.indexOf("MySQL") != -1 )
+		{
+			method = LOAD_DATA;
+		}
+	}
+
+	/**
+	 * Name of the bulk loading method used.
+	**/
+	String method()
+	{
+		if ( method == COPY ) { return "COPY"; }
+		else if ( method == LOAD_DATA ) { return "LOAD DATA"; }
+		else { return "batch insert"; }
+	}
+
+	/**
+	 * Number of rows written.
+	**/
+	long count() { return count; }
+
+	/**
+	 * Number of rows added but not written yet.
+	**/
+	int pending() { return rows.size(); }
+
+	/**
+	 * Add a translated row, writing the current chunk when it is full.
+	**/
+	void add( String subject, String predicate, String object, String parent )
+		throws TripleStoreException
+	{
+		rows.add( new String[]{ subject, predicate, object, parent } );
+		if ( rows.size() >= chunkSize )
+		{
+			flush();
+		}
+	}
+
+	/**
+	 * Write all pending rows to the database.
+	**/
+	void flush() throws TripleStoreException
+	{
+		if ( rows.size() == 0 ) { return; }
+
+		boolean autoCommit = true;
+		try
+		{
+			// commit each chunk unless the caller has a transaction open
+			autoCommit = con.getAutoCommit();
+			if ( autoCommit ) { con.setAutoCommit( false ); }
+			if ( method == COPY )
+			{
+				copy();
+			}
+			else if ( method == LOAD_DATA )
+			{
+				loadData();
+			}
+			else
+			{
+				batch();
+			}
+			if ( autoCommit ) { con.commit(); }
+			count += rows.size();
+			rows.clear();
+		}
+		catch ( Exception ex )
+		{
+			throw new TripleStoreException(
+				"Error bulk loading " + table + " using " + method(), ex
+			);
+		}
+		finally
+		{
+			try { if ( autoCommit ) { con.setAutoCommit( true ); } }
+			catch ( Exception ex ) { log.warn("Error resetting autocommit",ex); }
+		}
+	}
+
+	/**
+	 * Discard pending rows.
+	**/
+	void clear()
+	{
+		rows.clear();
+	}
+
+	/**
+	 * Remember the pending rows, before taking a savepoint.
+	**/
+	void mark()
+	{
+		marked = new ArrayList<String[]>( rows );
+		markedCount = count;
+	}
+
+	/**
+	 * Restore the pending rows to the last mark(), after rolling back to the
+	 * savepoint.  Rows pending at the mark and written since then were
+	 * rolled back, so they are pending again.
+	**/
+	void reset()
+	{
+		rows.clear();
+		rows.addAll( marked );
+		count = markedCount;
+	}
+
+	private void copy() throws Exception
+	{
+		StringBuilder buf = new StringBuilder();
+		appendRows( buf );
+		copyIn.invoke(
+			copyManager, "COPY " + table + " " + COLUMNS + " FROM STDIN",
+			new StringReader(buf.toString())
+		);
+	}
+	private void loadData() throws Exception
+	{
+		File f = File.createTempFile( table, ".tsv" );
+		java.sql.Statement stmt = null;
+		try
+		{
+			Writer out = new BufferedWriter( new OutputStreamWriter(
+				new FileOutputStream(f), "UTF-8"
+			) );
+			try
+			{
+				StringBuilder buf = new StringBuilder();
+				appendRows( buf );
+				out.write( buf.toString() );
+			}
+			finally
+			{
+				out.close();
+			}
+
+			String path = f.getAbsolutePath().replaceAll("\\\\","\\\\\\\\")
+				.replaceAll("'","''");
+			stmt = con.createStatement();
+			stmt.execute(
+				"LOAD DATA LOCAL INFILE '" + path + "' INTO TABLE " + table
+					+ " CHARACTER SET utf8 FIELDS TERMINATED BY '\\t'"
+					+ " ESCAPED BY '\\\\' LINES TERMINATED BY '\\n' " + COLUMNS
+			);
+		}
+		finally
+		{
+			if ( stmt != null ) { stmt.close(); }
+			f.delete();
+		}
+	}
+	private void batch() throws Exception
+	{
+		PreparedStatement pstmt = con.prepareStatement(
+			"INSERT into " + table + " " + COLUMNS + " VALUES ( ?, ?, ?, ? )"
+		);
+		try
+		{
+			for ( String[] row : rows )
+			{
+				for ( int i = 0; i < row.length; i++ )
+				{
+					pstmt.setString( i + 1, row[i] );
+				}
+				pstmt.addBatch();
+			}
+			pstmt.executeBatch();
+		}
+		finally
+		{
+			pstmt.close();
+		}
+	}
+
+	/**
+	 * Format rows as tab-delimited text, escaped for COPY and LOAD DATA.
+	**/
+	private void appendRows( StringBuilder buf )
+	{
+		for ( String[] row : rows )
+		{
+			for ( int i = 0; i < row.length; i++ )
+			{
+				if ( i > 0 ) { buf.append( '\t' ); }
+				escape( buf, row[i] );
+			}
+			buf.append( '\n' );
+		}
+	}
+	private static void escape( StringBuilder buf, String s )
+	{
+		for ( int i = 0; i < s.length(); i++ )
+		{
+			char c = s.charAt(i);
+			switch ( c )
+			{
+				case '\\': buf.append("\\\\"); break;
+				case '\t': buf.append("\\t");  break;
+				case '\n': buf.append("\\n");  break;
+				case '\r': buf.append("\\r");  break;
+				default:   buf.append(c);
+			}
+		}
+	}
+}
@@ -10,14 +10,19 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.Driver;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -42,6 +47,7 @@ import edu.ucsd.library.dams.triple.TripleStore;
 import edu.ucsd.library.dams.triple.TripleStoreUtil;
 import edu.ucsd.library.dams.triple.TripleStoreException;
 import edu.ucsd.library.dams.triple.convertor.SQLConvertor;
+import edu.ucsd.library.dams.triple.convertor.SQLPlanCache;
 import edu.ucsd.library.dams.triple.convertor.STSTableSchema;
 
 /**
@@ -57,6 +63,8 @@ public class RelationalTripleStore implements TripleStore
 	);
 	protected Connection con = null;
 	protected PreparedStatement insertStatement = null;
+	protected Map<String,PreparedStatement> updateStatements
+		= new HashMap<String,PreparedStatement>();
 	protected String tableName = null;
 	protected String tsName = null;
 	protected Map<String,String> nsmap = null;
@@ -67,6 +75,27 @@ public class RelationalTripleStore implements TripleStore
 	protected long start = 0L;
 	protected boolean logIngest = false;
 	protected boolean logUpdates = true;
+	protected int batchSize = 500;   // inserts per batch in transactions
+	protected int batchCount = 0;    // inserts waiting in current batch
+	protected int txDepth = 0;       // nested transaction depth
+	protected boolean rollbackOnly = false; // nested transaction rolled back
+	protected boolean txTranslations = false; // predicate records changed
+	protected int bulkSize = 10000;  // rows per bulk load chunk
+	protected int describeSize = 100; // ids per multi-object describe query
+	protected int fetchSize = 1000;  // rows fetched at a time by cursors
+	protected BulkLoader bulk = null;
+	private java.sql.Savepoint bulkSavepoint = null; // before current file
+	protected static SQLPlanCache plans = new SQLPlanCache( 1000 );
+	protected Set<String> memberPredicates = null; // indexed member links
+	protected boolean memberIndex = false; // membership table found
+	protected long memberCheckInterval = 60000L; // ms between table checks
+	private long memberChecked = 0L; // last check for membership table
+	protected List<String[]> pendingMembers = new ArrayList<String[]>();
+	protected List<ResultSet> openResults
+		= new ArrayList<ResultSet>(); // returned to callers
+	private static final String MEMBER_PREDICATES = "dams:collection,"
+		+ "dams:assembledCollection,dams:provenanceCollection,"
+		+ "dams:provenanceCollectionPart";
 	private String columnDef = null;
 	private String implClass = null;
 
@@ -79,6 +108,30 @@ public class RelationalTripleStore implements TripleStore
 		{
 			columnDef = props.getProperty("columnDef");
 			implClass = props.getProperty("driverClass");
+			if ( props.getProperty("batchSize") != null )
+			{
+				batchSize = Integer.parseInt( props.getProperty("batchSize") );
+			}
+			if ( props.getProperty("bulkSize") != null )
+			{
+				bulkSize = Integer.parseInt( props.getProperty("bulkSize") );
+			}
+			if ( props.getProperty("fetchSize") != null )
+			{
+				fetchSize = Integer.parseInt( props.getProperty("fetchSize") );
+			}
+			if ( props.getProperty("describeSize") != null )
+			{
+				describeSize = Integer.parseInt(
+					props.getProperty("describeSize")
+				);
+			}
+			if ( props.getProperty("memberCheckInterval") != null )
+			{
+				memberCheckInterval = Long.parseLong(
+					props.getProperty("memberCheckInterval")
+				);
+			}
 			Class c = Class.forName( implClass );
 			Driver driver = (Driver)c.newInstance();
 			connect( props, driver );
@@ -151,6 +204,77 @@ public class RelationalTripleStore implements TripleStore
 
 		// setup ark/uri translation
 		trans = new ArkTranslator( this, nsmap );
+
+		// membership index, if the table has been created
+		memberPredicates = expand( props.getProperty(
+			"memberPredicates", MEMBER_PREDICATES
+		) );
+		memberIndex();
+	}
+	/**
+	 * Expand a comma-separated list of URIs and prefixed names, skipping
+	 * prefixed names whose namespace isn't configured.
+	**/
+	private Set<String> expand( String list )
+	{
+		Set<String> uris = new LinkedHashSet<String>();
+		String[] names = list.split(",");
+		for ( int i = 0; i < names.length; i++ )
+		{
+			String name = names[i].trim();
+			int idx = name.indexOf(":");
+			if ( name.equals("") ) { continue; }
+			else if ( name.startsWith("http") || idx == -1 )
+			{
+				uris.add( name );
+			}
+			else if ( nsmap.get(name.substring(0,idx)) != null )
+			{
+				uris.add( nsmap.get(name.substring(0,idx))
+					+ name.substring(idx+1) );
+			}
+			else
+			{
+				log.debug( "No namespace for member predicate: " + name );
+			}
+		}
+		return uris;
+	}
+	/**
+	 * Check whether a table exists, using the database metadata so a missing
+	 * table doesn't abort the current transaction.
+	**/
+	private boolean tableExists( String table )
+	{
+		ResultSet rs = null;
+		try
+		{
+			DatabaseMetaData meta = con.getMetaData();
+			String esc = meta.getSearchStringEscape();
+			String[] names = { table, table.toUpperCase(), table.toLowerCase() };
+			for ( int i = 0; i < names.length; i++ )
+			{
+				String pattern = (esc == null) ? names[i]
+					: names[i].replace( "_", esc + "_" );
+				rs = meta.getTables( null, null, pattern, null );
+				boolean found = rs.next();
+				rs.close();
+				rs = null;
+				if ( found ) { return true; }
+			}
+			log.debug( "No membership index: " + table );
+			return false;
+		}
+		catch ( Exception ex )
+		{
+			log.warn( "Error checking for table: " + table, ex );
+			return false;
+		}
+		finally
+		{
+			try { if ( rs != null ) { rs.close(); } }
+			catch ( Exception ex1 ) { log.warn("Error closing results",ex1); }
+		}
 	}
 
 
@@ -160,13 +284,15 @@ public class RelationalTripleStore implements TripleStore
 
 	public boolean sparqlAsk( String query ) throws TripleStoreException
 	{
-		long count = sparqlCount( query );
-		return (count > 0L);
+		// ASK queries are converted with a limit of one row, and other
+		// queries stop at the first row found
+		SQLPlanCache.Plan plan = planSparql( query );
+		return sqlExists( plan.getSqlQuery(), params(plan) );
 	}
 	public long sparqlCount( String query ) throws TripleStoreException
 	{
-		SQLConvertor conv = convertSparql( query );
-		return sqlCount( conv.getSqlQuery() );
+		SQLPlanCache.Plan plan = planSparql( query );
+		return sqlCount( plan.getSqlQuery(), params(plan) );
 	}
 	public StatementIterator sparqlDescribe( String query )
 		throws TripleStoreException
@@ -200,8 +326,48 @@ public class RelationalTripleStore implements TripleStore
 	public BindingIterator sparqlSelect( String query )
 		throws TripleStoreException
 	{
-		SQLConvertor conv = convertSparql( query );
-		return sqlSelect( conv.getSqlQuery(), conv.getResultVars() );
+		SQLPlanCache.Plan plan = planSparql( query );
+		return sqlSelect(
+			plan.getSqlQuery(), plan.getResultVars(), params(plan)
+		);
+	}
+	public BindingIterator sparqlSelect( String query, int offset, int limit,
+		int timeout ) throws TripleStoreException
+	{
+		SQLPlanCache.Plan plan = planSparql( query );
+		String sql = plan.getSqlQuery();
+		List<?> params = params( plan );
+		if ( params == null )
+		{
+			sql = trans.translateURIs( sql );
+			params = Collections.emptyList();
+		}
+
+		// the driver stops after the last row of the page, and rows before
+		// the page are skipped without being converted to bindings
+		if ( offset < 0 )
+		{
+			throw new TripleStoreException( "Invalid offset: " + offset );
+		}
+		int maxRows = (limit > 0)
+			? (int)Math.min( (long)offset + limit, Integer.MAX_VALUE ) : 0;
+		ResultSet rs = select( sql, params, maxRows, timeout );
+		try
+		{
+			for ( int i = 0; i < offset && rs.next(); i++ ) { }
+		}
+		catch ( Exception ex )
+		{
+			try
+			{
+				java.sql.Statement stmt = rs.getStatement();
+				rs.close();
+				if ( stmt != null ) { stmt.close(); }
+			}
+			catch ( Exception ex2 ) { log.warn("Error closing statement",ex2); }
+			throw new TripleStoreException( "Error skipping results", ex );
+		}
+		return new RelationalBindingIterator( rs, plan.getResultVars() );
 	}
 	protected SQLConvertor convertSparql( String sparql ) throws
 		TripleStoreException
@@ -218,6 +384,53 @@ public class RelationalTripleStore implements TripleStore
 			throw new TripleStoreException(ex);
 		}
 	}
+	/**
+	 * Get the SQL for a SPARQL query from the plan cache, converting it if
+	 * no query with the same shape has been converted.
+	**/
+	protected SQLPlanCache.Plan planSparql( String sparql )
+		throws TripleStoreException
+	{
+		try
+		{
+			return plans.plan( new STSTableSchema(tableName(), null), sparql );
+		}
+		catch ( Exception ex )
+		{
+			throw new TripleStoreException(ex);
+		}
+	}
+	/**
+	 * Get the parameter values for a cached plan, with IRIs translated to
+	 * ARKs the same way select() translates IRIs in SQL.
+	 * @return Parameter values, or null if the SQL isn't parameterized.
+	**/
+	protected List<String> params( SQLPlanCache.Plan plan )
+		throws TripleStoreException
+	{
+		if ( !plan.isParameterized() ) { return null; }
+		List<String> params = new ArrayList<String>();
+		for ( int i = 0; i < plan.size(); i++ )
+		{
+			if ( plan.isURI(i) )
+			{
+				params.add( "<" + trans.toARK(plan.getParam(i), false) + ">" );
+			}
+			else
+			{
+				params.add( plan.getParam(i) );
+			}
+		}
+		return params;
+	}
+
+	/**
+	 * Get the number of cached SPARQL query plans and cache hits and misses.
+	**/
+	public static Map<String,String> planStats()
+	{
+		return plans.stats();
+	}
 
 
 	/***********************************************************************/
@@ -226,39 +439,21 @@ public class RelationalTripleStore implements TripleStore
 
 	public void logIngest( boolean b ) { this.logIngest = b; }
 
-	public void loadRDFXML( String filename, Set<String> validClasses,
+	public Set<String> loadRDFXML( String filename, Set<String> validClasses,
 		Set<String> validProperties ) throws TripleStoreException
 	{
-		try
-		{
-			FileInputStream in = new FileInputStream(filename);
-			TripleStoreUtil.loadRDFXML( in, true, this, nsmap, validClasses, validProperties );
-		}
-		catch ( TripleStoreException ex )
-		{
-			throw ex;
-		}
-		catch ( IOException ex )
-		{
-			throw new TripleStoreException(ex);
-		}
+		return TripleStoreUtil.streamRDFXML(
+			new File(filename), true, this, nsmap, validClasses,
+			validProperties
+		);
 	}
-	public void loadNTriples( String filename, Set<String> validClasses,
+	public Set<String> loadNTriples( String filename, Set<String> validClasses,
 		Set<String> validProperties ) throws TripleStoreException
 	{
-		try
-		{
-			FileInputStream in = new FileInputStream(filename);
-			TripleStoreUtil.loadNTriples( in, true, this, nsmap, validClasses, validProperties );
-		}
-		catch ( TripleStoreException ex )
-		{
-			throw ex;
-		}
-		catch ( IOException ex )
-		{
-			throw new TripleStoreException(ex);
-		}
+		return TripleStoreUtil.streamNTriples(
+			new File(filename), true, this, nsmap, validClasses,
+			validProperties
+		);
 	}
 
 	public void export( java.io.File f, boolean subjectsOnly )
@@ -269,9 +464,14 @@ public class RelationalTripleStore implements TripleStore
 	public void export( java.io.File f, boolean subjectsOnly, String parent )
 		throws TripleStoreException
 	{
-		StatementIterator it = listStatements( null, null, null, parent );
+		// read in a transaction, so drivers that only use cursors with
+		// autocommit off (PostgreSQL) fetch rows a batch at a time
+		startTransaction();
+		StatementIterator it = null;
+		boolean success = false;
 		try
 		{
+			it = listStatements( null, null, null, parent );
 			PrintWriter out = new PrintWriter(
 				new BufferedWriter( new FileWriter(f) )
 			);
@@ -281,11 +481,27 @@ public class RelationalTripleStore implements TripleStore
 				out.println( s.toString() );
 			}
 			out.close();
+			success = true;
 		}
+		catch ( TripleStoreException ex ) { throw ex; }
 		catch ( Exception ex )
 		{
 			throw new TripleStoreException(ex);
 		}
+		finally
+		{
+			if ( it != null ) { it.close(); }
+			if ( success )
+			{
+				commit();
+			}
+			else
+			{
+				// don't let a rollback error hide the original error
+				try { rollback(); }
+				catch ( Exception ex ) { log.warn("Error rolling back",ex); }
+			}
+		}
 	}
 
 
@@ -321,6 +537,7 @@ public class RelationalTripleStore implements TripleStore
 		java.sql.Statement stmt = null;
 		try
 		{
+			flushBatch();
 			stmt = con.createStatement();
 			int result = stmt.executeUpdate( sql );
 			if(logUpdates && result == 0)
@@ -344,7 +561,73 @@ public class RelationalTripleStore implements TripleStore
 		}
 	}
 	/**
-	 * Execute a SQL select command.
+	 * Excecute a SQL update command with bound parameters.  Each distinct
+	 * command is prepared once and reused for the life of the connection.
+	**/
+	protected void update( String sql, List<?> params )
+		throws TripleStoreException
+	{
+		flushBatch();
+		int result = execute( sql, params );
+		if(logUpdates && result == 0)
+		{
+			log.debug("Failed to delete: sql=" + sql + ", params: " + params);
+		}
+	}
+	/**
+	 * Execute a cached update statement without flushing the current batch.
+	 * @return The number of rows updated.
+	**/
+	private int execute( String sql, List<?> params )
+		throws TripleStoreException
+	{
+		try
+		{
+			PreparedStatement pstmt = updateStatements.get( sql );
+			if ( pstmt == null )
+			{
+				pstmt = con.prepareStatement( sql );
+				updateStatements.put( sql, pstmt );
+			}
+			bind( pstmt, params );
+			return pstmt.executeUpdate();
+		}
+		catch ( Exception ex )
+		{
+			throw new TripleStoreException( "Error performing update", ex );
+		}
+	}
+	/**
+	 * Bind parameters to a prepared statement.  Strings are bound as
+	 * strings, nulls as SQL NULL, and other values as objects.
+	**/
+	protected static void bind( PreparedStatement pstmt, List<?> params )
+		throws java.sql.SQLException
+	{
+		pstmt.clearParameters();
+		for ( int i = 0; i < params.size(); i++ )
+		{
+			Object param = params.get(i);
+			if ( param == null )
+			{
+				pstmt.setNull( i + 1, Types.VARCHAR );
+			}
+			else if ( param instanceof String )
+			{
+				pstmt.setString( i + 1, (String)param );
+			}
+			else
+			{
+				pstmt.setObject( i + 1, param );
+			}
+		}
+	}
+	/**
+	 * Execute a SQL select command.  Results are read with a forward-only,
+	 * read-only cursor that fetches fetchSize rows at a time.  Some drivers
+	 * only fetch in batches inside a transaction (PostgreSQL) or with extra
+	 * connection options (MySQL useCursorFetch=true), and otherwise read
+	 * all rows when the query is executed.
 	**/
 	protected ResultSet select( String sql ) throws TripleStoreException
 	{
@@ -353,10 +636,15 @@ public class RelationalTripleStore implements TripleStore
 		try
 		{
 			selectCount++;
+			flushBatch();
 			sql = trans.translateURIs(sql);
 			log.debug("sql: " + sql);
-			stmt = con.createStatement();
+			stmt = con.createStatement(
+				ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY
+			);
+			if ( fetchSize > 0 ) { stmt.setFetchSize( fetchSize ); }
 			rs = stmt.executeQuery( sql );
+			track( rs );
 		}
 		catch ( Exception ex )
 		{
@@ -366,6 +654,123 @@ public class RelationalTripleStore implements TripleStore
 		}
 		return rs;
 	}
+	/**
+	 * Execute a SQL select command with bound parameters.  The statement is
+	 * closed when the ResultSet's iterator is closed.
+	**/
+	protected ResultSet select( String sql, List<?> params )
+		throws TripleStoreException
+	{
+		return select( sql, params, 0, 0 );
+	}
+	/**
+	 * Execute a SQL select command with bound parameters, limiting the
+	 * number of rows retrieved and the time spent executing the query.
+	 * @param maxRows Maximum number of rows to retrieve (0 = no limit).
+	 * @param timeout Maximum seconds to execute the query (0 = no limit).
+	**/
+	protected ResultSet select( String sql, List<?> params, int maxRows,
+		int timeout ) throws TripleStoreException
+	{
+		PreparedStatement pstmt = null;
+		try
+		{
+			selectCount++;
+			flushBatch();
+			log.debug("sql: " + sql + ", params: " + params);
+			pstmt = con.prepareStatement(
+				sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY
+			);
+			if ( fetchSize > 0 ) { pstmt.setFetchSize( fetchSize ); }
+			if ( maxRows > 0 ) { pstmt.setMaxRows( maxRows ); }
+			if ( timeout > 0 ) { pstmt.setQueryTimeout( timeout ); }
+			bind( pstmt, params );
+			ResultSet rs = pstmt.executeQuery();
+			track( rs );
+			return rs;
+		}
+		catch ( Exception ex )
+		{
+			try { if ( pstmt != null ) { pstmt.close(); } }
+			catch ( Exception ex2 ) { log.warn("Error closing statement",ex2); }
+			throw new TripleStoreException(
+				"Error performing select, sql: " + sql, ex
+			);
+		}
+	}
+	/**
+	 * Track results returned to the caller, so they can be closed by reset()
+	 * if the caller doesn't close its iterator.
+	**/
+	private void track( ResultSet rs )
+	{
+		if ( openResults.size() >= 64 )
+		{
+			// forget results already closed by their iterators
+			for ( Iterator<ResultSet> it = openResults.iterator(); it.hasNext(); )
+			{
+				try
+				{
+					if ( it.next().isClosed() ) { it.remove(); }
+				}
+				catch ( Throwable t )
+				{
+					// pre-JDBC4 driver without ResultSet.isClosed()
+					break;
+				}
+			}
+		}
+		openResults.add( rs );
+	}
+	/**
+	 * Close any results, and their statements, left open by callers.
+	**/
+	private void closeStatements()
+	{
+		for ( int i = 0; i < openResults.size(); i++ )
+		{
+			ResultSet rs = openResults.get(i);
+			try
+			{
+				java.sql.Statement stmt = rs.getStatement();
+				rs.close();
+				if ( stmt != null ) { stmt.close(); }
+			}
+			catch ( Exception ex ) { log.warn("Error closing results",ex); }
+		}
+		openResults.clear();
+	}
+	/**
+	 * Execute any inserts waiting in the current batch.
+	**/
+	protected void flushBatch() throws TripleStoreException
+	{
+		if ( batchCount > 0 )
+		{
+			try
+			{
+				insertStatement.executeBatch();
+			}
+			catch ( Exception ex )
+			{
+				throw new TripleStoreException(
+					"Error performing batch insert", ex
+				);
+			}
+			finally
+			{
+				batchCount = 0;
+			}
+		}
+
+		// membership links added with the batch
+		for ( int i = 0; i < pendingMembers.size(); i++ )
+		{
+			String[] link = pendingMembers.get(i);
+			updateMember( link[0], link[1], link[2], 1 );
+		}
+		pendingMembers.clear();
+	}
 	/**
 	 * Remove surrounding quotes (""), if any, from around a string.
 	**/
@@ -441,31 +846,49 @@ public class RelationalTripleStore implements TripleStore
 		else { return s.replaceAll("'","''"); }
 	}
 	/**
-	 * Convert non-null parameters to WHERE-clause parts.
+	 * Convert non-null parameters to WHERE-clause parts, adding their values
+	 * to a list of parameters to bind.
 	**/
 	protected String conditions( Identifier subject, Identifier predicate,
-		String object )
+		String object, List<Object> params )
 	{
 		String cond = "";
 		if ( subject != null )
 		{
-			cond = "subject = '" + escapeSql(subject.toString()) + "'";
+			cond = "subject = ?";
+			params.add( subject.toString() );
 		}
 
 		if ( predicate != null )
 		{
 			if ( !cond.equals("") ) { cond += " AND "; }
-			cond += "predicate = '" + escapeSql(predicate.toString()) + "'";
+			cond += "predicate = ?";
+			params.add( predicate.toString() );
 		}
 
 		if ( object != null )
 		{
 			if ( !cond.equals("") ) { cond += " AND "; }
-			cond += "object = '" + escapeSql(object.toString()) + "'";
+			cond += "object = ?";
+			params.add( object );
 		}
 
 		return cond;
 	}
+	/**
+	 * Translate a URI value to an ARK, the same way select() translates URIs
+	 * in SQL.  Literals and blank nodes are returned unchanged.
+	**/
+	protected String translate( String value ) throws TripleStoreException
+	{
+		if ( value != null && value.startsWith("<") && value.endsWith(">")
+			&& value.indexOf(" ") == -1 )
+		{
+			return "<" + trans.toARK(value.substring(1,value.length()-1),false)
+				+ ">";
+		}
+		return value;
+	}
 	protected static Identifier toIdentifier( String id )
 	{
 		Identifier idObj = null;
@@ -502,10 +925,8 @@ public class RelationalTripleStore implements TripleStore
 	protected StatementIterator sqlDescribe( String id )
 		throws TripleStoreException
 	{
-		// keep stripBrackets() call to remove any SPARQL lead-in
-		String sql = "SELECT * from " + tableName()
-			+ " WHERE parent = '" + id + "'";
-		ResultSet rs = select(sql);
+		String sql = "SELECT * from " + tableName() + " WHERE parent = ?";
+		ResultSet rs = select( sql, Collections.singletonList(id) );
 		return new RelationalStatementIterator(rs, trans);
 	}
 	/**
@@ -516,16 +937,31 @@ public class RelationalTripleStore implements TripleStore
 	protected StatementIterator sqlDescribe( List<String> ids )
 		throws TripleStoreException
 	{
-		// keep stripBrackets() call to remove any SPARQL lead-in
-		String sql = "SELECT * from " + tableName() + " WHERE parent in (";
-		for ( int i = 0; i < ids.size(); i++ )
+		// one query per chunk of ids, run as the previous chunk is consumed
+		return new RelationalChunkIterator( this, ids, describeSize, trans );
+	}
+	/**
+	 * Select all triples for one chunk of a group of objects.  Every query
+	 * has the same number of parameters, with unused parameters bound to
+	 * NULL, so the driver and database can reuse the statement.
+	 * @param ids Object identifiers.
+	 * @param start Index of the first identifier in the chunk.
+	**/
+	ResultSet describeChunk( List<String> ids, int start )
+		throws TripleStoreException
+	{
+		StringBuffer sql = new StringBuffer(
+			"SELECT * from " + tableName() + " WHERE parent in ("
+		);
+		List<String> params = new ArrayList<String>();
+		for ( int i = 0; i < describeSize; i++ )
 		{
-			if ( i > 0 ) { sql += ","; }
-			sql += "'" + ids.get(i) + "'";
+			if ( i > 0 ) { sql.append(","); }
+			sql.append( "?" );
+			params.add( start + i < ids.size() ? ids.get(start + i) : null );
 		}
-		sql += ")";
-		ResultSet rs = select(sql);
-		return new RelationalStatementIterator(rs, trans);
+		sql.append( ")" );
+		return select( sql.toString(), params );
 	}
 	/**
 	 * Perform a SQL SELECT query.
@@ -534,38 +970,104 @@ public class RelationalTripleStore implements TripleStore
 	protected BindingIterator sqlSelect( String query, List<String> fields )
 		throws TripleStoreException
 	{
-		ResultSet rs = select(query);
+		return sqlSelect( query, fields, null );
+	}
+	/**
+	 * Perform a SQL SELECT query with bound parameters.
+	 * @param query SQL SELECT query to execute.
+	 * @param params Parameter values, or null to translate IRIs in the query.
+	**/
+	protected BindingIterator sqlSelect( String query, List<String> fields,
+		List<?> params ) throws TripleStoreException
+	{
+		ResultSet rs = (params == null) ? select(query) : select(query, params);
 		return new RelationalBindingIterator( rs, fields );
 	}
 	/**
-	 * Perform a SQL SELECT query and count the results.
+	 * Perform a SQL SELECT query and check whether it has any results,
+	 * fetching at most one row instead of counting all of them.
 	 * @param query SQL SELECT query to execute.
+	 * @param params Parameter values, or null to translate IRIs in the query.
 	**/
-	protected long sqlCount( String query ) throws TripleStoreException
+	protected boolean sqlExists( String query, List<?> params )
+		throws TripleStoreException
 	{
-		long count = -1L;
-		String sql = "select count(*) from (" + query + ") as x";
-		ResultSet rs = select(sql);
+		PreparedStatement pstmt = null;
 		try
 		{
-			if ( rs.next() )
-			{
-				count = rs.getLong(1);
-			}
-			else
+			selectCount++;
+			flushBatch();
+			if ( params == null )
 			{
-				throw new TripleStoreException("Unable to lookup bn id");
+				query = trans.translateURIs( query );
+				params = Collections.emptyList();
 			}
+			log.debug("sql: " + query + ", params: " + params);
+			pstmt = con.prepareStatement( query );
+			pstmt.setMaxRows( 1 );
+			bind( pstmt, params );
+			ResultSet rs = pstmt.executeQuery();
+			boolean found = rs.next();
+			rs.close();
+			return found;
+		}
+		catch ( TripleStoreException ex ) { throw ex; }
+		catch ( Exception ex )
+		{
+			throw new TripleStoreException(
+				"Error performing select, sql: " + query, ex
+			);
 		}
-		catch ( Exception ex ) { throw new TripleStoreException(ex); }
 		finally
 		{
-			try { rs.close(); }
-			catch ( Exception ex1 ) { throw new TripleStoreException(ex1); }
+			try { if ( pstmt != null ) { pstmt.close(); } }
+			catch ( Exception ex ) { log.warn("Error closing statement",ex); }
 		}
-		return count;
 	}
-
+	/**
+	 * Perform a SQL SELECT query and count the results.
+	 * @param query SQL SELECT query to execute.
+	**/
+	protected long sqlCount( String query ) throws TripleStoreException
+	{
+		return sqlCount( query, null );
+	}
+	/**
+	 * Perform a SQL SELECT query with bound parameters and count the results.
+	 * @param query SQL SELECT query to execute.
+	 * @param params Parameter values, or null to translate IRIs in the query.
+	**/
+	protected long sqlCount( String query, List<?> params )
+		throws TripleStoreException
+	{
+		long count = -1L;
+		String sql = "select count(*) from (" + query + ") as x";
+		ResultSet rs = (params == null) ? select(sql) : select(sql, params);
+		try
+		{
+			if ( rs.next() )
+			{
+				count = rs.getLong(1);
+			}
+			else
+			{
+				throw new TripleStoreException("Unable to lookup bn id");
+			}
+		}
+		catch ( Exception ex ) { throw new TripleStoreException(ex); }
+		finally
+		{
+			try
+			{
+				java.sql.Statement stmt = rs.getStatement();
+				rs.close();
+				if ( stmt != null ) { stmt.close(); }
+			}
+			catch ( Exception ex1 ) { throw new TripleStoreException(ex1); }
+		}
+		return count;
+	}
+
 
 	/***********************************************************************/
 	/*** Triple API Implementation *****************************************/
@@ -597,10 +1099,16 @@ public class RelationalTripleStore implements TripleStore
 	public void addLiteralStatement( Identifier subject, Identifier predicate,
 		String object, Identifier parent ) throws TripleStoreException
 	{
+		if ( bulk != null )
+		{
+			bulkAdd( subject, predicate, object, parent );
+			return;
+		}
 		try
 		{
 			if ( parent == null ) { parent = subject; }
-			if ( insertStatement != null && insertCount % 500 == 0 )
+			if ( insertStatement != null && batchCount == 0
+				&& insertCount % 500 == 0 )
 			{
 				// close and reopen to prevent problems
 				insertStatement.close();
@@ -615,13 +1123,56 @@ public class RelationalTripleStore implements TripleStore
 			}
 			insertStatement.clearParameters();
 			insertStatement.setString( 1, subject.toString() );
-			insertStatement.setString(
-				2, trans.toARK(predicate,false).toString()
-			);
+			String pre = trans.toARK(predicate,false).toString();
+			insertStatement.setString( 2, pre );
 			String escaped = escapeValue(object,trans);
 			insertStatement.setString( 3, escaped );
 			insertStatement.setString( 4, parent.toString() );
-			update( insertStatement );
+			boolean member = escaped.startsWith("<")
+				&& memberArks().contains( pre ) && memberIndex();
+			if ( txDepth > 0 && batchSize > 1 )
+			{
+				// batch inserts until the batch is full or the data is read
+				insertStatement.addBatch();
+				insertCount++;
+				batchCount++;
+				if ( member )
+				{
+					pendingMembers.add(
+						new String[]{ escaped, pre, subject.toString() }
+					);
+				}
+				if ( batchCount >= batchSize )
+				{
+					flushBatch();
+				}
+			}
+			else if ( member )
+			{
+				// statement and membership link are written together
+				startTransaction();
+				try
+				{
+					update( insertStatement );
+					updateMember( escaped, pre, subject.toString(), 1 );
+					commit();
+				}
+				catch ( TripleStoreException ex )
+				{
+					rollback();
+					throw ex;
+				}
+			}
+			else
+			{
+				update( insertStatement );
+			}
+			if ( trans.isTranslationPredicate(predicate) )
+			{
+				// predicate record changed, reload shared translations
+				trans.invalidate();
+				txTranslations = txDepth > 0;
+			}
 			if ( logIngest )
 			{
 				added++;
@@ -639,6 +1190,42 @@ public class RelationalTripleStore implements TripleStore
 			throw new TripleStoreException(ex);
 		}
 	}
+	/**
+	 * Add a row to the current bulk load, looking up each predicate and
+	 * object URI only once.  Literals are streamed in the canonical form
+	 * escapeValue() produces, so they are added as-is.
+	**/
+	private void bulkAdd( Identifier subject, Identifier predicate,
+		String object, Identifier parent ) throws TripleStoreException
+	{
+		if ( parent == null ) { parent = subject; }
+		String pre = bulk.arks.get( predicate.toString() );
+		if ( pre == null )
+		{
+			pre = trans.toARK(predicate,false).toString();
+			bulk.arks.put( predicate.toString(), pre );
+		}
+		String obj = object;
+		if ( object != null && object.startsWith("<") )
+		{
+			obj = bulk.arks.get( object );
+			if ( obj == null )
+			{
+				obj = escapeValue( object, trans );
+				bulk.arks.put( object, obj );
+			}
+		}
+		bulk.add( subject.toString(), pre, obj, parent.toString() );
+
+		if ( trans.isTranslationPredicate(predicate) )
+		{
+			// write predicate records so later rows are translated with them
+			bulk.flush();
+			bulk.arks.clear();
+			trans.invalidate();
+			txTranslations = txDepth > 0;
+		}
+	}
 	public Identifier blankNode() throws TripleStoreException
 	{
 		UUID rnd = UUID.randomUUID();
@@ -654,10 +1241,10 @@ public class RelationalTripleStore implements TripleStore
 	}
 	public boolean exists( Identifier subject ) throws TripleStoreException
 	{
-		String sql = "SELECT * from " + tableName()
-			+ " WHERE parent = '<" + subject.getId() + ">'";
-		long objCount = sqlCount( sql );
-		return objCount > 0L;
+		String sql = "SELECT parent from " + tableName() + " WHERE parent = ?";
+		return sqlExists(
+			sql, Collections.singletonList("<" + subject.getId() + ">")
+		);
 	}
 	public SubjectIterator listSubjects() throws TripleStoreException
 	{
@@ -678,24 +1265,28 @@ public class RelationalTripleStore implements TripleStore
 		// generate sql
 		String sql = "SELECT id,subject,predicate,object,parent ";
 		sql += "FROM " + tableName();
+		List<Object> params = new ArrayList<Object>();
 		if ( subject != null || predicate != null || object != null
 			|| parent != null )
 		{
 			sql += " WHERE ";
 			if ( parent != null )
 			{
-				sql += " parent like '%" + parent + "%'";
+				sql += " parent like ?";
+				params.add( "%" + parent + "%" );
 				if ( subject != null || predicate != null || object != null )
 				{
 					sql += " AND ";
 				}
 			}
 			String obj = null;
-			if ( object != null ) { obj = object.toString(); }
-			sql += conditions( subject, predicate, obj );
+			if ( object != null ) { obj = translate( object.toString() ); }
+			sql += conditions(
+				subject, trans.toARK(predicate,false), obj, params
+			);
 		}
 
-		ResultSet rs = select(sql);
+		ResultSet rs = select( sql, params );
 		return new RelationalStatementIterator(rs, trans);
 	}
 	public StatementIterator listLiteralStatements( Identifier subject,
@@ -704,13 +1295,40 @@ public class RelationalTripleStore implements TripleStore
 		// generate sql
 		String sql = "SELECT id,subject,predicate,object,parent ";
 		sql += "FROM " + tableName();
+		List<Object> params = new ArrayList<Object>();
 		if ( subject != null || predicate != null || object != null )
 		{
 			sql += " WHERE ";
-			sql += conditions( subject, predicate, object );
+			sql += conditions(
+				subject, trans.toARK(predicate,false), translate(object), params
+			);
 		}
 
-		ResultSet rs = select(sql);
+		ResultSet rs = select( sql, params );
+		return new RelationalStatementIterator(rs, trans);
+	}
+	public StatementIterator listChildStatements( Identifier object,
+		Set<Identifier> predicates ) throws TripleStoreException
+	{
+		// one query for the children of all linked objects, instead of
+		// listing the objects and describing each one
+		StringBuffer sql = new StringBuffer(
+			"SELECT c.* FROM " + tableName() + " c WHERE c.parent in ("
+				+ "SELECT m.subject FROM " + tableName() + " m "
+				+ "WHERE m.object = ? AND m.predicate in ("
+		);
+		List<String> params = new ArrayList<String>();
+		params.add( translate(object.toString()) );
+		for ( Iterator<Identifier> it = predicates.iterator(); it.hasNext(); )
+		{
+			params.add( trans.toARK(it.next(),false).toString() );
+			sql.append( it.hasNext() ? "?," : "?" );
+		}
+		sql.append(
+			")) AND c.subject <> c.parent AND c.subject like '<%'"
+				+ " ORDER BY c.parent, c.subject"
+		);
+		ResultSet rs = select( sql.toString(), params );
 		return new RelationalStatementIterator(rs, trans);
 	}
 
@@ -738,17 +1356,19 @@ public class RelationalTripleStore implements TripleStore
 		}
 
 		// generate sql
-		String sql = "DELETE FROM " + tableName();
-		if ( subject != null || predicate != null || object != null )
+		List<Object> params = new ArrayList<Object>();
+		String cond = conditions(
+			subject, trans.toARK(predicate,true), escapeValue(object,trans),
+			params
+		);
+		// predicate records may be deleted by statements without a predicate
+		delete( cond, params, predicate == null );
+		if ( trans.isTranslationPredicate(predicate) )
 		{
-			sql += " WHERE ";
-			sql += conditions(
-				subject,
-				trans.toARK(predicate,true),
-				escapeValue(object,trans)
-			);
+			// predicate record changed, reload shared translations
+			trans.invalidate();
+			txTranslations = txDepth > 0;
 		}
-		update( sql );
 	}
 	/**
 	 * Remove a single statement by id.
@@ -756,19 +1376,447 @@ public class RelationalTripleStore implements TripleStore
 	**/
 	public void removeStatement( long id ) throws TripleStoreException
 	{
-		String sql = "DELETE FROM " + tableName() + " WHERE id = " + id;
-		update( sql );
+		delete( "id = ?", Collections.singletonList(id), true );
 	}
 	public void removeObject( Identifier subject ) throws TripleStoreException
 	{
-		String sql = "DELETE from " + tableName() + " WHERE parent = '" 
-			+ subject.toString() + "'";
-		update( sql );
+		delete(
+			"parent = ?", Collections.singletonList(subject.toString()), true
+		);
 	}
 	public void removeAll() throws TripleStoreException
 	{
 		String sql = "DELETE from " + tableName();
-		update( sql );
+		if ( !memberIndex() )
+		{
+			update( sql );
+		}
+		else
+		{
+			startTransaction();
+			try
+			{
+				update( sql );
+				update( "DELETE from " + memberTable() );
+				commit();
+			}
+			catch ( TripleStoreException ex )
+			{
+				rollback();
+				throw ex;
+			}
+		}
+
+		// predicate records deleted, reload shared translations
+		trans.invalidate();
+		txTranslations = txDepth > 0;
+	}
+	/**
+	 * Delete statements, updating the membership index in the same
+	 * transaction.
+	 * @param cond WHERE-clause selecting the statements.
+	 * @param params Parameters for the WHERE-clause.
+	 * @param records If true, reload the shared translations if any of the
+	 *   statements are predicate records.
+	**/
+	private void delete( String cond, List<?> params, boolean records )
+		throws TripleStoreException
+	{
+		String sql = "DELETE FROM " + tableName() + " WHERE " + cond;
+		boolean translations = records && hasTranslations( cond, params );
+		if ( !memberIndex() )
+		{
+			update( sql, params );
+		}
+		else
+		{
+			startTransaction();
+			try
+			{
+				removeMembers( cond, params );
+				update( sql, params );
+				commit();
+			}
+			catch ( TripleStoreException ex )
+			{
+				rollback();
+				throw ex;
+			}
+		}
+		if ( translations )
+		{
+			// predicate record deleted, reload shared translations
+			trans.invalidate();
+			txTranslations = txDepth > 0;
+		}
+	}
+	/**
+	 * Check whether any of the selected statements define predicate
+	 * translations.
+	**/
+	private boolean hasTranslations( String cond, List<?> params )
+		throws TripleStoreException
+	{
+		List<String> pres = trans.translationPredicates();
+		if ( pres.size() == 0 ) { return false; }
+		List<Object> all = new ArrayList<Object>( params );
+		StringBuffer sql = new StringBuffer(
+			"SELECT subject FROM " + tableName() + " WHERE " + cond
+				+ " AND predicate in ("
+		);
+		for ( int i = 0; i < pres.size(); i++ )
+		{
+			sql.append( i > 0 ? ",?" : "?" );
+			all.add( "<" + trans.toARK(pres.get(i),false) + ">" );
+		}
+		sql.append( ")" );
+		return sqlExists( sql.toString(), all );
+	}
+
+	/***********************************************************************/
+	/*** Membership Index **************************************************/
+	/***********************************************************************/
+
+	/**
+	 * Get the table where membership links are counted.
+	**/
+	protected String memberTable() { return tsName + "_members"; }
+
+	/**
+	 * Check whether the membership index is available.  The table may be
+	 * created by rebuildMembers() in another connection or process after
+	 * this one connected, so until it is found it is checked again, at most
+	 * once every memberCheckInterval milliseconds so writes don't each wait
+	 * for metadata queries.
+	**/
+	protected boolean memberIndex()
+	{
+		if ( !memberIndex && memberPredicates.size() > 0 && con != null )
+		{
+			long now = System.currentTimeMillis();
+			if ( memberChecked == 0L
+				|| now - memberChecked >= memberCheckInterval )
+			{
+				memberIndex = tableExists( memberTable() );
+				memberChecked = now;
+			}
+		}
+		return memberIndex;
+	}
+
+	/**
+	 * DDL to create the membership table and its index.
+	**/
+	protected String[] memberDDL()
+	{
+		String tbl = memberTable();
+		String[] sql = new String[2];
+		sql[0] = "create table " + tbl + " (collection varchar(256), "
+			+ "predicate varchar(256), member varchar(256), links integer)";
+		sql[1] = "create index " + tbl + "_col ON " + tbl
+			+ " (collection, predicate)";
+		return sql;
+	}
+
+	/**
+	 * Stored (ARK) form of the indexed member predicates.
+	**/
+	private Set<String> memberArks() throws TripleStoreException
+	{
+		Set<String> arks = new LinkedHashSet<String>();
+		for ( Iterator<String> it = memberPredicates.iterator(); it.hasNext(); )
+		{
+			arks.add( "<" + trans.toARK(it.next(),false) + ">" );
+		}
+		return arks;
+	}
+
+	/**
+	 * Add to or subtract from the number of statements linking a member to a
+	 * collection, removing the link when none are left.
+	**/
+	private void updateMember( String collection, String predicate,
+		String member, int delta ) throws TripleStoreException
+	{
+		List<Object> params = new ArrayList<Object>();
+		params.add( delta );
+		params.add( collection );
+		params.add( predicate );
+		params.add( member );
+		int updated = execute(
+			"UPDATE " + memberTable() + " SET links = links + ? "
+				+ "WHERE collection = ? AND predicate = ? AND member = ?",
+			params
+		);
+		if ( updated == 0 && delta > 0 )
+		{
+			execute(
+				"INSERT INTO " + memberTable()
+					+ " (links, collection, predicate, member)"
+					+ " VALUES ( ?, ?, ?, ? )",
+				params
+			);
+		}
+		else if ( delta < 0 )
+		{
+			execute(
+				"DELETE FROM " + memberTable() + " WHERE links <= 0 "
+					+ "AND collection = ? AND predicate = ? AND member = ?",
+				params.subList(1,4)
+			);
+		}
+	}
+
+	/**
+	 * Update the membership index for statements about to be deleted.
+	 * @param cond WHERE-clause selecting the statements.
+	 * @param params Parameters for the WHERE-clause.
+	**/
+	private void removeMembers( String cond, List<?> params )
+		throws TripleStoreException
+	{
+		if ( !memberIndex() ) { return; }
+
+		List<Object> all = new ArrayList<Object>( params );
+		StringBuffer sql = new StringBuffer(
+			"SELECT object, predicate, subject FROM " + tableName()
+				+ " WHERE " + cond + " AND predicate in ("
+		);
+		Set<String> arks = memberArks();
+		for ( int i = 0; i < arks.size(); i++ )
+		{
+			sql.append( i > 0 ? ",?" : "?" );
+		}
+		sql.append( ")" );
+		all.addAll( arks );
+
+		List<String[]> links = new ArrayList<String[]>();
+		ResultSet rs = select( sql.toString(), all );
+		try
+		{
+			while ( rs.next() )
+			{
+				String obj = rs.getString(1);
+				if ( obj != null && obj.startsWith("<") )
+				{
+					links.add(
+						new String[]{ obj, rs.getString(2), rs.getString(3) }
+					);
+				}
+			}
+		}
+		catch ( Exception ex )
+		{
+			throw new TripleStoreException( "Error finding members", ex );
+		}
+		finally
+		{
+			try
+			{
+				java.sql.Statement stmt = rs.getStatement();
+				rs.close();
+				if ( stmt != null ) { stmt.close(); }
+			}
+			catch ( Exception ex ) { log.warn("Error closing statement",ex); }
+		}
+		for ( int i = 0; i < links.size(); i++ )
+		{
+			String[] link = links.get(i);
+			updateMember( link[0], link[1], link[2], -1 );
+		}
+	}
+
+	public long countMembers( Set<Identifier> collections,
+		Set<Identifier> predicates ) throws TripleStoreException
+	{
+		if ( collections.size() == 0 || !memberIndex() ) { return -1L; }
+
+		StringBuffer sql = new StringBuffer(
+			"SELECT DISTINCT member FROM " + memberTable()
+				+ " WHERE collection in ("
+		);
+		List<String> params = new ArrayList<String>();
+		for ( Iterator<Identifier> it = collections.iterator(); it.hasNext(); )
+		{
+			params.add( it.next().toString() );
+			sql.append( it.hasNext() ? "?," : "?" );
+		}
+		sql.append( ") AND predicate in (" );
+		for ( Iterator<Identifier> it = predicates.iterator(); it.hasNext(); )
+		{
+			Identifier pre = it.next();
+			if ( !memberPredicates.contains(pre.getId()) )
+			{
+				// not indexed
+				return -1L;
+			}
+			params.add( "<" + trans.toARK(pre.getId(),false) + ">" );
+			sql.append( it.hasNext() ? "?," : "?" );
+		}
+		sql.append( ")" );
+		return sqlCount( sql.toString(), params );
+	}
+	public long rebuildMembers() throws TripleStoreException
+	{
+		if ( memberPredicates.size() == 0 )
+		{
+			throw new TripleStoreException(
+				"No member predicates configured: " + tsName
+			);
+		}
+		if ( !tableExists(memberTable()) )
+		{
+			String[] ddl = memberDDL();
+			for ( int i = 0; i < ddl.length; i++ ) { update( ddl[i] ); }
+		}
+
+		// recount all links in one pass over the member predicates
+		StringBuffer sql = new StringBuffer(
+			"INSERT INTO " + memberTable()
+				+ " (collection, predicate, member, links)"
+				+ " SELECT object, predicate, subject, count(*) FROM "
+				+ tableName() + " WHERE object like '<%' AND predicate in ("
+		);
+		List<String> params = new ArrayList<String>( memberArks() );
+		for ( int i = 0; i < params.size(); i++ )
+		{
+			sql.append( i > 0 ? ",?" : "?" );
+		}
+		sql.append( ") GROUP BY object, predicate, subject" );
+
+		startTransaction();
+		try
+		{
+			update( "DELETE FROM " + memberTable() );
+			update( sql.toString(), params );
+			commit();
+		}
+		catch ( TripleStoreException ex )
+		{
+			rollback();
+			throw ex;
+		}
+		memberIndex = true;
+		return sqlCount(
+			"SELECT collection FROM " + memberTable(),
+			Collections.emptyList()
+		);
+	}
+	public void startTransaction() throws TripleStoreException
+	{
+		if ( txDepth == 0 )
+		{
+			try
+			{
+				con.setAutoCommit( false );
+			}
+			catch ( Exception ex )
+			{
+				throw new TripleStoreException(
+					"Error starting transaction", ex
+				);
+			}
+		}
+		txDepth++;
+	}
+	public void commit() throws TripleStoreException
+	{
+		if ( txDepth == 0 ) { return; }
+		if ( txDepth > 1 )
+		{
+			txDepth--;
+			return;
+		}
+		if ( rollbackOnly )
+		{
+			abort();
+			throw new TripleStoreException(
+				"Transaction rolled back by a nested transaction"
+			);
+		}
+		try
+		{
+			flushBatch();
+			con.commit();
+			txDepth = 0;
+		}
+		catch ( TripleStoreException ex )
+		{
+			abort();
+			throw ex;
+		}
+		catch ( Exception ex )
+		{
+			abort();
+			throw new TripleStoreException(
+				"Error committing transaction", ex
+			);
+		}
+		endTransaction();
+	}
+	public void rollback() throws TripleStoreException
+	{
+		if ( txDepth == 0 ) { return; }
+		if ( txDepth == 2 && bulkSavepoint != null )
+		{
+			// bulk loads discard a failed file back to the savepoint before it
+			txDepth--;
+			bulkRollback();
+			return;
+		}
+		if ( txDepth > 1 )
+		{
+			// discard the updates when the outermost transaction ends
+			txDepth--;
+			rollbackOnly = true;
+			return;
+		}
+		abort();
+	}
+	/**
+	 * Roll back the whole transaction, however deeply nested.
+	**/
+	private void abort() throws TripleStoreException
+	{
+		if ( txDepth == 0 ) { return; }
+		txDepth = 0;
+		rollbackOnly = false;
+		batchCount = 0;
+		pendingMembers.clear();
+		try
+		{
+			if ( insertStatement != null ) { insertStatement.clearBatch(); }
+			con.rollback();
+		}
+		catch ( Exception ex )
+		{
+			throw new TripleStoreException(
+				"Error rolling back transaction", ex
+			);
+		}
+		finally
+		{
+			endTransaction();
+		}
+	}
+	private void endTransaction() throws TripleStoreException
+	{
+		// other connections may have reloaded translations before commit
+		if ( txTranslations )
+		{
+			trans.invalidate();
+			txTranslations = false;
+		}
+		try
+		{
+			con.setAutoCommit( true );
+		}
+		catch ( Exception ex )
+		{
+			throw new TripleStoreException(
+				"Error ending transaction", ex
+			);
+		}
 	}
 	public long size() throws TripleStoreException
 	{
@@ -796,6 +1844,17 @@ public class RelationalTripleStore implements TripleStore
 	}
 	public void close() throws TripleStoreException
 	{
+		// discard uncommitted updates and unread results
+		closeStatements();
+		try
+		{
+			abort();
+		}
+		catch ( Exception ex )
+		{
+			log.warn( "Error rolling back transaction", ex );
+		}
+
 		// close pstmts
 		if ( insertStatement != null )
 		{
@@ -809,6 +1868,19 @@ public class RelationalTripleStore implements TripleStore
 				log.warn( "Error closing insert statement", ex );
 			}
 		}
+		for ( Iterator<PreparedStatement> it
+			= updateStatements.values().iterator(); it.hasNext(); )
+		{
+			try
+			{
+				it.next().close();
+			}
+			catch ( Exception ex )
+			{
+				log.warn( "Error closing update statement", ex );
+			}
+		}
+		updateStatements.clear();
 
 		// close con
 		try
@@ -824,13 +1896,236 @@ public class RelationalTripleStore implements TripleStore
 	public void init() throws TripleStoreException
 	{
 		String tbl = tsName + "_triples";
-		String[] sql = new String[5];
+		String[] sql = new String[7];
 		sql[0] = "create table " + tbl + " (" + columnDef + ")";
-		sql[1] = "create index " + tbl + "_sub ON " + tbl + " (subject)";
-		sql[2] = "create index " + tbl + "_pre ON " + tbl + " (predicate)";
-		sql[3] = "create index " + tbl + "_obj ON " + tbl + " (object)";
-		sql[4] = "create index " + tbl + "_par ON " + tbl + " (parent)";
+		String[] indexes = indexDDL();
+		System.arraycopy( indexes, 0, sql, 1, indexes.length );
+		String[] members = memberDDL();
+		System.arraycopy( members, 0, sql, 5, members.length );
 		init( sql );
+		memberIndex = memberPredicates.size() > 0;
+	}
+	/**
+	 * DDL to create the indexes on the triples table.
+	**/
+	protected String[] indexDDL()
+	{
+		String tbl = tsName + "_triples";
+		String[] sql = new String[4];
+		sql[0] = "create index " + tbl + "_sub ON " + tbl + " (subject)";
+		sql[1] = "create index " + tbl + "_pre ON " + tbl + " (predicate)";
+		sql[2] = "create index " + tbl + "_obj ON " + tbl + " (object)";
+		sql[3] = "create index " + tbl + "_par ON " + tbl + " (parent)";
+		return sql;
+	}
+	/**
+	 * Drop the indexes on the triples table.  Errors are logged and ignored
+	 * so a load can continue if an index was already dropped.
+	**/
+	protected void dropIndexes()
+	{
+		String tbl = tsName + "_triples";
+		String[] names = { "_sub", "_pre", "_obj", "_par" };
+		boolean mysql = implClass != null && implClass.indexOf("mysql") != -1;
+		for ( int i = 0; i < names.length; i++ )
+		{
+			String sql = "drop index " + tbl + names[i];
+			if ( mysql ) { sql += " on " + tbl; }
+			try
+			{
+				update( sql );
+			}
+			catch ( Exception ex )
+			{
+				log.warn( "Error dropping index: " + sql, ex );
+			}
+		}
+	}
+	/**
+	 * Create the indexes on the triples table.
+	**/
+	protected void createIndexes() throws TripleStoreException
+	{
+		String[] sql = indexDDL();
+		for ( int i = 0; i < sql.length; i++ )
+		{
+			log.info( sql[i] );
+			update( sql[i] );
+		}
+	}
+	public long bulkLoad( List<File> files, Set<String> validClasses,
+		Set<String> validProperties, boolean resume, BulkListener listener )
+		throws TripleStoreException
+	{
+		// only allowed on an empty table, since there is no delete pass
+		java.sql.Statement stmt = null;
+		try
+		{
+			stmt = con.createStatement();
+			stmt.setMaxRows( 1 );
+			ResultSet rs = stmt.executeQuery(
+				"select subject from " + tableName()
+			);
+			if ( rs.next() && !resume )
+			{
+				throw new TripleStoreException(
+					"Bulk load requires an empty triplestore: " + tsName
+				);
+			}
+			bulk = new BulkLoader( con, tableName(), bulkSize );
+		}
+		catch ( TripleStoreException ex ) { throw ex; }
+		catch ( Exception ex )
+		{
+			throw new TripleStoreException( ex );
+		}
+		finally
+		{
+			try { if ( stmt != null ) { stmt.close(); } }
+			catch ( Exception ex1 ) { log.warn("Error closing statement",ex1); }
+		}
+
+		log.info(
+			"Bulk loading " + files.size() + " files using " + bulk.method()
+		);
+		dropIndexes();
+		long loaded = 0L;
+		boolean success = false;
+		try
+		{
+			// commit whole files, about bulkSize rows at a time, so the
+			// files committed can be checkpointed
+			List<File> uncommitted = new ArrayList<File>();
+			startTransaction();
+			for ( File f : files )
+			{
+				String name = f.getName().toLowerCase();
+				if ( !name.endsWith(".rdf") && !name.endsWith(".xml")
+					&& !name.endsWith(".nt") && !name.endsWith(".ntriples") )
+				{
+					log.warn( "Unknown format: " + f.getAbsolutePath() );
+					continue;
+				}
+
+				// a file that can't be loaded is rolled back to a savepoint,
+				// without losing the other files in the transaction
+				Set<String> errors = null;
+				try
+				{
+					bulk.mark();
+					bulkSavepoint = con.setSavepoint();
+				}
+				catch ( SQLException ex )
+				{
+					throw new TripleStoreException( "Error setting savepoint", ex );
+				}
+				try
+				{
+					if ( name.endsWith(".rdf") || name.endsWith(".xml") )
+					{
+						errors = TripleStoreUtil.streamRDFXML( f, false, this,
+							nsmap, validClasses, validProperties );
+					}
+					else
+					{
+						errors = TripleStoreUtil.streamNTriples( f, false, this,
+							nsmap, validClasses, validProperties );
+					}
+				}
+				catch ( TripleStoreException ex )
+				{
+					log.warn( "Error loading " + f.getAbsolutePath(), ex );
+					txDepth = 1;
+					bulkRollback();
+					errors = Collections.singleton( ex.toString() );
+				}
+				finally
+				{
+					try { con.releaseSavepoint( bulkSavepoint ); }
+					catch ( SQLException ex ) { log.debug("Error releasing savepoint",ex); }
+					bulkSavepoint = null;
+				}
+
+				if ( errors != null && errors.size() > 0 )
+				{
+					log.warn( "Invalid RDF in " + f.getAbsolutePath()
+						+ ": " + errors );
+					if ( listener != null ) { listener.fileFailed(f, errors); }
+					continue;
+				}
+				uncommitted.add( f );
+				if ( bulk.count() + bulk.pending() - loaded >= bulkSize )
+				{
+					loaded = bulkCommit( uncommitted, listener );
+					startTransaction();
+				}
+			}
+			loaded = bulkCommit( uncommitted, listener );
+			success = true;
+		}
+		finally
+		{
+			bulk.clear();
+			bulk = null;
+			if ( !success )
+			{
+				// discard uncommitted files, keeping the original error
+				try
+				{
+					rollback();
+					createIndexes();
+				}
+				catch ( Exception ex )
+				{
+					log.error( "Error cleaning up failed bulk load", ex );
+				}
+			}
+		}
+		createIndexes();
+
+		// bulk loads bypass membership updates, so count them all at once
+		if ( memberIndex() ) { rebuildMembers(); }
+		return loaded;
+	}
+	/**
+	 * Roll back the current bulk load file to the savepoint before it.
+	**/
+	private void bulkRollback() throws TripleStoreException
+	{
+		try
+		{
+			// the savepoint may not survive the rollback, so set it again in
+			// case the file is retried or rolled back again
+			con.rollback( bulkSavepoint );
+			bulkSavepoint = con.setSavepoint();
+		}
+		catch ( SQLException ex )
+		{
+			throw new TripleStoreException( "Error rolling back file", ex );
+		}
+		rollbackOnly = false;
+		bulk.reset();
+
+		// predicate records may have been rolled back
+		bulk.arks.clear();
+		trans.invalidate();
+	}
+	/**
+	 * Write and commit the current bulk load rows, and notify the listener
+	 * of the files committed.
+	 * @return Number of rows committed so far.
+	**/
+	private long bulkCommit( List<File> uncommitted, BulkListener listener )
+		throws TripleStoreException
+	{
+		bulk.flush();
+		commit();
+		for ( int i = 0; listener != null && i < uncommitted.size(); i++ )
+		{
+			listener.fileLoaded( uncommitted.get(i) );
+		}
+		uncommitted.clear();
+		return bulk.count();
 	}
 	protected void init( String[] ddl ) throws TripleStoreException
 	{
@@ -872,6 +2167,46 @@ public class RelationalTripleStore implements TripleStore
 		}
 		return connected;
 	}
+	public boolean validate( String query )
+	{
+		if ( !isConnected() ) { return false; }
+
+		java.sql.Statement stmt = null;
+		try
+		{
+			if ( query == null )
+			{
+				return con.isValid( 5 );
+			}
+			stmt = con.createStatement();
+			stmt.execute( query );
+			return true;
+		}
+		catch ( AbstractMethodError err )
+		{
+			// pre-JDBC4 driver without Connection.isValid()
+			return validate( "select 1 from " + tableName() + " where 1 = 0" );
+		}
+		catch ( Exception ex )
+		{
+			log.warn( "Error validating connection: " + tsName, ex );
+			return false;
+		}
+		finally
+		{
+			try { if ( stmt != null ) { stmt.close(); } }
+			catch ( Exception ex1 ) { log.warn("Error closing statement",ex1); }
+		}
+	}
+	public void reset() throws TripleStoreException
+	{
+		// discard any transaction and results left open by the previous user
+		closeStatements();
+		abort();
+		logIngest = false;
+		added = 0;
+		start = 0L;
+	}
 	public void optimize() throws TripleStoreException
 	{
 		// no-op
@@ -1041,6 +2376,74 @@ class RelationalStatementIterator extends StatementIterator
 		}
 	}
 }
+class RelationalChunkIterator extends StatementIterator
+{
+	private RelationalTripleStore ts = null;
+	private List<String> ids = null;
+	private int chunkSize = 0;
+	private int next = 0;
+	private ArkTranslator trans = null;
+	private RelationalStatementIterator current = null;
+	public RelationalChunkIterator( RelationalTripleStore ts, List<String> ids,
+		int chunkSize, ArkTranslator trans ) throws TripleStoreException
+	{
+		this.ts = ts;
+		this.ids = ids;
+		this.chunkSize = chunkSize;
+		this.trans = trans;
+
+		// run the first query now, so errors are reported to the caller
+		if ( ids.size() > 0 )
+		{
+			current = new RelationalStatementIterator(
+				ts.describeChunk( ids, 0 ), trans
+			);
+			next = chunkSize;
+		}
+	}
+	public boolean hasNext()
+	{
+		while ( current == null || !current.hasNext() )
+		{
+			if ( current != null )
+			{
+				current.close();
+				current = null;
+			}
+			if ( next >= ids.size() ) { return false; }
+			try
+			{
+				current = new RelationalStatementIterator(
+					ts.describeChunk( ids, next ), trans
+				);
+			}
+			catch ( Exception ex )
+			{
+				RelationalTripleStore.log.warn( "Error listing statements", ex );
+				next = ids.size();
+				return false;
+			}
+			next += chunkSize;
+		}
+		return true;
+	}
+	public void remove()
+	{
+	}
+	public Statement nextStatement()
+	{
+		return hasNext() ? current.nextStatement() : null;
+	}
+	public void close()
+	{
+		next = ids.size();
+		if ( current != null )
+		{
+			current.close();
+			current = null;
+		}
+	}
+}
 class RelationalBindingIterator extends BindingIterator
 {
 	private ResultSet rs = null;
@@ -1097,6 +2500,29 @@ class RelationalBindingIterator extends BindingIterator
 	{
 		//rs.remove();
 	}
+	public String[] nextValues()
+	{
+		String[] values = null;
+		try
+		{
+			if ( (checkedState && checkedValue) || rs.next() )
+			{
+				checkedState = false;
+				values = new String[cols.length];
+				for ( int i = 0; i < cols.length; i++ )
+				{
+					String val = rs.getString(i + 1);
+					values[i] = (val == null) ? null
+						: RelationalTripleStore.stripBrackets( val );
+				}
+			}
+		}
+		catch ( Exception ex )
+		{
+			RelationalTripleStore.log.warn( "Error listing bindings", ex );
+		}
+		return values;
+	}
 	public Map<String,String> nextBinding()
 	{
 		Map<String,String> bindings = new HashMap<String,String>();
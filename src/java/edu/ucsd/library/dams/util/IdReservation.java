@@ -0,0 +1,87 @@
+package edu.ucsd.library.dams.util;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Identifiers reserved from a minter in blocks, so each identifier used
+ * doesn't need its own request to the minter.  Identifiers still reserved
+ * when the application stops are never used, leaving gaps in the sequence.
+ * @author escowles@ucsd.edu
+**/
+public class IdReservation
+{
+	private String minterURL = null;
+	private int blockSize = 1;
+	private LinkedList<String> ids = new LinkedList<String>();
+	private long requests = 0L;
+	private long reserved = 0L;
+	private long used = 0L;
+
+	/**
+	 * Create a reservation.
+	 * @param minterURL Minter URL, ending with the count parameter.
+	 * @param blockSize Number of identifiers to reserve at a time.
+	**/
+	public IdReservation( String minterURL, int blockSize )
+	{
+		this.minterURL = minterURL;
+		this.blockSize = Math.max( blockSize, 1 );
+	}
+
+	/**
+	 * Get the next reserved identifier, reserving another block from the
+	 * minter if none are left.
+	 * @return The identifier, without the minter's "id: " prefix or NAAN.
+	**/
+	public synchronized String next() throws IOException
+	{
+		if ( ids.size() == 0 )
+		{
+			reserve();
+		}
+		used++;
+		return ids.removeFirst();
+	}
+
+	/**
+	 * Get the number of identifiers reserved, used and still available, and
+	 * the number of requests to the minter.
+	**/
+	public synchronized Map<String,String> stats()
+	{
+		Map<String,String> info = new LinkedHashMap<String,String>();
+		info.put( "blockSize", String.valueOf(blockSize) );
+		info.put( "requests",  String.valueOf(requests) );
+		info.put( "reserved",  String.valueOf(reserved) );
+		info.put( "used",      String.valueOf(used) );
+		info.put( "available", String.valueOf(ids.size()) );
+		return info;
+	}
+
+	private void reserve() throws IOException
+	{
+		String result = HttpUtil.get( minterURL + blockSize );
+		requests++;
+		if ( result == null || !result.startsWith("id: ") )
+		{
+			throw new IOException( "Failed to reserve ids: " + result );
+		}
+		String[] lines = result.split("\\n");
+		for ( int i = 0; i < lines.length; i++ )
+		{
+			String id = lines[i].replaceAll(".*/","").trim();
+			if ( !id.equals("") )
+			{
+				ids.add( id );
+				reserved++;
+			}
+		}
+		if ( ids.size() == 0 )
+		{
+			throw new IOException( "No ids reserved: " + result );
+		}
+	}
+}
@@ -0,0 +1,334 @@
+package edu.ucsd.library.dams.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Sequential identifier minter that keeps its counter in memory and reserves
+ * blocks of identifiers durably, so each identifier minted doesn't need its
+ * own disk write.  Before identifiers from a new block are returned, the end
+ * of the block is appended to a journal file and synced to disk, so after a
+ * crash or restart minting resumes after the last reserved block and no
+ * identifier is reused.  Identifiers reserved but not minted before a
+ * restart are skipped.  The journal is periodically compacted into the
+ * properties file.
+ *
+ * Properties (in [name].properties, created with defaults if missing):
+ * <ul>
+ *  <li>prefix: prefix for each identifier (default "id: 20775/xx")</li>
+ *  <li>digits: minimum number of digits (default 8)</li>
+ *  <li>blockSize: identifiers reserved per journal write (default 100)</li>
+ *  <li>lastid: last identifier reserved when the journal was compacted</li>
+ * </ul>
+ * @author escowles@ucsd.edu
+**/
+public class JournaledMinter
+{
+	private static Logger log = Logger.getLogger( JournaledMinter.class );
+
+	// journal entries written before compacting
+	private static final int COMPACT_ENTRIES = 1000;
+
+	private File propsFile = null;
+	private File journalFile = null;
+	private Properties props = null;
+	private String prefix = null;
+	private int digits = 0;
+	private long blockSize = 0L;
+
+	// last identifier minted, and last identifier reserved on disk
+	private AtomicLong counter = null;
+	private volatile long limit = 0L;
+
+	private FileOutputStream journal = null;
+	private int entries = 0;
+
+	// metrics
+	private long reservations = 0L;
+	private long compactions = 0L;
+
+	/**
+	 * Open a minter, recovering its state from the properties and journal.
+	 * @param dir Directory containing the minter files.
+	 * @param name Base name of the properties and journal files.
+	**/
+	public JournaledMinter( File dir, String name ) throws IOException
+	{
+		propsFile = new File( dir, name + ".properties" );
+		journalFile = new File( dir, name + ".journal" );
+
+		props = new Properties();
+		if ( propsFile.exists() )
+		{
+			FileInputStream fis = new FileInputStream( propsFile );
+			try
+			{
+				props.load( fis );
+			}
+			finally
+			{
+				fis.close();
+			}
+		}
+		prefix = getString( props, "prefix", "id: 20775/xx" );
+		digits = (int)getLong( props, "digits", 8L );
+		blockSize = Math.max( getLong(props, "blockSize", 100L), 1L );
+
+		// resume after the last reserved identifier
+		long last = Math.max( getLong(props, "lastid", 0L), recover() );
+		counter = new AtomicLong( last );
+		limit = last;
+
+		// write the current state, so the journal starts empty
+		compact();
+	}
+
+	/**
+	 * Mint identifiers.
+	 * @param count Number of identifiers to mint.
+	 * @return The identifiers, with the prefix and zero-padded to the
+	 *   configured number of digits.
+	**/
+	public String[] mint( int count ) throws IOException
+	{
+		if ( count < 1 ) { return new String[0]; }
+		long last = counter.addAndGet( count );
+		if ( last > limit )
+		{
+			reserve( last );
+		}
+		String[] ids = new String[count];
+		long first = last - count + 1;
+		for ( int i = 0; i < count; i++ )
+		{
+			ids[i] = prefix + pad( first + i );
+		}
+		return ids;
+	}
+
+	/**
+	 * Compact the journal and close it.
+	**/
+	public synchronized void close() throws IOException
+	{
+		compact();
+		if ( journal != null )
+		{
+			journal.close();
+			journal = null;
+		}
+	}
+
+	/**
+	 * Get the last identifier minted and reserved, the block size, and the
+	 * number of reservations and compactions.
+	**/
+	public synchronized Map<String,String> stats()
+	{
+		Map<String,String> info = new LinkedHashMap<String,String>();
+		info.put( "minted",       String.valueOf(counter.get()) );
+		info.put( "reserved",     String.valueOf(limit) );
+		info.put( "blockSize",    String.valueOf(blockSize) );
+		info.put( "reservations", String.valueOf(reservations) );
+		info.put( "compactions",  String.valueOf(compactions) );
+		return info;
+	}
+
+	/**
+	 * Reserve identifiers through at least the specified identifier.  The
+	 * limit is only raised after the reservation is on disk, so identifiers
+	 * are never returned before they are reserved.
+	**/
+	private synchronized void reserve( long last ) throws IOException
+	{
+		if ( last <= limit ) { return; }
+
+		// reserve whole blocks, so concurrent callers share a reservation
+		long newLimit = last + blockSize - (last % blockSize);
+		if ( journal == null )
+		{
+			journal = new FileOutputStream( journalFile, true );
+		}
+		journal.write( (newLimit + "\n").getBytes("UTF-8") );
+		journal.getFD().sync();
+		limit = newLimit;
+		reservations++;
+		entries++;
+
+		if ( entries >= COMPACT_ENTRIES )
+		{
+			compact();
+		}
+	}
+
+	/**
+	 * Write the last reserved identifier to the properties file and truncate
+	 * the journal.  The properties file is replaced atomically, and the
+	 * journal is only truncated after the new file and the directory entry
+	 * pointing to it are on disk.
+	**/
+	private synchronized void compact() throws IOException
+	{
+		props.setProperty( "lastid", String.valueOf(limit) );
+		File tmp = new File(
+			propsFile.getParentFile(), propsFile.getName() + ".tmp"
+		);
+		FileOutputStream fos = new FileOutputStream( tmp );
+		try
+		{
+			props.store( fos, "DAMS Repo minter properties" );
+			fos.getFD().sync();
+		}
+		finally
+		{
+			fos.close();
+		}
+		try
+		{
+			Files.move( tmp.toPath(), propsFile.toPath(),
+				StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING );
+		}
+		catch ( AtomicMoveNotSupportedException ex )
+		{
+			// still replaces the existing file, so it is never missing
+			Files.move( tmp.toPath(), propsFile.toPath(),
+				StandardCopyOption.REPLACE_EXISTING );
+		}
+		syncDir( propsFile.getAbsoluteFile().getParentFile() );
+
+		if ( journal != null )
+		{
+			journal.close();
+		}
+		journal = new FileOutputStream( journalFile, false );
+		journal.getFD().sync();
+		entries = 0;
+		compactions++;
+	}
+
+	/**
+	 * Sync a directory, so renames in it survive a crash.  Platforms that
+	 * can't open a directory (Windows) don't need this.
+	**/
+	private static void syncDir( File dir ) throws IOException
+	{
+		FileChannel ch = null;
+		try
+		{
+			ch = FileChannel.open( dir.toPath(), StandardOpenOption.READ );
+		}
+		catch ( IOException ex )
+		{
+			log.debug( "Unable to open directory to sync: " + dir );
+			return;
+		}
+		try
+		{
+			ch.force( true );
+		}
+		finally
+		{
+			ch.close();
+		}
+	}
+
+	/**
+	 * Find the last reservation in the journal.  An incomplete last line
+	 * left by a crash is ignored: its identifiers were never returned.
+	**/
+	private long recover() throws IOException
+	{
+		long last = 0L;
+		if ( !journalFile.exists() ) { return last; }
+		BufferedReader in = new BufferedReader(
+			new InputStreamReader( new FileInputStream(journalFile), "UTF-8" )
+		);
+		try
+		{
+			int c = -1;
+			StringBuilder line = new StringBuilder();
+			while ( (c = in.read()) != -1 )
+			{
+				if ( c != '\n' )
+				{
+					line.append( (char)c );
+					continue;
+				}
+				try
+				{
+					last = Math.max( last, Long.parseLong(line.toString().trim()) );
+				}
+				catch ( NumberFormatException ex )
+				{
+					log.warn( "Skipping invalid journal entry: " + line );
+				}
+				line.setLength(0);
+			}
+			if ( line.length() > 0 )
+			{
+				log.warn( "Skipping incomplete journal entry: " + line );
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+		return last;
+	}
+
+	private String pad( long id )
+	{
+		String s = String.valueOf( id );
+		StringBuilder buf = new StringBuilder();
+		for ( int i = s.length(); i < digits; i++ )
+		{
+			buf.append( '0' );
+		}
+		return buf.append( s ).toString();
+	}
+
+	// get a long property (and set it to the default if not supplied)
+	private static long getLong( Properties props, String key, long defaultVal )
+	{
+		long value = defaultVal;
+		try
+		{
+			value = Long.parseLong( props.getProperty(key).trim() );
+		}
+		catch ( Exception ex )
+		{
+			value = defaultVal;
+			props.setProperty( key, String.valueOf(defaultVal) );
+		}
+		return value;
+	}
+
+	// get a string property (and set it to the default if not supplied)
+	private static String getString( Properties props, String key,
+		String defaultVal )
+	{
+		String value = props.getProperty(key);
+		if ( value == null )
+		{
+			value = defaultVal;
+			props.setProperty( key, defaultVal );
+		}
+		return value;
+	}
+}
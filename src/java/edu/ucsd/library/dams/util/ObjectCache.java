@@ -0,0 +1,267 @@
+package edu.ucsd.library.dams.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of serialized objects, bounded by the number of entries and the size
+ * of their content.  Keys are spread over independently locked segments, each
+ * kept in LRU order, so concurrent requests for different objects don't
+ * contend for one lock and hits don't scan a list.  The limits apply to the
+ * whole cache: when they are exceeded, the least recently used entry of all
+ * the segments is evicted.  Entries can also expire after a TTL.  To keep a
+ * slow read from caching content that was changed while it was being
+ * generated, callers take a stamp() before reading and pass it to put(),
+ * which is ignored if the segment was invalidated since.
+ * @author escowles@ucsd.edu
+**/
+public class ObjectCache
+{
+	private static final int SEGMENTS = 16;
+
+	private final int maxEntries;
+	private final long maxBytes;
+	private final long ttl;
+	private final Segment[] segments = new Segment[SEGMENTS];
+	private final AtomicLong clock = new AtomicLong();
+	private final AtomicLong entries = new AtomicLong();
+	private final AtomicLong bytes = new AtomicLong();
+	private final AtomicLong uses = new AtomicLong();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong expirations = new AtomicLong();
+	private final AtomicLong invalidations = new AtomicLong();
+
+	/**
+	 * Create a cache.
+	 * @param maxEntries Maximum number of entries, 0 disables the cache.
+	 * @param maxBytes Maximum total size of content (counting 2 bytes per
+	 *   character).
+	 * @param ttl Milliseconds before an entry expires, 0 = never.
+	**/
+	public ObjectCache( int maxEntries, long maxBytes, long ttl )
+	{
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+		this.ttl = ttl;
+		for ( int i = 0; i < SEGMENTS; i++ )
+		{
+			segments[i] = new Segment();
+		}
+	}
+
+	/**
+	 * Test whether the cache stores anything.
+	**/
+	public boolean enabled()
+	{
+		return maxEntries > 0 && maxBytes > 0;
+	}
+
+	/**
+	 * Get cached content, or null if the key is not cached.
+	**/
+	public String get( String key )
+	{
+		if ( !enabled() ) { return null; }
+		String content = segment(key).get( key );
+		if ( content != null ) { hits.incrementAndGet(); }
+		else { misses.incrementAndGet(); }
+		return content;
+	}
+
+	/**
+	 * Get a stamp to pass to put() for content read after this call.
+	**/
+	public long stamp()
+	{
+		return clock.incrementAndGet();
+	}
+
+	/**
+	 * Add content to the cache, unless the key's segment has been invalidated
+	 * since the stamp was taken.
+	 * @return True if the content was cached.
+	**/
+	public boolean put( String key, String content, long stamp )
+	{
+		if ( !enabled() || content == null ) { return false; }
+		if ( !segment(key).put(key, content, stamp) ) { return false; }
+		evict();
+		return true;
+	}
+
+	/**
+	 * Remove an entry.
+	**/
+	public void remove( String key )
+	{
+		segment(key).remove( key );
+	}
+
+	/**
+	 * Remove all entries.
+	**/
+	public void clear()
+	{
+		for ( int i = 0; i < SEGMENTS; i++ )
+		{
+			segments[i].clear();
+		}
+	}
+
+	/**
+	 * Get usage statistics.
+	**/
+	public Map<String,String> stats()
+	{
+		Map<String,String> info = new LinkedHashMap<String,String>();
+		info.put( "entries",       String.valueOf(entries.get()) );
+		info.put( "bytes",         String.valueOf(bytes.get()) );
+		info.put( "maxEntries",    String.valueOf(maxEntries) );
+		info.put( "maxBytes",      String.valueOf(maxBytes) );
+		info.put( "ttl",           String.valueOf(ttl) );
+		info.put( "hits",          String.valueOf(hits.get()) );
+		info.put( "misses",        String.valueOf(misses.get()) );
+		info.put( "evictions",     String.valueOf(evictions.get()) );
+		info.put( "expirations",   String.valueOf(expirations.get()) );
+		info.put( "invalidations", String.valueOf(invalidations.get()) );
+		return info;
+	}
+
+	private Segment segment( String key )
+	{
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return segments[ (h & 0x7fffffff) % SEGMENTS ];
+	}
+	/**
+	 * Evict the least recently used entries until the cache is within its
+	 * limits.  Only one segment is locked at a time.
+	**/
+	private void evict()
+	{
+		while ( entries.get() > maxEntries || bytes.get() > maxBytes )
+		{
+			Segment oldest = null;
+			long oldestUsed = Long.MAX_VALUE;
+			for ( int i = 0; i < SEGMENTS; i++ )
+			{
+				long used = segments[i].eldest();
+				if ( used < oldestUsed )
+				{
+					oldest = segments[i];
+					oldestUsed = used;
+				}
+			}
+			if ( oldest == null ) { return; }
+			oldest.evictEldest();
+		}
+	}
+	private static long size( String key, String content )
+	{
+		return (key.length() + content.length()) * 2L + 96;
+	}
+
+	/**
+	 * Cached content, the time it was added and the last time it was used.
+	**/
+	private static class Entry
+	{
+		final String content;
+		final long added;
+		final long size;
+		long used;
+		Entry( String content, long size, long used )
+		{
+			this.content = content;
+			this.added = System.currentTimeMillis();
+			this.size = size;
+			this.used = used;
+		}
+	}
+
+	/**
+	 * LRU map for a share of the keys.
+	**/
+	private class Segment
+	{
+		private LinkedHashMap<String,Entry> map
+			= new LinkedHashMap<String,Entry>( 16, 0.75f, true );
+		private long invalidated = 0L;
+
+		synchronized String get( String key )
+		{
+			Entry e = map.get( key );
+			if ( e == null ) { return null; }
+			if ( ttl > 0 && System.currentTimeMillis() - e.added > ttl )
+			{
+				map.remove( key );
+				removed( e );
+				expirations.incrementAndGet();
+				return null;
+			}
+			e.used = uses.incrementAndGet();
+			return e.content;
+		}
+		synchronized boolean put( String key, String content, long stamp )
+		{
+			if ( stamp <= invalidated ) { return false; }
+
+			long size = size( key, content );
+			if ( size > maxBytes ) { return false; }
+
+			Entry old = map.put( key, new Entry(content, size, uses.incrementAndGet()) );
+			if ( old != null ) { removed( old ); }
+			entries.incrementAndGet();
+			bytes.addAndGet( size );
+			return true;
+		}
+		synchronized void remove( String key )
+		{
+			invalidated = clock.incrementAndGet();
+			Entry old = map.remove( key );
+			if ( old != null )
+			{
+				removed( old );
+				invalidations.incrementAndGet();
+			}
+		}
+		synchronized void clear()
+		{
+			invalidated = clock.incrementAndGet();
+			invalidations.addAndGet( map.size() );
+			for ( Entry e : map.values() )
+			{
+				removed( e );
+			}
+			map.clear();
+		}
+
+		// last use of the least recently used entry, or Long.MAX_VALUE
+		synchronized long eldest()
+		{
+			Iterator<Entry> it = map.values().iterator();
+			return it.hasNext() ? it.next().used : Long.MAX_VALUE;
+		}
+		synchronized void evictEldest()
+		{
+			Iterator<Entry> it = map.values().iterator();
+			if ( it.hasNext() )
+			{
+				Entry eldest = it.next();
+				it.remove();
+				removed( eldest );
+				evictions.incrementAndGet();
+			}
+		}
+		private void removed( Entry e )
+		{
+			entries.decrementAndGet();
+			bytes.addAndGet( -e.size );
+		}
+	}
+}
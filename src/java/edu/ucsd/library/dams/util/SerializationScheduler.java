@@ -0,0 +1,329 @@
+package edu.ucsd.library.dams.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Schedules objects to be serialized after they are changed.  Objects are
+ * marked dirty, and serialized by a pool of worker threads once they haven't
+ * been changed for a short delay, so several changes in a row cause one
+ * serialization.  An object changed continuously is serialized at least
+ * once per maximum delay.  Callers that need to read the serialized object
+ * can flush it to serialize any pending changes immediately.
+ * @author escowles@ucsd.edu
+**/
+public class SerializationScheduler
+{
+	private static Logger log = Logger.getLogger(SerializationScheduler.class);
+
+	/**
+	 * Serializes an object.
+	**/
+	public interface Serializer
+	{
+		/**
+		 * Serialize an object.
+		 * @param objid Object identifier.
+		 * @param tsName Name the triplestore the object is stored in is
+		 *   leased with (the [name] in "ts.[name].").
+		 * @param esName Name the event triplestore is leased with.
+		**/
+		public void serialize( String objid, String tsName, String esName )
+			throws Exception;
+	}
+
+	private Serializer serializer = null;
+	private long delay = 0L;
+	private long maxDelay = 0L;
+	private ScheduledThreadPoolExecutor workers = null;
+	private Map<String,Dirty> pending = new HashMap<String,Dirty>();
+	private Set<String> running = new HashSet<String>();
+	private boolean closed = false;
+
+	// metrics
+	private long marked = 0L;
+	private long coalesced = 0L;
+	private long serialized = 0L;
+	private long failed = 0L;
+	private long flushed = 0L;
+
+	/**
+	 * Create a scheduler.
+	 * @param serializer Serializer called for each object.
+	 * @param delay Milliseconds to wait for more changes before serializing
+	 *   an object, 0 to serialize immediately in the caller's thread.
+	 * @param maxDelay Maximum milliseconds an object can be dirty before it
+	 *   is serialized.
+	 * @param threads Number of worker threads.
+	**/
+	public SerializationScheduler( Serializer serializer, long delay,
+		long maxDelay, int threads )
+	{
+		this.serializer = serializer;
+		this.delay = delay;
+		this.maxDelay = Math.max( maxDelay, delay );
+		if ( delay > 0 )
+		{
+			workers = new ScheduledThreadPoolExecutor(
+				Math.max( threads, 1 ), new ThreadFactory() {
+					public Thread newThread( Runnable r )
+					{
+						Thread t = new Thread( r, "rdfxml-writer" );
+						t.setDaemon( true );
+						return t;
+					}
+				}
+			);
+			workers.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+		}
+	}
+
+	/**
+	 * Mark an object as changed, scheduling it to be serialized.  If the
+	 * object is already scheduled, the changes are serialized together.
+	**/
+	public void mark( String objid, String tsName, String esName )
+	{
+		mark( objid, tsName, esName, serializer );
+	}
+
+	/**
+	 * Mark an object as changed, scheduling it to be serialized.
+	 * @param now Serializer used if the object is serialized immediately in
+	 *   the caller's thread, so callers can reuse the triplestores they hold.
+	**/
+	public void mark( String objid, String tsName, String esName,
+		Serializer now )
+	{
+		boolean schedule = false;
+		boolean inline = false;
+		synchronized ( this )
+		{
+			marked++;
+			long time = System.currentTimeMillis();
+			Dirty d = pending.get( objid );
+			if ( d != null )
+			{
+				// wait for more changes, up to the maximum delay
+				coalesced++;
+				d.tsName = tsName;
+				d.esName = esName;
+				d.due = Math.min( time + delay, d.first + maxDelay );
+			}
+			else
+			{
+				d = new Dirty( objid, tsName, esName, time );
+				d.due = time + delay;
+				pending.put( objid, d );
+				schedule = !(workers == null || closed);
+			}
+			inline = workers == null || closed;
+		}
+
+		if ( schedule )
+		{
+			schedule( objid, delay );
+		}
+		else if ( inline )
+		{
+			try
+			{
+				flush( objid, now );
+			}
+			catch ( Exception ex )
+			{
+				log.error( "Error serializing " + objid, ex );
+			}
+		}
+	}
+
+	/**
+	 * Serialize an object now if it has pending changes, waiting for any
+	 * serialization already in progress to finish.
+	 * @return True if the object was serialized by this call.
+	**/
+	public boolean flush( String objid ) throws Exception
+	{
+		return flush( objid, serializer );
+	}
+
+	/**
+	 * Serialize an object now if it has pending changes.
+	 * @param now Serializer to use in the caller's thread.
+	 * @return True if the object was serialized by this call.
+	**/
+	public boolean flush( String objid, Serializer now ) throws Exception
+	{
+		Dirty d = null;
+		synchronized ( this )
+		{
+			while ( running.contains(objid) )
+			{
+				wait();
+			}
+			d = pending.remove( objid );
+			if ( d == null ) { return false; }
+			running.add( objid );
+			flushed++;
+		}
+		serialize( d, now );
+		return true;
+	}
+
+	/**
+	 * Serialize all objects with pending changes and stop the worker threads.
+	 * @param timeout Maximum milliseconds to wait for workers to finish.
+	**/
+	public void close( long timeout )
+	{
+		List<String> objids = null;
+		synchronized ( this )
+		{
+			closed = true;
+			objids = new ArrayList<String>( pending.keySet() );
+		}
+		for ( int i = 0; i < objids.size(); i++ )
+		{
+			try
+			{
+				flush( objids.get(i) );
+			}
+			catch ( Exception ex )
+			{
+				log.error( "Error serializing " + objids.get(i), ex );
+			}
+		}
+		if ( workers != null )
+		{
+			workers.shutdown();
+			try
+			{
+				workers.awaitTermination( timeout, TimeUnit.MILLISECONDS );
+			}
+			catch ( InterruptedException ex )
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Get the number of objects waiting and being serialized, the number of
+	 * changes marked and coalesced, and the number of objects serialized,
+	 * failed and flushed by callers.
+	**/
+	public synchronized Map<String,String> stats()
+	{
+		Map<String,String> info = new LinkedHashMap<String,String>();
+		info.put( "delay",      String.valueOf(delay) );
+		info.put( "pending",    String.valueOf(pending.size()) );
+		info.put( "running",    String.valueOf(running.size()) );
+		info.put( "marked",     String.valueOf(marked) );
+		info.put( "coalesced",  String.valueOf(coalesced) );
+		info.put( "serialized", String.valueOf(serialized) );
+		info.put( "failed",     String.valueOf(failed) );
+		info.put( "flushed",    String.valueOf(flushed) );
+		return info;
+	}
+
+	private void schedule( final String objid, long wait )
+	{
+		try
+		{
+			workers.schedule( new Runnable() {
+				public void run() { due( objid ); }
+			}, wait, TimeUnit.MILLISECONDS );
+		}
+		catch ( RejectedExecutionException ex )
+		{
+			// closed while waiting, close() serializes pending objects
+			log.debug( "Not scheduling " + objid + ", scheduler closed" );
+		}
+	}
+
+	/**
+	 * Serialize an object if it hasn't been changed since it was scheduled,
+	 * or schedule it again.
+	**/
+	private void due( String objid )
+	{
+		Dirty d = null;
+		synchronized ( this )
+		{
+			d = pending.get( objid );
+			if ( d == null )
+			{
+				// already flushed
+				return;
+			}
+			long wait = d.due - System.currentTimeMillis();
+			if ( wait > 0 || running.contains(objid) )
+			{
+				// changed again, or still serializing an earlier change
+				if ( !closed ) { schedule( objid, wait > 0 ? wait : delay ); }
+				return;
+			}
+			pending.remove( objid );
+			running.add( objid );
+		}
+		try
+		{
+			serialize( d, serializer );
+		}
+		catch ( Exception ex )
+		{
+			log.error( "Error serializing " + objid, ex );
+		}
+	}
+
+	private void serialize( Dirty d, Serializer s ) throws Exception
+	{
+		boolean ok = false;
+		try
+		{
+			s.serialize( d.objid, d.tsName, d.esName );
+			ok = true;
+		}
+		finally
+		{
+			synchronized ( this )
+			{
+				if ( ok ) { serialized++; }
+				else { failed++; }
+				running.remove( d.objid );
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Object waiting to be serialized.
+	**/
+	private static class Dirty
+	{
+		final String objid;
+		final long first;
+		String tsName;
+		String esName;
+		long due;
+		Dirty( String objid, String tsName, String esName, long time )
+		{
+			this.objid = objid;
+			this.tsName = tsName;
+			this.esName = esName;
+			this.first = time;
+			this.due = time;
+		}
+	}
+}
@@ -0,0 +1,193 @@
+package edu.ucsd.library.dams.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Cache of compiled XSLT stylesheets.  Each stylesheet is compiled once into
+ * a thread-safe Templates object and a new Transformer is created from it for
+ * each use, since Transformers can't be shared between requests.  Stylesheets
+ * stored in local files are recompiled when the file is modified, and
+ * stylesheets loaded from URLs are recompiled after a TTL.  The number of
+ * stylesheets is bounded, dropping the least recently used.  Compile and
+ * transform times are tracked for each stylesheet.
+ * @author escowles@ucsd.edu
+**/
+public class TemplatesCache
+{
+	private static Logger log = Logger.getLogger( TemplatesCache.class );
+
+	private final int maxEntries;
+	private final long urlTTL;
+	private final LinkedHashMap<String,Stylesheet> cache;
+
+	/**
+	 * Create a cache of up to 100 stylesheets, recompiling URLs after 5
+	 * minutes.
+	**/
+	public TemplatesCache()
+	{
+		this( 100, 300000L );
+	}
+
+	/**
+	 * Create a cache.
+	 * @param maxEntries Maximum number of stylesheets.
+	 * @param urlTTL Milliseconds before a stylesheet loaded from a URL is
+	 *   recompiled.
+	**/
+	public TemplatesCache( int maxEntries, long urlTTL )
+	{
+		this.maxEntries = Math.max( maxEntries, 1 );
+		this.urlTTL = urlTTL;
+		this.cache = new LinkedHashMap<String,Stylesheet>( 16, 0.75f, true )
+		{
+			protected boolean removeEldestEntry(
+				Map.Entry<String,Stylesheet> e )
+			{
+				return size() > TemplatesCache.this.maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Get a new Transformer for a stylesheet, compiling it if it hasn't been
+	 * compiled or has been modified.
+	 * @param xsl Stylesheet file path or URL.
+	**/
+	public Transformer newTransformer( String xsl ) throws TransformerException
+	{
+		return templates(xsl).newTransformer();
+	}
+
+	/**
+	 * Get the compiled Templates for a stylesheet.
+	 * @param xsl Stylesheet file path or URL.
+	**/
+	public Templates templates( String xsl ) throws TransformerException
+	{
+		Stylesheet s = stylesheet( xsl );
+		synchronized ( s )
+		{
+			long modified = s.file != null ? s.file.lastModified() : 0L;
+			boolean expired = s.file == null
+				&& System.currentTimeMillis() - s.compiled > urlTTL;
+			if ( s.templates == null || modified != s.modified || expired )
+			{
+				long start = System.currentTimeMillis();
+				TransformerFactory tf = TransformerFactory.newInstance();
+				s.templates = tf.newTemplates( new StreamSource(xsl) );
+				s.modified = modified;
+				s.compiled = System.currentTimeMillis();
+				s.compiles.incrementAndGet();
+				s.compileTime.addAndGet( System.currentTimeMillis() - start );
+				log.info( "Compiled stylesheet " + xsl );
+			}
+			return s.templates;
+		}
+	}
+
+	/**
+	 * Record the time taken by a transform.
+	 * @param xsl Stylesheet file path or URL.
+	 * @param time Milliseconds taken by the transform.
+	**/
+	public void record( String xsl, long time )
+	{
+		Stylesheet s = stylesheet( xsl );
+		s.count.incrementAndGet();
+		s.sum.addAndGet( time );
+		for ( long max = s.max.get(); time > max; max = s.max.get() )
+		{
+			if ( s.max.compareAndSet(max, time) ) { break; }
+		}
+	}
+
+	/**
+	 * Remove all compiled stylesheets and timing data.
+	**/
+	public void clear()
+	{
+		synchronized ( cache )
+		{
+			cache.clear();
+		}
+	}
+
+	/**
+	 * Get compile and transform times, keyed by stylesheet file name.
+	**/
+	public Map<String,Map<String,String>> stats()
+	{
+		List<Stylesheet> list = null;
+		synchronized ( cache )
+		{
+			list = new ArrayList<Stylesheet>( cache.values() );
+		}
+		Map<String,Map<String,String>> info
+			= new TreeMap<String,Map<String,String>>();
+		for ( Stylesheet s : list )
+		{
+			long count = s.count.get();
+			long sum = s.sum.get();
+			float mean = (count > 0) ? (float)sum/count : 0f;
+			Map<String,String> times = new LinkedHashMap<String,String>();
+			times.put( "count",       String.valueOf(count) );
+			times.put( "sum",         String.valueOf(sum) );
+			times.put( "mean",        String.valueOf(mean) );
+			times.put( "max",         String.valueOf(s.max.get()) );
+			times.put( "compiles",    String.valueOf(s.compiles.get()) );
+			times.put( "compileTime", String.valueOf(s.compileTime.get()) );
+			info.put( s.xsl.replaceAll(".*[/\\\\]",""), times );
+		}
+		return info;
+	}
+
+	private Stylesheet stylesheet( String xsl )
+	{
+		synchronized ( cache )
+		{
+			Stylesheet s = cache.get( xsl );
+			if ( s == null )
+			{
+				s = new Stylesheet( xsl );
+				cache.put( xsl, s );
+			}
+			return s;
+		}
+	}
+
+	/**
+	 * Compiled stylesheet and its timing data.
+	**/
+	private static class Stylesheet
+	{
+		final String xsl;
+		final File file;
+		Templates templates = null;
+		long modified = 0L;
+		long compiled = 0L;
+		AtomicLong count = new AtomicLong();
+		AtomicLong sum = new AtomicLong();
+		AtomicLong max = new AtomicLong();
+		AtomicLong compiles = new AtomicLong();
+		AtomicLong compileTime = new AtomicLong();
+		Stylesheet( String xsl )
+		{
+			this.xsl = xsl;
+			this.file = xsl.startsWith("http") ? null : new File(xsl);
+		}
+	}
+}
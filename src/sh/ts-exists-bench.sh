@@ -0,0 +1,15 @@
+#!/bin/sh
+
+# compare existence checks for a large temporary object
+
+BASE=`dirname $0`
+. $BASE/common.sh
+
+TS=$1
+OBJ=$2
+TRIPLES=$3
+ITERATIONS=$4
+java -cp $CP edu.ucsd.library.dams.commands.TripleStoreExistsBenchmark $PROPS $TS $OBJ $TRIPLES $ITERATIONS
+if [ $? != 0 ]; then
+    exit 1
+fi
@@ -1,6 +1,8 @@
 #!/bin/sh
 
 # bulk load N-Triples or RDF/XML files into a triplestore
+# set THREADS to load in parallel, and CHECKPOINT to a file to resume loads
+# set BULK=true for the bulk load path into an empty triplestore
 
 BASE=`dirname $0`
 . $BASE/common.sh
@@ -9,7 +11,7 @@ CLASS=edu.ucsd.library.dams.commands.TripleStoreLoad
 TS=$1
 shift
 echo "Loading data from $@"
-java -cp $CP $CLASS $PROPS $TS "" "" "$@"
+java -Dthreads=${THREADS:-1} -Dbulk=${BULK:-false} -Dcheckpoint=$CHECKPOINT -cp $CP $CLASS $PROPS $TS "" "" "$@"
 if [ $? != 0 ]; then
     exit 1
 fi
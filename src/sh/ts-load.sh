@@ -1,6 +1,8 @@
 #!/bin/sh
 
 # bulk load N-Triples or RDF/XML files into a triplestore
+# set THREADS to load in parallel, and CHECKPOINT to a file to resume loads
+# set BULK=true for the bulk load path into an empty triplestore
 
 BASE=`dirname $0`
 . $BASE/common.sh
@@ -11,7 +13,7 @@ PREDS=$BASE/valid-properties.txt
 TS=$1
 shift
 echo "Loading data from $@"
-java -cp $CP $CLASS $PROPS $TS $TYPES $PREDS "$@"
+java -Dthreads=${THREADS:-1} -Dbulk=${BULK:-false} -Dcheckpoint=$CHECKPOINT -cp $CP $CLASS $PROPS $TS $TYPES $PREDS "$@"
 if [ $? != 0 ]; then
     exit 1
 fi
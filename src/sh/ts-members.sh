@@ -0,0 +1,12 @@
+#!/bin/sh
+
+# rebuild the collection membership index for a triplestore
+
+BASE=`dirname $0`
+. $BASE/common.sh
+
+TS=$1
+java -cp $CP edu.ucsd.library.dams.commands.TripleStoreMembers $PROPS $TS
+if [ $? != 0 ]; then
+    exit 1
+fi
@@ -0,0 +1,94 @@
+package edu.ucsd.library.dams.unitTest.file.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.ucsd.library.dams.file.FileStore;
+import edu.ucsd.library.dams.file.FileStoreException;
+import edu.ucsd.library.dams.file.impl.CachingFileStore;
+import edu.ucsd.library.dams.file.impl.LocalStore;
+
+/**
+ * Test methods for CachingFileStore class
+ */
+public class CachingFileStoreTest {
+    private File baseDir;
+    private LocalStore local;
+    private FileStore fs;
+
+    @Before
+    public void init() throws Exception {
+        baseDir = File.createTempFile("cachingstore", "");
+        baseDir.delete();
+        baseDir.mkdirs();
+        local = new LocalStore(baseDir, null);
+        fs = new CachingFileStore(local, "cachetest", 1024 * 1024, 60000);
+        fs.write("bb12345678", "1", "1.txt", "0123456789".getBytes("UTF-8"));
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        CachingFileStore.invalidate("cachetest");
+        local.getFile("bb12345678", "1", "1.txt").delete();
+    }
+
+    @Test
+    public void testMetadataIsCached() throws Exception {
+        assertEquals("Wrong length!", 10L, fs.length("bb12345678", "1", "1.txt"));
+
+        // change the file without going through the cache
+        FileOutputStream out = new FileOutputStream(local.getFile("bb12345678", "1", "1.txt"), true);
+        out.write("abc".getBytes("UTF-8"));
+        out.close();
+        assertEquals("Length should be cached!", "10", fs.meta("bb12345678", "1", "1.txt").get("Content-Length"));
+    }
+
+    @Test
+    public void testWriteDuringLoadNotCached() throws Exception {
+        // overwrite the file after its metadata is read, before it is cached
+        final FileStore[] caching = new FileStore[1];
+        LocalStore racy = new LocalStore(baseDir, null) {
+            private boolean raced = false;
+            public Map<String, String> meta(String objectID, String componentID, String fileID)
+                    throws FileStoreException {
+                Map<String, String> md = super.meta(objectID, componentID, fileID);
+                if (!raced) {
+                    raced = true;
+                    caching[0].write(objectID, componentID, fileID, "0123456789abc".getBytes());
+                }
+                return md;
+            }
+        };
+        caching[0] = new CachingFileStore(racy, "cachetest", 1024 * 1024, 60000);
+        assertEquals("Length read before the write!", 10L, caching[0].length("bb12345678", "1", "1.txt"));
+        assertEquals("Old length should not be cached!", 13L, caching[0].length("bb12345678", "1", "1.txt"));
+    }
+
+    @Test
+    public void testOverwriteChangesETag() throws Exception {
+        String etag = fs.meta("bb12345678", "1", "1.txt").get("ETag");
+        assertTrue("Written file should have an ETag!", etag != null);
+        fs.write("bb12345678", "1", "1.txt", "9876543210".getBytes("UTF-8"));
+        String etag2 = fs.meta("bb12345678", "1", "1.txt").get("ETag");
+        assertTrue("Overwritten file should have a new ETag!", etag2 != null && !etag2.equals(etag));
+    }
+
+    @Test
+    public void testWriteInvalidatesMetadata() throws Exception {
+        assertFalse("File should not exist!", fs.exists("bb12345678", "1", "2.txt"));
+        fs.write("bb12345678", "1", "2.txt", "abc".getBytes("UTF-8"));
+        assertTrue("Written file should exist!", fs.exists("bb12345678", "1", "2.txt"));
+        assertEquals("Wrong length!", 3L, fs.length("bb12345678", "1", "2.txt"));
+        fs.trash("bb12345678", "1", "2.txt");
+        assertFalse("Trashed file should not exist!", fs.exists("bb12345678", "1", "2.txt"));
+    }
+}
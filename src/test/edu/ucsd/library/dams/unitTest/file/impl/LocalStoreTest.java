@@ -0,0 +1,74 @@
+package edu.ucsd.library.dams.unitTest.file.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.ucsd.library.dams.file.impl.LocalStore;
+
+/**
+ * Test methods for LocalStore class
+ */
+public class LocalStoreTest {
+    private File baseDir;
+    private LocalStore fs;
+
+    @Before
+    public void init() throws Exception {
+        baseDir = File.createTempFile("localstore", "");
+        baseDir.delete();
+        baseDir.mkdirs();
+        fs = new LocalStore(baseDir, null);
+        fs.write("bb12345678", "1", "1.txt", "0123456789".getBytes("UTF-8"));
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        fs.getFile("bb12345678", "1", "1.txt").delete();
+        fs.getFile("bb12345678", null, "checksums.txt").delete();
+    }
+
+    @Test
+    public void testPositionedRead() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        fs.read("bb12345678", "1", "1.txt", out, 3, 4);
+        assertEquals("Wrong range read!", "3456", out.toString("UTF-8"));
+    }
+
+    @Test
+    public void testPositionedReadPastEnd() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        fs.read("bb12345678", "1", "1.txt", out, 8, 10);
+        assertEquals("Read should stop at end of file!", "89", out.toString("UTF-8"));
+    }
+
+    @Test
+    public void testChecksumMetadata() throws Exception {
+        Map<String,String> meta = fs.meta("bb12345678", "1", "1.txt");
+        assertEquals("Wrong ETag!", "\"781e5e245d69b566979b86e28d23f2c7\"", meta.get("ETag"));
+        assertEquals("Wrong Content-MD5!", "eB5eJF1ptWaXm4bijSPyxw==", meta.get("Content-MD5"));
+        assertEquals("Wrong Digest!", "md5=eB5eJF1ptWaXm4bijSPyxw==,sha=h6zsF82dzSCnFsws9nQXtxyKcBY=",
+            meta.get("Digest"));
+        assertFalse("Sidecar should not be listed!",
+            Arrays.asList(fs.listFiles("bb12345678", null)).contains("checksums.txt"));
+    }
+
+    @Test
+    public void testChecksumsIgnoredWhenFileChanged() throws Exception {
+        File f = fs.getFile("bb12345678", "1", "1.txt");
+        FileOutputStream out = new FileOutputStream(f, true);
+        out.write('x');
+        out.close();
+        assertNull("Stale ETag!", fs.meta("bb12345678", "1", "1.txt").get("ETag"));
+    }
+}
@@ -0,0 +1,134 @@
+package edu.ucsd.library.dams.unitTest.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.ucsd.library.dams.model.DAMSObject;
+import edu.ucsd.library.dams.triple.ArkTranslator;
+import edu.ucsd.library.dams.triple.Identifier;
+import edu.ucsd.library.dams.triple.TripleStore;
+import edu.ucsd.library.dams.triple.TripleStoreUtil;
+
+/**
+ * Test methods for DAMSObject class
+ */
+public class DAMSObjectTest {
+    private static final String NS = "http://library.ucsd.edu/ark:/20775/";
+    private static final String DAMS = "http://library.ucsd.edu/ontology/dams#";
+    private static final String SAME_AS = "http://www.w3.org/2002/07/owl#sameAs";
+    private static boolean created = false;
+    private TripleStore ts;
+    private TripleStore es;
+    private Map<String,String> nsmap;
+
+    @Before
+    public void init() throws Exception {
+        ts = store("objtest");
+        es = store("objevents");
+        if (!created) {
+            ts.init();
+            es.init();
+            created = true;
+        }
+        nsmap = new HashMap<String,String>();
+        nsmap.put("damsid", NS);
+        nsmap.put("dams", DAMS);
+        nsmap.put("owl", "http://www.w3.org/2002/07/owl#");
+        nsmap.put("rdf", "http://www.w3.org/1999/02/22-rdf-syntax-ns#");
+
+        // predicate translations
+        String[] preds = {"title", "unit", "event", "unitName", "copyright", "copyrightStatus", "type"};
+        for (int i = 0; i < preds.length; i++) {
+            Identifier ark = id("bd0000000" + i);
+            ts.addStatement(ark, Identifier.publicURI(SAME_AS), pred(preds[i]), ark);
+            es.addStatement(ark, Identifier.publicURI(SAME_AS), pred(preds[i]), ark);
+        }
+
+        // object linking to a unit, which links to a copyright record, and
+        // events for the object and unit
+        Identifier obj = id("bb00000000");
+        Identifier unit = id("bb11111111");
+        Identifier rights = id("bb22222222");
+        ts.addLiteralStatement(obj, pred("title"), "\"Object\"", obj);
+        ts.addStatement(obj, pred("unit"), unit, obj);
+        ts.addStatement(obj, pred("event"), id("bb33333333"), obj);
+        ts.addLiteralStatement(unit, pred("unitName"), "\"Unit\"", unit);
+        ts.addStatement(unit, pred("copyright"), rights, unit);
+        ts.addStatement(unit, pred("event"), id("bb44444444"), unit);
+        ts.addLiteralStatement(rights, pred("copyrightStatus"), "\"Public domain\"", rights);
+        es.addLiteralStatement(id("bb33333333"), pred("type"), "\"object creation\"", id("bb33333333"));
+        es.addLiteralStatement(id("bb44444444"), pred("type"), "\"unit creation\"", id("bb44444444"));
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        ts.removeAll();
+        ts.close();
+        es.removeAll();
+        es.close();
+
+        // predicate records were removed, so don't use cached translations
+        ArkTranslator.invalidate("objtest");
+        ArkTranslator.invalidate("objevents");
+    }
+
+    @Test
+    public void testConcurrentMatchesSequential() throws Exception {
+        DAMSObject sequential = new DAMSObject(ts, es, "bb00000000", nsmap);
+        DAMSObject concurrent = new DAMSObject(ts, es, "bb00000000", nsmap);
+        concurrent.setConcurrent(true);
+        String expected = sorted(sequential.getNTriples(true));
+        assertEquals("Concurrent retrieval should find the same triples!", expected,
+            sorted(concurrent.getNTriples(true)));
+        assertTrue("Linked record missing!", expected.indexOf("Public domain") != -1);
+        assertTrue("Linked event missing!", expected.indexOf("unit creation") != -1);
+    }
+
+    @Test
+    public void testDepthBudget() throws Exception {
+        DAMSObject obj = new DAMSObject(ts, es, "bb00000000", nsmap);
+        obj.setConcurrent(true);
+        obj.setBudget(1, 0);
+        String nt = obj.getNTriples(true);
+        assertTrue("First level link missing!", nt.indexOf("\"Unit\"") != -1);
+        assertTrue("Second level link should not be followed!", nt.indexOf("Public domain") == -1);
+    }
+
+    private TripleStore store(String name) throws Exception {
+        Properties props = new Properties();
+        props.put("ts." + name + ".className", "edu.ucsd.library.dams.triple.impl.RelationalTripleStore");
+        props.put("ts." + name + ".driverClass", "org.hsqldb.jdbcDriver");
+        props.put("ts." + name + ".dataSourceURL", "jdbc:hsqldb:mem:" + name);
+        props.put("ts." + name + ".dataSourceUser", "SA");
+        props.put("ts." + name + ".dataSourcePass", "");
+        props.put("ts." + name + ".tripleStoreName", name);
+        props.put("ts." + name + ".columnDef", "id integer generated by default as identity primary key, subject varchar(256), predicate varchar(256), object varchar(4000), parent varchar(256)");
+        props.put("ns.damsid", NS);
+        props.put("ns.owl:sameAs", SAME_AS);
+        props.put("ns.rdf:label", "http://www.w3.org/2000/01/rdf-schema#label");
+        return TripleStoreUtil.getTripleStore(props, name);
+    }
+
+    private static Identifier id(String ark) {
+        return Identifier.publicURI(NS + ark);
+    }
+
+    private static Identifier pred(String name) {
+        return Identifier.publicURI(DAMS + name);
+    }
+
+    private static String sorted(String ntriples) {
+        String[] lines = ntriples.split("\n");
+        Arrays.sort(lines);
+        return String.join("\n", lines);
+    }
+}
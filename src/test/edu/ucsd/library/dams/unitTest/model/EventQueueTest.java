@@ -0,0 +1,132 @@
+package edu.ucsd.library.dams.unitTest.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.ucsd.library.dams.model.Event;
+import edu.ucsd.library.dams.model.EventQueue;
+import edu.ucsd.library.dams.triple.Identifier;
+import edu.ucsd.library.dams.triple.TripleStore;
+import edu.ucsd.library.dams.triple.TripleStorePool;
+import edu.ucsd.library.dams.triple.TripleStoreUtil;
+
+/**
+ * Test methods for EventQueue class
+ */
+public class EventQueueTest {
+    private static final String NS = "http://library.ucsd.edu/ark:/20775/";
+    private static boolean created = false;
+    private Properties props;
+    private TripleStore ts;
+    private TripleStore es;
+
+    @Before
+    public void init() throws Exception {
+        props = new Properties();
+        config("evqtest");
+        config("evqevents");
+        ts = TripleStorePool.lease(props, "evqtest");
+        es = TripleStorePool.lease(props, "evqevents");
+        if (!created) {
+            ts.init();
+            es.init();
+            created = true;
+        }
+        Identifier obj = id("bb00000000");
+        ts.addLiteralStatement(obj, Identifier.publicURI("dams:title"), "\"Object\"", obj);
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        ts.removeAll();
+        es.removeAll();
+        TripleStorePool.release(ts);
+        TripleStorePool.release(es);
+        TripleStorePool.closeAll();
+    }
+
+    @Test
+    public void testEventsWrittenInBackground() throws Exception {
+        final Set<String> serialized = Collections.synchronizedSet(new HashSet<String>());
+        EventQueue queue = new EventQueue(props, 10, 3, new EventQueue.Listener() {
+            public void eventsWritten(Set<String> objids, TripleStore ts, TripleStore es) {
+                serialized.addAll(objids);
+            }
+        });
+        for (int i = 0; i < 5; i++) {
+            assertTrue("Event should be queued!", queue.offer(event(i, "bb00000000"), "bb00000000", "evqtest", "evqevents"));
+        }
+        assertTrue("Event should be queued!", queue.offer(event(5, "bb11111111"), "bb11111111", "evqtest", "evqevents"));
+        queue.close(10000L);
+
+        assertEquals("Wrong number of events written!", "6", queue.stats().get("written"));
+        assertEquals("Event metadata missing!", 42L, es.size());
+        assertEquals("Events should only be linked from existing objects!", 6L, ts.size());
+        assertEquals("Wrong objects serialized!", Collections.singleton("bb00000000"), serialized);
+        assertTrue("Closed queue should reject events!", !queue.offer(event(6, "bb00000000"), "bb00000000", "evqtest", "evqevents"));
+    }
+
+    @Test
+    public void testFlush() throws Exception {
+        final Set<String> serialized = Collections.synchronizedSet(new HashSet<String>());
+        EventQueue queue = new EventQueue(props, 10, 3, new EventQueue.Listener() {
+            public void eventsWritten(Set<String> objids, TripleStore ts, TripleStore es) {
+                serialized.addAll(objids);
+            }
+        });
+        assertTrue("Event should be queued!", queue.offer(event(0, "bb00000000"), "bb00000000", "evqtest", "evqevents"));
+        queue.flush("bb00000000", 10000L);
+        assertEquals("Flushed events should be written!", Collections.singleton("bb00000000"), serialized);
+        assertEquals("Flushed event should be linked!", 2L, ts.size());
+        queue.close(10000L);
+    }
+
+    @Test
+    public void testFailedEventsCounted() throws Exception {
+        // events triplestore can't be leased by the queue
+        config("evqbroken");
+        TripleStore broken = TripleStoreUtil.getTripleStore(props, "evqbroken");
+        Properties missing = new Properties();
+        missing.putAll(props);
+        missing.remove("ts.evqbroken.className");
+        EventQueue queue = new EventQueue(missing, 10, 3, null);
+        assertTrue("Event should be queued!", queue.offer(event(0, "bb00000000"), "bb00000000", "evqtest", "evqbroken"));
+        broken.close();
+        for (int i = 0; i < 50 && queue.stats().get("retried").equals("0"); i++) {
+            Thread.sleep(100L);
+        }
+        assertEquals("Failed event should be retried!", "1", queue.stats().get("retrying"));
+        queue.close(10000L);
+        assertEquals("Failed event should be counted!", "1", queue.stats().get("failed"));
+        assertEquals("No events should be written!", "0", queue.stats().get("written"));
+    }
+
+    private Event event(int i, String obj) {
+        return new Event(id("bd1000000" + i), id(obj), id(obj), null, true, Event.RECORD_EDITED, null, null);
+    }
+
+    private void config(String name) {
+        props.put("ts." + name + ".className", "edu.ucsd.library.dams.triple.impl.RelationalTripleStore");
+        props.put("ts." + name + ".driverClass", "org.hsqldb.jdbcDriver");
+        props.put("ts." + name + ".dataSourceURL", "jdbc:hsqldb:mem:" + name);
+        props.put("ts." + name + ".dataSourceUser", "SA");
+        props.put("ts." + name + ".dataSourcePass", "");
+        // same triplestore name for each, so they're only told apart by
+        // the config key
+        props.put("ts." + name + ".tripleStoreName", "triples");
+        props.put("ts." + name + ".columnDef", "subject varchar(256), predicate varchar(256), object varchar(4000), parent varchar(256)");
+    }
+
+    private static Identifier id(String ark) {
+        return Identifier.publicURI(NS + ark);
+    }
+}
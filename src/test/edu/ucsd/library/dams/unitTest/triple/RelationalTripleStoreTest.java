@@ -0,0 +1,461 @@
+package edu.ucsd.library.dams.unitTest.triple;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.ucsd.library.dams.triple.ArkTranslator;
+import edu.ucsd.library.dams.triple.BindingIterator;
+import edu.ucsd.library.dams.triple.Identifier;
+import edu.ucsd.library.dams.triple.Statement;
+import edu.ucsd.library.dams.triple.StatementIterator;
+import edu.ucsd.library.dams.triple.TripleStore;
+import edu.ucsd.library.dams.triple.TripleStoreException;
+import edu.ucsd.library.dams.triple.TripleStoreUtil;
+import edu.ucsd.library.dams.triple.impl.RelationalTripleStore;
+
+/**
+ * Test methods for RelationalTripleStore class
+ */
+public class RelationalTripleStoreTest {
+    private static final String NS = "http://library.ucsd.edu/ark:/20775/";
+    private static final String DAMS = "http://library.ucsd.edu/ontology/dams#";
+    private static boolean created = false;
+    private Properties props;
+    private TripleStore ts;
+
+    @Before
+    public void init() throws Exception {
+        props = new Properties();
+        props.put("ts.txtest.className", "edu.ucsd.library.dams.triple.impl.RelationalTripleStore");
+        props.put("ts.txtest.driverClass", "org.hsqldb.jdbcDriver");
+        props.put("ts.txtest.dataSourceURL", "jdbc:hsqldb:mem:txtest");
+        props.put("ts.txtest.dataSourceUser", "SA");
+        props.put("ts.txtest.dataSourcePass", "");
+        props.put("ts.txtest.tripleStoreName", "txtest");
+        props.put("ts.txtest.batchSize", "3");
+        props.put("ts.txtest.describeSize", "3");
+        props.put("ts.txtest.columnDef", "subject varchar(256), predicate varchar(256), object varchar(4000), parent varchar(256)");
+        props.put("ns.damsid", NS);
+        props.put("ns.dams", DAMS);
+        props.put("ns.owl:sameAs", "http://www.w3.org/2002/07/owl#sameAs");
+        ts = TripleStoreUtil.getTripleStore(props, "txtest");
+        if (!created) {
+            ts.init();
+            created = true;
+        }
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        ts.removeAll();
+        ts.close();
+
+        // predicate records were removed, so don't use cached translations
+        ArkTranslator.invalidate("txtest");
+    }
+
+    @Test
+    public void testCommitAppliesBatchedInserts() throws Exception {
+        ts.startTransaction();
+        addStatements(10);
+        ts.commit();
+        assertEquals("All inserts should be committed!", 10L, ts.size());
+    }
+
+    @Test
+    public void testRollbackDiscardsInserts() throws Exception {
+        addStatements(2);
+        ts.startTransaction();
+        ts.removeObject(Identifier.publicURI(NS + "bb00000000"));
+        addStatements(5);
+        ts.rollback();
+        assertEquals("Original statements should be restored!", 2L, ts.size());
+    }
+
+    @Test
+    public void testNestedRollback() throws Exception {
+        ts.startTransaction();
+        addStatements(1);
+        ts.startTransaction();
+        addStatements(1);
+        ts.rollback();
+        addStatements(1);
+        try {
+            ts.commit();
+            fail("Commit after nested rollback should fail!");
+        } catch (TripleStoreException ex) {
+            // expected
+        }
+        assertEquals("Whole transaction should be rolled back!", 0L, ts.size());
+
+        // the next transaction is unaffected
+        ts.startTransaction();
+        addStatements(2);
+        ts.commit();
+        assertEquals("Next transaction should be committed!", 2L, ts.size());
+    }
+
+    @Test
+    public void testBulkLoad() throws Exception {
+        File f = File.createTempFile("bulk", ".nt");
+        try {
+            FileWriter out = new FileWriter(f);
+            out.write("<" + NS + "bb00000000> <http://library.ucsd.edu/ontology/dams#note> \"tab\\tnote\" .\n");
+            out.write("<" + NS + "bb00000000> <http://library.ucsd.edu/ontology/dams#unit> <" + NS + "bb11111111> .\n");
+            out.close();
+            long count = ts.bulkLoad(Arrays.asList(f), null, null, false, null);
+            assertEquals("Bulk load should report triples loaded!", 2L, count);
+            assertEquals("Triples should be loaded!", 2L, ts.size());
+        } finally {
+            f.delete();
+        }
+    }
+
+    @Test
+    public void testBulkLoadReportsFiles() throws Exception {
+        File good = File.createTempFile("bulk", ".nt");
+        File bad = File.createTempFile("bulk", ".nt");
+        try {
+            FileWriter out = new FileWriter(good);
+            out.write("<" + NS + "bb00000000> <" + DAMS + "note> \"note\" .\n");
+            out.close();
+            out = new FileWriter(bad);
+            out.write("<" + NS + "bb11111111> <" + DAMS + "unit> <" + NS + "bb22222222> .\n");
+            out.close();
+            final List<File> loaded = new ArrayList<File>();
+            final List<File> failed = new ArrayList<File>();
+            TripleStore.BulkListener listener = new TripleStore.BulkListener() {
+                public void fileLoaded(File f) {
+                    loaded.add(f);
+                }
+                public void fileFailed(File f, Set<String> errors) {
+                    failed.add(f);
+                }
+            };
+            Set<String> valid = Collections.singleton(DAMS + "note");
+            ts.bulkLoad(Arrays.asList(good, bad), null, valid, false, listener);
+            assertEquals("Valid file should be reported loaded!", Arrays.asList(good), loaded);
+            assertEquals("Invalid file should be reported failed!", Arrays.asList(bad), failed);
+            assertEquals("Only valid file should be loaded!", 1L, ts.size());
+
+            // resume with the files not loaded yet
+            ts.bulkLoad(Arrays.asList(bad), null, null, true, listener);
+            assertEquals("Resumed load should add files!", 2L, ts.size());
+        } finally {
+            good.delete();
+            bad.delete();
+        }
+    }
+
+    @Test
+    public void testBulkLoadSkipsUnreadableFile() throws Exception {
+        File good = File.createTempFile("bulk", ".nt");
+        File bad = File.createTempFile("bulk", ".nt");
+        try {
+            FileWriter out = new FileWriter(good);
+            out.write("<" + NS + "bb00000000> <" + DAMS + "note> \"note\" .\n");
+            out.close();
+            out = new FileWriter(bad);
+            out.write("<" + NS + "bb11111111> <" + DAMS + "note> \"note\" .\n");
+            out.write("<" + NS + "bb11111111> not n-triples\n");
+            out.close();
+            final List<File> failed = new ArrayList<File>();
+            TripleStore.BulkListener listener = new TripleStore.BulkListener() {
+                public void fileLoaded(File f) {
+                }
+                public void fileFailed(File f, Set<String> errors) {
+                    failed.add(f);
+                }
+            };
+            long count = ts.bulkLoad(Arrays.asList(good, bad), null, null, false, listener);
+            assertEquals("Unreadable file should be reported failed!", Arrays.asList(bad), failed);
+            assertEquals("Unreadable file should be rolled back!", 1L, count);
+            assertEquals("Unreadable file should be rolled back!", 1L, ts.size());
+        } finally {
+            good.delete();
+            bad.delete();
+        }
+    }
+
+    @Test(expected = Exception.class)
+    public void testBulkLoadRequiresEmptyStore() throws Exception {
+        addStatements(1);
+        ts.bulkLoad(Arrays.asList(new File("missing.nt")), null, null, false, null);
+    }
+
+    @Test
+    public void testStreamingLoadReplacesObject() throws Exception {
+        File f = File.createTempFile("stream", ".rdf");
+        try {
+            FileWriter out = new FileWriter(f);
+            out.write("<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\""
+                + " xmlns:dams=\"http://library.ucsd.edu/ontology/dams#\">"
+                + "<dams:Object rdf:about=\"" + NS + "bb00000000\">"
+                + "<dams:note><dams:Note><dams:value>nested</dams:value></dams:Note></dams:note>"
+                + "</dams:Object></rdf:RDF>");
+            out.close();
+            addStatements(3);
+            ts.loadRDFXML(f.getAbsolutePath(), null, null);
+            assertEquals("Object should be replaced!", 4L, ts.size());
+            ts.loadRDFXML(f.getAbsolutePath(), null, null);
+            assertEquals("Reloading should not duplicate triples!", 4L, ts.size());
+
+            // invalid property is rejected without changing the object
+            Set<String> errors = ts.loadRDFXML(f.getAbsolutePath(), null,
+                Collections.singleton("http://library.ucsd.edu/ontology/dams#note"));
+            assertTrue("Validation errors should be reported!", errors != null && errors.size() > 0);
+            assertEquals("Invalid object should not be loaded!", 4L, ts.size());
+        } finally {
+            f.delete();
+        }
+    }
+
+    @Test
+    public void testDescribeInChunks() throws Exception {
+        Identifier pre = Identifier.publicURI("http://library.ucsd.edu/ontology/dams#note");
+        Set<Identifier> ids = new HashSet<Identifier>();
+        for (int i = 0; i < 7; i++) {
+            Identifier sub = Identifier.publicURI(NS + "bb0000000" + i);
+            ts.addLiteralStatement(sub, pre, "\"note\"", sub);
+            ts.addLiteralStatement(sub, pre, "\"it's\"", sub);
+            ids.add(sub);
+        }
+        ids.add(Identifier.publicURI(NS + "bb99999999"));
+        StatementIterator it = ts.sparqlDescribe(ids);
+        int count = 0;
+        while (it.hasNext()) {
+            it.nextStatement();
+            count++;
+        }
+        it.close();
+        assertEquals("All chunks should be described!", 14, count);
+    }
+
+    @Test
+    public void testSparqlPlanReused() throws Exception {
+        addStatements(3);
+        Identifier sub = Identifier.publicURI(NS + "bb00000000");
+        Identifier pre = Identifier.publicURI("http://library.ucsd.edu/ontology/dams#note");
+        ts.addLiteralStatement(sub, pre, "\"it's\"", sub);
+        String query = "PREFIX dams: <http://library.ucsd.edu/ontology/dams#> "
+            + "select ?obj where { ?obj dams:note '%s' }";
+
+        long hits = Long.parseLong(RelationalTripleStore.planStats().get("hits"));
+        assertEquals("Wrong count!", 1L, ts.sparqlCount(String.format(query, "\"note 1\"")));
+        assertEquals("Wrong count!", 0L, ts.sparqlCount(String.format(query, "\"note 9\"")));
+        assertEquals("Escaped literal not found!", 1L, ts.sparqlCount(
+            "select ?obj where { ?obj <http://library.ucsd.edu/ontology/dams#note> \"\\\"it's\\\"\" }"));
+        BindingIterator it = ts.sparqlSelect(String.format(query, "\"note 2\""));
+        assertTrue("Result missing!", it.hasNext());
+        assertEquals("Wrong result!", NS + "bb00000000", ((Map) it.next()).get("obj"));
+        it.close();
+        long reused = Long.parseLong(RelationalTripleStore.planStats().get("hits")) - hits;
+        assertTrue("Query plan should be reused!", reused >= 2);
+    }
+
+    @Test
+    public void testBoundValues() throws Exception {
+        addStatements(2);
+        Identifier sub = Identifier.publicURI(NS + "bb00000000");
+        Identifier pre = Identifier.publicURI("http://library.ucsd.edu/ontology/dams#note");
+        ts.addLiteralStatement(sub, pre, "\"it's\"", sub);
+        assertTrue("Object should exist!", ts.exists(sub));
+        ts.removeLiteralStatements(sub, null, "\"it's\"");
+        assertEquals("Quoted literal should be removed!", 2L, ts.size());
+        ts.removeObject(sub);
+        assertEquals("Object should be removed!", 0L, ts.size());
+        assertTrue("Object should not exist!", !ts.exists(sub));
+    }
+
+    @Test
+    public void testAsk() throws Exception {
+        addStatements(5);
+        assertTrue("Object should be found!", ts.sparqlAsk("ask { <" + NS + "bb00000000> ?p ?o }"));
+        assertTrue("Object should not be found!", !ts.sparqlAsk("ask { <" + NS + "bb11111111> ?p ?o }"));
+        assertTrue("Select should find results!",
+            ts.sparqlAsk("select ?p ?o where { <" + NS + "bb00000000> ?p ?o }"));
+    }
+
+    @Test
+    public void testSelectPage() throws Exception {
+        addStatements(5);
+        BindingIterator it = ts.sparqlSelect(
+            "select ?o where { <" + NS + "bb00000000> ?p ?o } order by ?o", 1, 2, 10);
+        assertEquals("Wrong first result!", "\"note 1\"", it.nextValues()[0]);
+        assertEquals("Wrong second result!", "\"note 2\"", it.nextValues()[0]);
+        assertTrue("Page should end!", !it.hasNext());
+        it.close();
+    }
+
+    @Test
+    public void testSelectPageLargeOffset() throws Exception {
+        addStatements(5);
+        BindingIterator it = ts.sparqlSelect(
+            "select ?o where { <" + NS + "bb00000000> ?p ?o }", Integer.MAX_VALUE - 1, 2, 10);
+        assertTrue("Page should be empty!", !it.hasNext());
+        it.close();
+    }
+
+    @Test
+    public void testMemberCounts() throws Exception {
+        Identifier col = Identifier.publicURI(NS + "bb99999999");
+        Identifier part = Identifier.publicURI(NS + "bb88888888");
+        Identifier assembled = Identifier.publicURI(DAMS + "assembledCollection");
+        Identifier provPart = Identifier.publicURI(DAMS + "provenanceCollectionPart");
+        ts.startTransaction();
+        for (int i = 0; i < 5; i++) {
+            Identifier obj = Identifier.publicURI(NS + "bb0000000" + i);
+            ts.addStatement(obj, assembled, col, obj);
+            if (i % 2 == 0) {
+                ts.addStatement(obj, provPart, part, obj);
+            }
+        }
+        ts.commit();
+        Identifier extra = Identifier.publicURI(NS + "bb00000009");
+        ts.addStatement(extra, provPart, part, extra);
+
+        Set<Identifier> preds = new HashSet<Identifier>(Arrays.asList(assembled, provPart));
+        Set<Identifier> both = new HashSet<Identifier>(Arrays.asList(col, part));
+        assertEquals("Wrong collection count!", 5L, ts.countMembers(Collections.singleton(col), preds));
+        assertEquals("Members should be counted once!", 6L, ts.countMembers(both, preds));
+
+        ts.removeObject(Identifier.publicURI(NS + "bb00000000"));
+        ts.removeStatements(extra, null, part);
+        assertEquals("Removed members still counted!", 4L, ts.countMembers(both, preds));
+        assertEquals("Rebuild should find the same links!", 6L, ts.rebuildMembers());
+        assertEquals("Wrong count after rebuild!", 4L, ts.countMembers(both, preds));
+        assertEquals("Unindexed predicate should not be counted!", -1L, ts.countMembers(
+            Collections.singleton(col), Collections.singleton(Identifier.publicURI(DAMS + "unit"))));
+    }
+
+    @Test
+    public void testMemberIndexCreatedAfterConnect() throws Exception {
+        Identifier col = Identifier.publicURI(NS + "bb99999999");
+        Identifier assembled = Identifier.publicURI(DAMS + "assembledCollection");
+        Identifier obj = Identifier.publicURI(NS + "bb00000000");
+
+        // connect before the index exists, then create it with another instance
+        Connection con = DriverManager.getConnection("jdbc:hsqldb:mem:txtest", "SA", "");
+        con.createStatement().execute("DROP TABLE txtest_members");
+        con.close();
+        props.put("ts.txtest.memberCheckInterval", "0");
+        TripleStore stale = TripleStoreUtil.getTripleStore(props, "txtest");
+        try {
+            assertEquals("Index should be rebuilt empty!", 0L, ts.rebuildMembers());
+            stale.addStatement(obj, assembled, col, obj);
+            assertEquals("Earlier instance should update the index!", 1L,
+                ts.countMembers(Collections.singleton(col), Collections.singleton(assembled)));
+            stale.removeObject(obj);
+            assertEquals("Earlier instance should update the index!", 0L,
+                ts.countMembers(Collections.singleton(col), Collections.singleton(assembled)));
+        } finally {
+            stale.close();
+        }
+    }
+
+    @Test
+    public void testMissingMemberIndexCheckedPeriodically() throws Exception {
+        Identifier col = Identifier.publicURI(NS + "bb99999999");
+        Identifier assembled = Identifier.publicURI(DAMS + "assembledCollection");
+        Identifier obj = Identifier.publicURI(NS + "bb00000000");
+
+        // the missing table isn't looked for again until the interval passes
+        Connection con = DriverManager.getConnection("jdbc:hsqldb:mem:txtest", "SA", "");
+        con.createStatement().execute("DROP TABLE txtest_members");
+        con.close();
+        props.put("ts.txtest.memberCheckInterval", "60000");
+        TripleStore stale = TripleStoreUtil.getTripleStore(props, "txtest");
+        try {
+            ts.rebuildMembers();
+            stale.addStatement(obj, assembled, col, obj);
+            assertEquals("Missing index shouldn't be checked on each write!", 0L,
+                ts.countMembers(Collections.singleton(col), Collections.singleton(assembled)));
+        } finally {
+            stale.close();
+        }
+    }
+
+    @Test
+    public void testRemovingPredicateRecordReloadsTranslations() throws Exception {
+        Identifier ark = Identifier.publicURI(NS + "bd00000009");
+        Identifier obj = Identifier.publicURI(NS + "bb00000000");
+        ts.addStatement(ark, Identifier.publicURI("http://www.w3.org/2002/07/owl#sameAs"),
+            Identifier.publicURI(DAMS + "note"), ark);
+        ts.addLiteralStatement(obj, Identifier.publicURI(DAMS + "note"), "\"note\"", obj);
+        long loaded = ArkTranslator.loadedVersion("txtest");
+
+        // removing an ordinary object doesn't reload the translations
+        ts.removeObject(obj);
+        ts.addLiteralStatement(obj, Identifier.publicURI(DAMS + "note"), "\"note\"", obj);
+        assertEquals("Translations shouldn't be reloaded!", loaded, ArkTranslator.loadedVersion("txtest"));
+
+        // removing the predicate record does
+        ts.removeObject(ark);
+        ts.addLiteralStatement(obj, Identifier.publicURI(DAMS + "note"), "\"note\"", obj);
+        assertTrue("Translations should be reloaded!", ArkTranslator.loadedVersion("txtest") > loaded);
+    }
+
+    @Test
+    public void testListChildStatements() throws Exception {
+        String[] preds = {"collection", "hasFile", "use", "size"};
+        for (int i = 0; i < preds.length; i++) {
+            Identifier ark = Identifier.publicURI(NS + "bd0000000" + i);
+            ts.addStatement(ark, Identifier.publicURI("http://www.w3.org/2002/07/owl#sameAs"),
+                Identifier.publicURI(DAMS + preds[i]), ark);
+        }
+        Identifier col = Identifier.publicURI(NS + "bb99999999");
+        addFile("bb00000000", "1.tif", col);
+        addFile("bb11111111", "1/2.jpg", col);
+        addFile("bb22222222", "1.tif", Identifier.publicURI(NS + "bb88888888"));
+
+        StatementIterator it = ts.listChildStatements(col,
+            Collections.singleton(Identifier.publicURI(DAMS + "collection")));
+        Set<String> files = new HashSet<String>();
+        int count = 0;
+        while (it.hasNext()) {
+            Statement s = it.nextStatement();
+            files.add(s.getSubject().getId());
+            assertTrue("Wrong parent!", s.getSubject().getId().startsWith(s.getParent().getId()));
+            count++;
+        }
+        it.close();
+        assertEquals("Wrong files!", new HashSet<String>(Arrays.asList(
+            NS + "bb00000000/1.tif", NS + "bb11111111/1/2.jpg")), files);
+        assertEquals("Wrong number of file statements!", 4, count);
+    }
+
+    private void addFile(String obj, String file, Identifier col) throws Exception {
+        Identifier sub = Identifier.publicURI(NS + obj);
+        Identifier fid = Identifier.publicURI(NS + obj + "/" + file);
+        ts.addStatement(sub, Identifier.publicURI(DAMS + "collection"), col, sub);
+        ts.addStatement(sub, Identifier.publicURI(DAMS + "hasFile"), fid, sub);
+        ts.addLiteralStatement(fid, Identifier.publicURI(DAMS + "use"), "\"image-source\"", sub);
+        ts.addLiteralStatement(fid, Identifier.publicURI(DAMS + "size"), "\"10\"", sub);
+    }
+
+    private void addStatements(int count) throws Exception {
+        Identifier sub = Identifier.publicURI(NS + "bb00000000");
+        Identifier pre = Identifier.publicURI("http://library.ucsd.edu/ontology/dams#note");
+        for (int i = 0; i < count; i++) {
+            ts.addLiteralStatement(sub, pre, "\"note " + i + "\"", sub);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package edu.ucsd.library.dams.unitTest.triple;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.ucsd.library.dams.triple.Identifier;
+import edu.ucsd.library.dams.triple.StatementIterator;
+import edu.ucsd.library.dams.triple.TripleStore;
+import edu.ucsd.library.dams.triple.TripleStorePool;
+
+/**
+ * Test methods for TripleStorePool class
+ */
+public class TripleStorePoolTest {
+    private Properties props;
+
+    @Before
+    public void init() {
+        props = new Properties();
+        props.put("ts.pooltest.className", "edu.ucsd.library.dams.triple.impl.RelationalTripleStore");
+        props.put("ts.pooltest.driverClass", "org.hsqldb.jdbcDriver");
+        props.put("ts.pooltest.dataSourceURL", "jdbc:hsqldb:mem:pooltest");
+        props.put("ts.pooltest.dataSourceUser", "SA");
+        props.put("ts.pooltest.dataSourcePass", "");
+        props.put("ts.pooltest.tripleStoreName", "pooltest");
+        props.put("ts.pooltest.columnDef", "id bigint generated by default as identity (start with 1), subject varchar(256), predicate varchar(256), object varchar(4000), parent varchar(256)");
+        props.put("ts.pooltest.poolSize", "2");
+        props.put("ts.pooltest.poolMaxWait", "100");
+        props.put("ts.pooltest.poolValidationQuery", "select 1 from INFORMATION_SCHEMA.SYSTEM_USERS");
+        props.put("ns.damsid", "http://library.ucsd.edu/ark:/20775/");
+    }
+
+    @After
+    public void cleanup() {
+        TripleStorePool.closeAll();
+    }
+
+    @Test
+    public void testReleasedInstanceIsReused() throws Exception {
+        TripleStore ts1 = TripleStorePool.lease(props, "pooltest");
+        TripleStorePool.release(ts1);
+        TripleStore ts2 = TripleStorePool.lease(props, "pooltest");
+        assertSame("Released triplestore should be reused!", ts1, ts2);
+        TripleStorePool.release(ts2);
+
+        Map<String,String> stats = TripleStorePool.stats().get("pooltest");
+        assertEquals("Only one triplestore should be created!", "1", stats.get("created"));
+        assertEquals("Triplestore should be idle!", "1", stats.get("idle"));
+    }
+
+    @Test
+    public void testClosedInstanceIsReplaced() throws Exception {
+        TripleStore ts1 = TripleStorePool.lease(props, "pooltest");
+        ts1.close();
+        TripleStorePool.release(ts1);
+        TripleStore ts2 = TripleStorePool.lease(props, "pooltest");
+        assertNotSame("Closed triplestore should not be reused!", ts1, ts2);
+        assertTrue("Replacement triplestore should be connected!", ts2.isConnected());
+        TripleStorePool.release(ts2);
+    }
+
+    @Test
+    public void testPoolSizeIsBounded() throws Exception {
+        TripleStore ts1 = TripleStorePool.lease(props, "pooltest");
+        TripleStore ts2 = TripleStorePool.lease(props, "pooltest");
+        boolean timedOut = false;
+        try {
+            TripleStorePool.lease(props, "pooltest");
+        } catch (Exception ex) {
+            timedOut = true;
+        }
+        assertTrue("Lease beyond pool size should time out!", timedOut);
+        TripleStorePool.release(ts1);
+        TripleStorePool.release(ts2);
+
+        Map<String,String> stats = TripleStorePool.stats().get("pooltest");
+        assertEquals("Timeout should be counted!", "1", stats.get("timeouts"));
+        assertEquals("No triplestores should be active!", "0", stats.get("active"));
+    }
+
+    @Test
+    public void testReleaseClosesOpenIterators() throws Exception {
+        TripleStore ts = TripleStorePool.lease(props, "pooltest");
+        ts.init();
+        Identifier obj = Identifier.publicURI("http://library.ucsd.edu/ark:/20775/bb00000000");
+        ts.addLiteralStatement(obj, Identifier.publicURI("http://purl.org/dc/terms/title"), "\"Title\"", obj);
+        StatementIterator it = ts.listStatements(obj, null, null);
+        TripleStorePool.release(ts);
+        assertFalse("Iterator should be closed when released!", it.hasNext());
+
+        ts = TripleStorePool.lease(props, "pooltest");
+        ts.removeAll();
+        TripleStorePool.release(ts);
+    }
+
+    @Test
+    public void testCloseAllClosesIdleInstances() throws Exception {
+        TripleStore ts = TripleStorePool.lease(props, "pooltest");
+        TripleStorePool.release(ts);
+        TripleStorePool.closeAll();
+        assertFalse("Idle triplestore should be closed!", ts.isConnected());
+    }
+
+    @Test
+    public void testLeaseName() throws Exception {
+        props.put("ts.pooltest.tripleStoreName", "othername");
+        TripleStore ts = TripleStorePool.lease(props, "pooltest");
+        assertEquals("Lease name should be the config key!", "pooltest", TripleStorePool.leaseName(ts));
+        TripleStorePool.release(ts);
+        assertEquals("Released triplestore shouldn't have a lease name!", null, TripleStorePool.leaseName(ts));
+    }
+}
@@ -0,0 +1,112 @@
+package edu.ucsd.library.dams.unitTest.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.ucsd.library.dams.util.JournaledMinter;
+
+/**
+ * Test methods for JournaledMinter class
+ */
+public class JournaledMinterTest {
+    private File dir;
+
+    @Before
+    public void init() throws Exception {
+        dir = File.createTempFile("minter", "");
+        dir.delete();
+        dir.mkdir();
+    }
+
+    @After
+    public void cleanup() {
+        File[] files = dir.listFiles();
+        for (int i = 0; files != null && i < files.length; i++) {
+            files[i].delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testMint() throws Exception {
+        JournaledMinter minter = new JournaledMinter(dir, "minter");
+        String[] ids = minter.mint(3);
+        assertEquals("Wrong number of ids!", 3, ids.length);
+        assertEquals("Wrong first id!", "id: 20775/xx00000001", ids[0]);
+        assertEquals("Wrong last id!", "id: 20775/xx00000003", ids[2]);
+        assertEquals("Whole block should be reserved!", "100", minter.stats().get("reserved"));
+        minter.close();
+    }
+
+    @Test
+    public void testConcurrentMint() throws Exception {
+        final JournaledMinter minter = new JournaledMinter(dir, "minter");
+        final Set<String> ids = Collections.synchronizedSet(new HashSet<String>());
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < 100; j++) {
+                            Collections.addAll(ids, minter.mint(3));
+                        }
+                    } catch (Exception ex) {
+                        throw new RuntimeException(ex);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+        }
+        assertEquals("Duplicate ids minted!", 2400, ids.size());
+        minter.close();
+    }
+
+    @Test
+    public void testRestart() throws Exception {
+        JournaledMinter minter = new JournaledMinter(dir, "minter");
+        minter.mint(150);
+
+        // simulate a crash: the journal isn't compacted, and the last entry
+        // is incomplete
+        FileOutputStream fos = new FileOutputStream(new File(dir, "minter.journal"), true);
+        fos.write("9".getBytes("UTF-8"));
+        fos.close();
+
+        minter = new JournaledMinter(dir, "minter");
+        String[] ids = minter.mint(1);
+        assertEquals("Reserved ids should be skipped!", "id: 20775/xx00000201", ids[0]);
+        minter.close();
+
+        minter = new JournaledMinter(dir, "minter");
+        ids = minter.mint(1);
+        assertEquals("Compacted state should be used!", "id: 20775/xx00000301", ids[0]);
+        minter.close();
+    }
+
+    @Test
+    public void testExistingProperties() throws Exception {
+        FileOutputStream fos = new FileOutputStream(new File(dir, "minter.properties"));
+        fos.write("prefix=id: 20775/zz\nlastid=42\ndigits=4\nblockSize=10\n".getBytes("UTF-8"));
+        fos.close();
+
+        JournaledMinter minter = new JournaledMinter(dir, "minter");
+        String[] ids = minter.mint(2);
+        assertEquals("Wrong first id!", "id: 20775/zz0043", ids[0]);
+        assertEquals("Wrong second id!", "id: 20775/zz0044", ids[1]);
+        assertTrue("Nothing should be minted for count 0!", minter.mint(0).length == 0);
+        minter.close();
+    }
+}
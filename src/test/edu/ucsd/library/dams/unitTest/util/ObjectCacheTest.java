@@ -0,0 +1,77 @@
+package edu.ucsd.library.dams.unitTest.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import edu.ucsd.library.dams.util.ObjectCache;
+
+/**
+ * Test methods for ObjectCache class
+ */
+public class ObjectCacheTest {
+
+    @Test
+    public void testGetAndRemove() {
+        ObjectCache cache = new ObjectCache(10, 1000000L, 0L);
+        cache.put("bb12345678", "<rdf/>", cache.stamp());
+        assertEquals("Cached content missing!", "<rdf/>", cache.get("bb12345678"));
+        cache.remove("bb12345678");
+        assertNull("Removed content still cached!", cache.get("bb12345678"));
+        assertEquals("Wrong hit count!", "1", cache.stats().get("hits"));
+        assertEquals("Wrong miss count!", "1", cache.stats().get("misses"));
+    }
+
+    @Test
+    public void testStalePutIgnored() {
+        ObjectCache cache = new ObjectCache(10, 1000000L, 0L);
+        long stamp = cache.stamp();
+        cache.remove("bb12345678");
+        assertFalse("Stale content cached!", cache.put("bb12345678", "<old/>", stamp));
+        assertNull("Stale content cached!", cache.get("bb12345678"));
+    }
+
+    @Test
+    public void testSizeBound() {
+        ObjectCache cache = new ObjectCache(1000, 3200L, 0L);
+        StringBuilder big = new StringBuilder();
+        for (int i = 0; i < 1600; i++) {
+            big.append('x');
+        }
+        assertFalse("Oversized content cached!", cache.put("bb12345678", big.toString(), cache.stamp()));
+
+        // limits apply to the whole cache, not each segment
+        big.setLength(1000);
+        assertTrue("Large content should be cached!", cache.put("bb12345678", big.toString(), cache.stamp()));
+        for (int i = 0; i < 100; i++) {
+            cache.put("bb" + i, "0123456789", cache.stamp());
+        }
+        long bytes = Long.parseLong(cache.stats().get("bytes"));
+        assertFalse("Cache exceeded size limit!", bytes > 3200L);
+        assertNull("Least recently used entry should be evicted!", cache.get("bb12345678"));
+        assertEquals("Recent entry should be cached!", "0123456789", cache.get("bb99"));
+    }
+
+    @Test
+    public void testEntryBound() {
+        ObjectCache cache = new ObjectCache(4, 1000000L, 0L);
+        for (int i = 0; i < 4; i++) {
+            cache.put("bb" + i, "<rdf/>", cache.stamp());
+        }
+        cache.get("bb0");
+        cache.put("bb4", "<rdf/>", cache.stamp());
+        assertEquals("Wrong number of entries!", "4", cache.stats().get("entries"));
+        assertEquals("Recently used entry evicted!", "<rdf/>", cache.get("bb0"));
+        assertNull("Least recently used entry should be evicted!", cache.get("bb1"));
+    }
+
+    @Test
+    public void testDisabled() {
+        ObjectCache cache = new ObjectCache(0, 1000000L, 0L);
+        cache.put("bb12345678", "<rdf/>", cache.stamp());
+        assertNull("Disabled cache stored content!", cache.get("bb12345678"));
+    }
+}
@@ -0,0 +1,65 @@
+package edu.ucsd.library.dams.unitTest.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import edu.ucsd.library.dams.util.SerializationScheduler;
+
+/**
+ * Test methods for SerializationScheduler class
+ */
+public class SerializationSchedulerTest {
+    private final List<String> serialized = Collections.synchronizedList(new ArrayList<String>());
+    private final SerializationScheduler.Serializer serializer = new SerializationScheduler.Serializer() {
+        public void serialize(String objid, String tsName, String esName) {
+            serialized.add(objid);
+        }
+    };
+
+    @Test
+    public void testImmediate() throws Exception {
+        SerializationScheduler sched = new SerializationScheduler(serializer, 0L, 0L, 1);
+        sched.mark("bb00000000", "ts", "events");
+        sched.mark("bb00000000", "ts", "events");
+        assertEquals("Each change should be serialized!", 2, serialized.size());
+        assertTrue("Nothing should be pending!", !sched.flush("bb00000000"));
+        sched.close(1000L);
+    }
+
+    @Test
+    public void testCoalesce() throws Exception {
+        SerializationScheduler sched = new SerializationScheduler(serializer, 200L, 5000L, 2);
+        for (int i = 0; i < 5; i++) {
+            sched.mark("bb00000000", "ts", "events");
+        }
+        sched.mark("bb11111111", "ts", "events");
+        assertEquals("Changes shouldn't be serialized yet!", 0, serialized.size());
+        for (int i = 0; i < 50 && serialized.size() < 2; i++) {
+            Thread.sleep(100L);
+        }
+        assertEquals("Changes should be serialized once per object!", 2, serialized.size());
+        assertEquals("Wrong number of changes coalesced!", "4", sched.stats().get("coalesced"));
+        sched.close(1000L);
+    }
+
+    @Test
+    public void testFlush() throws Exception {
+        SerializationScheduler sched = new SerializationScheduler(serializer, 60000L, 60000L, 1);
+        sched.mark("bb00000000", "ts", "events");
+        sched.mark("bb00000000", "ts", "events");
+        assertTrue("Pending changes should be flushed!", sched.flush("bb00000000"));
+        assertEquals("Flushed object should be serialized!", Collections.singletonList("bb00000000"), serialized);
+        assertTrue("Nothing should be pending!", !sched.flush("bb00000000"));
+
+        // pending changes are serialized on close
+        sched.mark("bb11111111", "ts", "events");
+        sched.close(1000L);
+        assertEquals("Pending changes should be serialized on close!", 2, serialized.size());
+    }
+}
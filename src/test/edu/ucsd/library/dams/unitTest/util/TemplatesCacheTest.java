@@ -0,0 +1,94 @@
+package edu.ucsd.library.dams.unitTest.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import javax.xml.transform.Transformer;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.ucsd.library.dams.util.TemplatesCache;
+
+/**
+ * Test methods for TemplatesCache class
+ */
+public class TemplatesCacheTest {
+    private File xsl;
+
+    @Before
+    public void init() throws Exception {
+        xsl = File.createTempFile("templates", ".xsl");
+        write("first");
+    }
+
+    @After
+    public void cleanup() {
+        xsl.delete();
+    }
+
+    @Test
+    public void testCompiledOnce() throws Exception {
+        TemplatesCache cache = new TemplatesCache();
+        Transformer t1 = cache.newTransformer(xsl.getAbsolutePath());
+        Transformer t2 = cache.newTransformer(xsl.getAbsolutePath());
+        assertNotSame("Transformer should not be shared!", t1, t2);
+        assertSame("Stylesheet recompiled!", cache.templates(xsl.getAbsolutePath()),
+            cache.templates(xsl.getAbsolutePath()));
+        assertEquals("Wrong output!", "first", transform(t1));
+    }
+
+    @Test
+    public void testReloadWhenModified() throws Exception {
+        TemplatesCache cache = new TemplatesCache();
+        assertEquals("Wrong output!", "first", transform(cache.newTransformer(xsl.getAbsolutePath())));
+        write("second");
+        xsl.setLastModified(xsl.lastModified() + 2000);
+        assertEquals("Modified stylesheet not reloaded!", "second",
+            transform(cache.newTransformer(xsl.getAbsolutePath())));
+        cache.record(xsl.getAbsolutePath(), 5);
+        assertEquals("Wrong compile count!", "2", cache.stats().get(xsl.getName()).get("compiles"));
+        assertEquals("Wrong transform count!", "1", cache.stats().get(xsl.getName()).get("count"));
+    }
+
+    @Test
+    public void testBounded() throws Exception {
+        File other = File.createTempFile("templates", ".xsl");
+        try {
+            FileWriter out = new FileWriter(other);
+            out.write("<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\"/>");
+            out.close();
+            TemplatesCache cache = new TemplatesCache(1, 0L);
+            cache.templates(xsl.getAbsolutePath());
+            cache.templates(other.getAbsolutePath());
+            assertEquals("Cache should be bounded!", 1, cache.stats().size());
+            assertEquals("Unused stylesheet should have no mean!", "0.0",
+                cache.stats().get(other.getName()).get("mean"));
+        } finally {
+            other.delete();
+        }
+    }
+
+    private void write(String text) throws Exception {
+        FileWriter out = new FileWriter(xsl);
+        out.write("<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">"
+            + "<xsl:output method=\"text\"/><xsl:template match=\"/\">" + text
+            + "</xsl:template></xsl:stylesheet>");
+        out.close();
+    }
+
+    private String transform(Transformer t) throws Exception {
+        StringWriter sw = new StringWriter();
+        t.transform(new StreamSource(new StringReader("<a/>")), new StreamResult(sw));
+        return sw.toString();
+    }
+}